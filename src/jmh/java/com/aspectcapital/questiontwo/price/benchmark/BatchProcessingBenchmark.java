@@ -0,0 +1,82 @@
+package com.aspectcapital.questiontwo.price.benchmark;
+
+import com.aspectcapital.questiontwo.price.PriceHolder;
+import com.aspectcapital.questiontwo.price.processor.BatchPriceProcessor;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time to process a snapshot when the processor has a fixed cost per invocation on top of its cost per price. Scores
+ * are per processed price.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchProcessingBenchmark {
+    private static final int SNAPSHOT_SIZE = 1000;
+
+    @Param({"1", "16", "128"})
+    public int batchSize;
+
+    @Param({"10000"})
+    public long invocationCost;
+
+    @Param({"100"})
+    public long priceCost;
+
+    @Param({"4"})
+    public int numberOfProcessingThreads;
+
+    private final AtomicLong pricesProcessed = new AtomicLong();
+    private final int[] entityIds = new int[SNAPSHOT_SIZE];
+    private final BigDecimal[][] snapshots = new BigDecimal[2][SNAPSHOT_SIZE];
+    private PriceHolder priceHolder;
+    private long expectedPricesProcessed;
+    private int snapshot;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        priceHolder = new PriceHolder(new FixedCostBatchPriceProcessor(), numberOfProcessingThreads, batchSize);
+
+        for (int i = 0; i < SNAPSHOT_SIZE; i++) {
+            entityIds[i] = priceHolder.getOrCreateEntityId(String.valueOf(i));
+            snapshots[0][i] = BigDecimal.valueOf(i);
+            snapshots[1][i] = BigDecimal.valueOf(-i - 1);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        priceHolder.stopProcessing();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SNAPSHOT_SIZE)
+    public void processSnapshot() {
+        snapshot ^= 1;
+        expectedPricesProcessed += SNAPSHOT_SIZE;
+        priceHolder.putPrices(entityIds, snapshots[snapshot]);
+
+        while (pricesProcessed.get() < expectedPricesProcessed) {
+            Thread.yield();
+        }
+    }
+
+    private class FixedCostBatchPriceProcessor implements BatchPriceProcessor {
+        @Override
+        public List<BigDecimal> process(List<BigDecimal> prices) {
+            Blackhole.consumeCPU(invocationCost + priceCost * prices.size());
+            pricesProcessed.addAndGet(prices.size());
+
+            return prices;
+        }
+    }
+}
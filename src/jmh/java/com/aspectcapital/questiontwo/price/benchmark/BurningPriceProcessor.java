@@ -0,0 +1,26 @@
+package com.aspectcapital.questiontwo.price.benchmark;
+
+import com.aspectcapital.questiontwo.price.processor.PriceProcessor;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.math.BigDecimal;
+
+/**
+ * Benchmark counterpart of DelayingPriceProcessor: burns CPU instead of sleeping, so that sub-millisecond
+ * processing costs can be modelled.
+ */
+public class BurningPriceProcessor implements PriceProcessor {
+    private final long tokens;
+
+    public BurningPriceProcessor(long tokens) {
+        this.tokens = tokens;
+    }
+
+    @Override
+    public BigDecimal process(BigDecimal price) {
+        if (tokens > 0)
+            Blackhole.consumeCPU(tokens);
+
+        return price;
+    }
+}
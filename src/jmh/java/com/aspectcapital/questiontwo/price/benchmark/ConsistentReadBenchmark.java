@@ -0,0 +1,75 @@
+package com.aspectcapital.questiontwo.price.benchmark;
+
+import com.aspectcapital.questiontwo.price.PriceHolder;
+import com.aspectcapital.questiontwo.price.PriceHolderConfiguration;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading 500 constituents one getPrice() at a time against one consistent getPrices() call, by name or by id, and
+ * against snapshotAll().
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConsistentReadBenchmark {
+    private static final int NUMBER_OF_ENTITIES = 500;
+
+    private final List<String> entityNames = new ArrayList<>();
+    private final int[] entityIds = new int[NUMBER_OF_ENTITIES];
+    private final BigDecimal[] prices = new BigDecimal[NUMBER_OF_ENTITIES];
+    private PriceHolder priceHolder;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        priceHolder = new PriceHolder(new BurningPriceProcessor(0), new PriceHolderConfiguration.Builder()
+                .setNumberOfThreads(1)
+                .setConsistentReads(true)
+                .build());
+
+        for (int i = 0; i < NUMBER_OF_ENTITIES; i++) {
+            entityNames.add("constituent-" + i);
+            entityIds[i] = priceHolder.getOrCreateEntityId(entityNames.get(i));
+            priceHolder.putPrice(entityIds[i], BigDecimal.valueOf(i));
+            priceHolder.waitForNextPrice(entityIds[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        priceHolder.stopProcessing();
+    }
+
+    @Benchmark
+    public BigDecimal getPriceOneByOne() {
+        BigDecimal last = null;
+        for (String entityName : entityNames) {
+            last = priceHolder.getPrice(entityName);
+        }
+
+        return last;
+    }
+
+    @Benchmark
+    public Map<String, BigDecimal> getPrices() {
+        return priceHolder.getPrices(entityNames);
+    }
+
+    @Benchmark
+    public long getPricesById() {
+        return priceHolder.getPrices(entityIds, prices);
+    }
+
+    @Benchmark
+    public BigDecimal snapshotAll() {
+        return priceHolder.snapshotAll().getPrice(0);
+    }
+}
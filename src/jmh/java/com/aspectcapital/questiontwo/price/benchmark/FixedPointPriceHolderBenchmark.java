@@ -0,0 +1,80 @@
+package com.aspectcapital.questiontwo.price.benchmark;
+
+import com.aspectcapital.questiontwo.price.FixedPointPriceHolder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the fixed-point holder. Run with {@code -prof gc} to check that puts and gets allocate nothing
+ * ({@code gc.alloc.rate.norm}).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FixedPointPriceHolderBenchmark {
+    private static final int SCALE = 4;
+
+    @Param({"1", "100", "10000"})
+    public int numberOfEntities;
+
+    @Param({"0", "1000"})
+    public long processingCost;
+
+    @Param({"4"})
+    public int numberOfProcessingThreads;
+
+    private FixedPointPriceHolder priceHolder;
+    private String[] entityNames;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        priceHolder = new FixedPointPriceHolder(mantissa -> {
+            if (processingCost > 0)
+                Blackhole.consumeCPU(processingCost);
+            return mantissa;
+        }, SCALE, numberOfProcessingThreads, numberOfEntities);
+        entityNames = new String[numberOfEntities];
+
+        for (int i = 0; i < entityNames.length; i++) {
+            entityNames[i] = String.valueOf(i);
+            priceHolder.putPrice(entityNames[i], 1L);
+            priceHolder.waitForNextMantissa(entityNames[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        priceHolder.stopProcessing();
+    }
+
+    @Benchmark
+    public void putPrice() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        priceHolder.putPrice(entityNames[random.nextInt(entityNames.length)], random.nextLong(1, 1_000_000));
+    }
+
+    @Benchmark
+    public long getMantissa() {
+        return priceHolder.getMantissa(entityNames[ThreadLocalRandom.current().nextInt(entityNames.length)]);
+    }
+
+    @Benchmark
+    @Group("putGet")
+    @GroupThreads(1)
+    public void putGetWriter() {
+        putPrice();
+    }
+
+    @Benchmark
+    @Group("putGet")
+    @GroupThreads(3)
+    public long putGetReader() {
+        return getMantissa();
+    }
+}
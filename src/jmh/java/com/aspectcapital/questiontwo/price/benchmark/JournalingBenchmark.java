@@ -0,0 +1,68 @@
+package com.aspectcapital.questiontwo.price.benchmark;
+
+import com.aspectcapital.questiontwo.price.PriceHolder;
+import com.aspectcapital.questiontwo.price.PriceHolderConfiguration;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Latency of putPrice with and without journaling to a temporary directory. Sample mode reports the p50, p99 and
+ * p99.9 percentiles, where a producer mapping a segment itself or stalling on a page fault would show up.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JournalingBenchmark {
+    private static final int NUMBER_OF_ENTITIES = 1024;
+
+    @Param({"false", "true"})
+    public boolean journaling;
+
+    private final BigDecimal price = new BigDecimal("101.25");
+    private PriceHolder priceHolder;
+    private Path journalDirectory;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        PriceHolderConfiguration.Builder configuration = new PriceHolderConfiguration.Builder()
+                .setNumberOfThreads(1);
+
+        if (journaling) {
+            journalDirectory = Files.createTempDirectory("price-journal");
+            configuration.setJournalDirectory(journalDirectory);
+        }
+
+        priceHolder = new PriceHolder(new BurningPriceProcessor(0), configuration.build());
+        for (int i = 0; i < NUMBER_OF_ENTITIES; i++) {
+            priceHolder.getOrCreateEntityId("entity-" + i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        priceHolder.close();
+
+        if (journalDirectory != null) {
+            try (Stream<Path> paths = Files.walk(journalDirectory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Benchmark
+    public void putPrice() {
+        next = (next + 1) & (NUMBER_OF_ENTITIES - 1);
+        priceHolder.putPrice(next, price);
+    }
+}
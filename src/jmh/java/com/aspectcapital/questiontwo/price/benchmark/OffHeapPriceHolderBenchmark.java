@@ -0,0 +1,63 @@
+package com.aspectcapital.questiontwo.price.benchmark;
+
+import com.aspectcapital.questiontwo.price.OffHeapPriceHolder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the off-heap holder by entity id, up to ten million entities. Run with {@code -prof gc} to check that
+ * puts and gets allocate nothing and that GC time does not grow with the number of entities.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-XX:MaxDirectMemorySize=1g")
+@State(Scope.Benchmark)
+public class OffHeapPriceHolderBenchmark {
+    private static final int SCALE = 4;
+
+    @Param({"10000", "10000000"})
+    public int numberOfEntities;
+
+    @Param({"0", "1000"})
+    public long processingCost;
+
+    @Param({"4"})
+    public int numberOfProcessingThreads;
+
+    private OffHeapPriceHolder priceHolder;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        priceHolder = new OffHeapPriceHolder(mantissa -> {
+            if (processingCost > 0)
+                Blackhole.consumeCPU(processingCost);
+            return mantissa;
+        }, SCALE, numberOfProcessingThreads, numberOfEntities);
+
+        for (int i = 0; i < numberOfEntities; i++) {
+            priceHolder.putPrice(i, 1L);
+        }
+        priceHolder.waitForNextMantissa(numberOfEntities - 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        priceHolder.stopProcessing();
+    }
+
+    @Benchmark
+    public void putPrice() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        priceHolder.putPrice(random.nextInt(numberOfEntities), random.nextLong(1, 1_000_000));
+    }
+
+    @Benchmark
+    public long getMantissa() {
+        return priceHolder.getMantissa(ThreadLocalRandom.current().nextInt(numberOfEntities));
+    }
+}
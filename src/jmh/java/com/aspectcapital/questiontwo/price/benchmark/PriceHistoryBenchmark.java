@@ -0,0 +1,79 @@
+package com.aspectcapital.questiontwo.price.benchmark;
+
+import com.aspectcapital.questiontwo.price.PriceHolder;
+import com.aspectcapital.questiontwo.price.PriceHolderConfiguration;
+import com.aspectcapital.questiontwo.price.PriceSeries;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of keeping a price history on the put to processed round trip, and of reading the last 64 prices or the
+ * last millisecond of a full history into a reused series.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PriceHistoryBenchmark {
+    private static final String ENTITY_NAME = "history";
+
+    @Param({"0", "1024"})
+    public int historyCapacity;
+
+    private final BigDecimal[] prices = {new BigDecimal("101.25"), new BigDecimal("101.50")};
+    private final PriceSeries series = new PriceSeries(1024);
+    private PriceHolder priceHolder;
+    private int entityId;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        priceHolder = new PriceHolder(new BurningPriceProcessor(0), new PriceHolderConfiguration.Builder()
+                .setNumberOfThreads(1)
+                .setHistoryCapacity(historyCapacity)
+                .build());
+        entityId = priceHolder.getOrCreateEntityId(ENTITY_NAME);
+
+        for (int i = 0; i < 2 * historyCapacity + 1; i++) {
+            putToWaitForNextPrice();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        priceHolder.stopProcessing();
+    }
+
+    @Benchmark
+    public BigDecimal putToWaitForNextPrice() throws InterruptedException {
+        next ^= 1;
+        priceHolder.putPrice(entityId, prices[next]);
+
+        return priceHolder.waitForNextPrice(entityId);
+    }
+
+    @Benchmark
+    public int getLastPrices() {
+        if (historyCapacity == 0)
+            return 0;
+
+        priceHolder.getLastPrices(entityId, 64, series);
+
+        return series.size();
+    }
+
+    @Benchmark
+    public int getHistory() {
+        if (historyCapacity == 0)
+            return 0;
+
+        long now = PriceHolder.currentTimeNanos();
+        priceHolder.getHistory(entityId, now - TimeUnit.MILLISECONDS.toNanos(1), now, series);
+
+        return series.size();
+    }
+}
@@ -0,0 +1,58 @@
+package com.aspectcapital.questiontwo.price.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of concurrent writers and readers. Thread ratios other than the defaults are set from the command
+ * line, e.g. {@code -tg 4,1} for four putters per reader.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PriceHolderBenchmark {
+
+    @Benchmark
+    @Threads(1)
+    public void putPrice(PriceHolderState state) {
+        state.priceHolder.putPrice(state.randomEntityName(), state.randomPrice());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public BigDecimal getPrice(PriceHolderState state) {
+        return state.priceHolder.getPrice(state.randomEntityName());
+    }
+
+    @Benchmark
+    @Group("putGet")
+    @GroupThreads(1)
+    public void putGetWriter(PriceHolderState state) {
+        state.priceHolder.putPrice(state.randomEntityName(), state.randomPrice());
+    }
+
+    @Benchmark
+    @Group("putGet")
+    @GroupThreads(3)
+    public BigDecimal putGetReader(PriceHolderState state) {
+        return state.priceHolder.getPrice(state.randomEntityName());
+    }
+
+    @Benchmark
+    @Group("putHasPriceChanged")
+    @GroupThreads(1)
+    public void putHasPriceChangedWriter(PriceHolderState state) {
+        state.priceHolder.putPrice(state.randomEntityName(), state.randomPrice());
+    }
+
+    @Benchmark
+    @Group("putHasPriceChanged")
+    @GroupThreads(3)
+    public boolean putHasPriceChangedReader(PriceHolderState state) {
+        return state.priceHolder.hasPriceChanged(state.randomEntityName());
+    }
+}
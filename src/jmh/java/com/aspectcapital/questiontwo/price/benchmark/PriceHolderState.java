@@ -0,0 +1,69 @@
+package com.aspectcapital.questiontwo.price.benchmark;
+
+import com.aspectcapital.questiontwo.price.PriceHolder;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+
+@State(Scope.Benchmark)
+public class PriceHolderState {
+    private static final int NUMBER_OF_PRICES = 1024;
+
+    @Param({"1", "100", "10000"})
+    public int numberOfEntities;
+
+    @Param({"0", "1000"})
+    public long processingCost;
+
+    @Param({"4"})
+    public int numberOfProcessingThreads;
+
+    PriceHolder priceHolder;
+    String[] entityNames;
+    BigDecimal[] prices;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        priceHolder = new PriceHolder(new BurningPriceProcessor(processingCost), numberOfProcessingThreads);
+        entityNames = new String[numberOfEntities];
+        prices = new BigDecimal[NUMBER_OF_PRICES];
+
+        for (int i = 0; i < prices.length; i++) {
+            prices[i] = BigDecimal.valueOf(i + 1);
+        }
+
+        for (int i = 0; i < entityNames.length; i++) {
+            entityNames[i] = String.valueOf(i);
+            priceHolder.putPrice(entityNames[i], prices[0]);
+        }
+
+        for (String entityName : entityNames) {
+            awaitFirstPrice(entityName);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        priceHolder.stopProcessing();
+    }
+
+    String randomEntityName() {
+        return entityNames[ThreadLocalRandom.current().nextInt(entityNames.length)];
+    }
+
+    BigDecimal randomPrice() {
+        return prices[ThreadLocalRandom.current().nextInt(prices.length)];
+    }
+
+    private void awaitFirstPrice(String entityName) {
+        while (true) {
+            try {
+                if (priceHolder.getPrice(entityName) != null)
+                    return;
+            } catch (IllegalArgumentException ignored) {
+            }
+            Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.aspectcapital.questiontwo.price.benchmark;
+
+import com.aspectcapital.questiontwo.price.PriceHolder;
+import com.aspectcapital.questiontwo.price.PriceHolderConfiguration;
+import com.aspectcapital.questiontwo.price.scheduling.SchedulingPolicy;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Put to visible latency per priority class while a background thread keeps the processing threads busy with bursts
+ * on many low priority entities. Sample mode reports the p50, p99 and p99.9 percentiles of every class, which are the
+ * numbers to hold against the latency objective of the class.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PrioritySchedulingBenchmark {
+    private static final int LOW_PRIORITY = 0;
+    private static final int HIGH_PRIORITY = 1;
+
+    @Param({"FIFO", "STRICT_PRIORITY", "WEIGHTED_FAIR"})
+    public SchedulingPolicy schedulingPolicy;
+
+    @Param({"1000"})
+    public int numberOfBurstEntities;
+
+    private PriceHolder priceHolder;
+    private Thread burster;
+    private volatile boolean bursting;
+
+    private final BigDecimal[] prices = {BigDecimal.ONE, BigDecimal.TEN};
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        priceHolder = new PriceHolder(new BurningPriceProcessor(1000), new PriceHolderConfiguration.Builder()
+                .setNumberOfThreads(2)
+                .setSchedulingPolicy(schedulingPolicy)
+                .setPriorityWeights(1, 4)
+                .build());
+
+        int[] burstIds = new int[numberOfBurstEntities];
+        BigDecimal[] burst = new BigDecimal[numberOfBurstEntities];
+        for (int i = 0; i < numberOfBurstEntities; i++) {
+            burstIds[i] = priceHolder.getOrCreateEntityId("burst-" + i, LOW_PRIORITY);
+            burst[i] = BigDecimal.valueOf(i);
+        }
+
+        priceHolder.putPrice("high", BigDecimal.ZERO, HIGH_PRIORITY);
+        priceHolder.putPrice("low", BigDecimal.ZERO, LOW_PRIORITY);
+        priceHolder.waitForNextPrice("high");
+        priceHolder.waitForNextPrice("low");
+
+        bursting = true;
+        burster = new Thread(() -> {
+            while (bursting) {
+                priceHolder.putPrices(burstIds, burst);
+                Thread.onSpinWait();
+            }
+        }, "burster");
+        burster.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        bursting = false;
+        burster.join();
+        priceHolder.stopProcessing();
+    }
+
+    @Benchmark
+    @Group("classes")
+    @GroupThreads(1)
+    public BigDecimal highPriority() throws InterruptedException {
+        return putAndWait("high");
+    }
+
+    @Benchmark
+    @Group("classes")
+    @GroupThreads(1)
+    public BigDecimal lowPriority() throws InterruptedException {
+        return putAndWait("low");
+    }
+
+    private BigDecimal putAndWait(String entityName) throws InterruptedException {
+        BigDecimal price;
+        synchronized (prices) {
+            next ^= 1;
+            price = prices[next];
+        }
+        priceHolder.putPrice(entityName, price);
+
+        return priceHolder.waitForNextPrice(entityName);
+    }
+}
@@ -0,0 +1,75 @@
+package com.aspectcapital.questiontwo.price.benchmark;
+
+import com.aspectcapital.questiontwo.price.PriceHolder;
+import com.aspectcapital.questiontwo.price.PriceHolderConfiguration;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Processing throughput as the number of processing threads grows, with one shared queue or one queue per thread.
+ * Scores are per processed price.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProcessingThroughputBenchmark {
+    private static final int SNAPSHOT_SIZE = 10000;
+
+    @Param({"1", "2", "4", "8", "16"})
+    public int numberOfProcessingThreads;
+
+    @Param({"false", "true"})
+    public boolean sharded;
+
+    @Param({"100"})
+    public long processingCost;
+
+    private final AtomicLong pricesProcessed = new AtomicLong();
+    private final int[] entityIds = new int[SNAPSHOT_SIZE];
+    private final BigDecimal[][] snapshots = new BigDecimal[2][SNAPSHOT_SIZE];
+    private PriceHolder priceHolder;
+    private long expectedPricesProcessed;
+    private int snapshot;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        priceHolder = new PriceHolder((BigDecimal price) -> {
+            Blackhole.consumeCPU(processingCost);
+            pricesProcessed.incrementAndGet();
+            return price;
+        }, new PriceHolderConfiguration.Builder()
+                .setNumberOfThreads(numberOfProcessingThreads)
+                .setSharded(sharded)
+                .build());
+
+        for (int i = 0; i < SNAPSHOT_SIZE; i++) {
+            entityIds[i] = priceHolder.getOrCreateEntityId(String.valueOf(i));
+            snapshots[0][i] = BigDecimal.valueOf(i);
+            snapshots[1][i] = BigDecimal.valueOf(-i - 1);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        priceHolder.stopProcessing();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SNAPSHOT_SIZE)
+    public void processSnapshot() {
+        snapshot ^= 1;
+        expectedPricesProcessed += SNAPSHOT_SIZE;
+        priceHolder.putPrices(entityIds, snapshots[snapshot]);
+
+        while (pricesProcessed.get() < expectedPricesProcessed) {
+            Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.aspectcapital.questiontwo.price.benchmark;
+
+import com.aspectcapital.questiontwo.price.PriceHolder;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Latency from putPrice until the processed price is visible to a reader. Sample mode reports the p50, p99 and
+ * p99.9 percentiles. Every benchmark thread owns its entity, so threads only meet in the processing queue.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PutToVisibleLatencyBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Holder {
+        @Param({"0", "1000"})
+        public long processingCost;
+
+        @Param({"1", "4"})
+        public int numberOfProcessingThreads;
+
+        PriceHolder priceHolder;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            priceHolder = new PriceHolder(new BurningPriceProcessor(processingCost), numberOfProcessingThreads);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            priceHolder.stopProcessing();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Reader {
+        private static final AtomicInteger entityCounter = new AtomicInteger();
+        private final BigDecimal[] prices = {BigDecimal.ONE, BigDecimal.TEN};
+
+        String entityName;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp(Holder holder) throws InterruptedException {
+            entityName = "latency-" + entityCounter.incrementAndGet();
+            holder.priceHolder.putPrice(entityName, prices[next]);
+            holder.priceHolder.waitForNextPrice(entityName);
+        }
+
+        BigDecimal nextPrice() {
+            next ^= 1;
+            return prices[next];
+        }
+    }
+
+    @Benchmark
+    public BigDecimal putToGetPrice(Holder holder, Reader reader) {
+        holder.priceHolder.putPrice(reader.entityName, reader.nextPrice());
+
+        while (!holder.priceHolder.hasPriceChanged(reader.entityName)) {
+        }
+
+        return holder.priceHolder.getPrice(reader.entityName);
+    }
+
+    @Benchmark
+    public BigDecimal putToWaitForNextPrice(Holder holder, Reader reader) throws InterruptedException {
+        holder.priceHolder.putPrice(reader.entityName, reader.nextPrice());
+
+        return holder.priceHolder.waitForNextPrice(reader.entityName);
+    }
+}
@@ -0,0 +1,78 @@
+package com.aspectcapital.questiontwo.price.benchmark;
+
+import com.aspectcapital.questiontwo.price.PriceHolder;
+import com.aspectcapital.questiontwo.price.PriceHolderConfiguration;
+import com.aspectcapital.questiontwo.price.wait.BlockingWaitStrategy;
+import com.aspectcapital.questiontwo.price.wait.BusySpinWaitStrategy;
+import com.aspectcapital.questiontwo.price.wait.WaitStrategy;
+import com.aspectcapital.questiontwo.price.wait.YieldingWaitStrategy;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Put to visible latency of the queue based ingestion against the ring buffer with each wait strategy. The busy spin
+ * strategy needs a free core per processing thread, otherwise it measures the scheduler.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RingBufferIngestionBenchmark {
+    private static final String ENTITY_NAME = "ring";
+
+    @Param({"queue", "blocking", "yielding", "busySpin"})
+    public String ingestion;
+
+    @Param({"2"})
+    public int numberOfProcessingThreads;
+
+    private final BigDecimal[] prices = {BigDecimal.ONE, BigDecimal.TEN};
+    private PriceHolder priceHolder;
+    private int entityId;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        PriceHolderConfiguration.Builder configuration = new PriceHolderConfiguration.Builder()
+                .setNumberOfThreads(numberOfProcessingThreads);
+
+        if (!"queue".equals(ingestion))
+            configuration.setRingBufferSize(1024).setWaitStrategy(waitStrategy());
+
+        priceHolder = new PriceHolder(new BurningPriceProcessor(0), configuration.build());
+        entityId = priceHolder.getOrCreateEntityId(ENTITY_NAME);
+        priceHolder.putPrice(entityId, prices[next]);
+        priceHolder.waitForNextPrice(entityId);
+    }
+
+    private WaitStrategy waitStrategy() {
+        switch (ingestion) {
+            case "yielding":
+                return new YieldingWaitStrategy();
+            case "busySpin":
+                return new BusySpinWaitStrategy();
+            default:
+                return new BlockingWaitStrategy();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        priceHolder.stopProcessing();
+    }
+
+    @Benchmark
+    public BigDecimal putToGetPrice() {
+        next ^= 1;
+        priceHolder.putPrice(entityId, prices[next]);
+
+        while (!priceHolder.hasPriceChanged(entityId)) {
+        }
+
+        return priceHolder.getPrice(entityId);
+    }
+}
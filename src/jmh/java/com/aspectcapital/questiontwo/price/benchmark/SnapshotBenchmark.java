@@ -0,0 +1,67 @@
+package com.aspectcapital.questiontwo.price.benchmark;
+
+import com.aspectcapital.questiontwo.price.PriceHolder;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of putting a market-data snapshot price by price compared with one putPrices call. Scores are per price.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SnapshotBenchmark {
+    private static final int SNAPSHOT_SIZE = 1000;
+
+    @Param({"0", "1000"})
+    public long processingCost;
+
+    private PriceHolder priceHolder;
+    private final Map<String, BigDecimal> snapshot = new LinkedHashMap<>();
+    private final int[] entityIds = new int[SNAPSHOT_SIZE];
+    private final BigDecimal[] prices = new BigDecimal[SNAPSHOT_SIZE];
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        priceHolder = new PriceHolder(new BurningPriceProcessor(processingCost));
+
+        for (int i = 0; i < SNAPSHOT_SIZE; i++) {
+            String entityName = String.valueOf(i);
+            prices[i] = BigDecimal.valueOf(i);
+            entityIds[i] = priceHolder.getOrCreateEntityId(entityName);
+            snapshot.put(entityName, prices[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        priceHolder.stopProcessing();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SNAPSHOT_SIZE)
+    public void putPrice() {
+        for (Map.Entry<String, BigDecimal> price : snapshot.entrySet()) {
+            priceHolder.putPrice(price.getKey(), price.getValue());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SNAPSHOT_SIZE)
+    public void putPricesByName() {
+        priceHolder.putPrices(snapshot);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SNAPSHOT_SIZE)
+    public void putPricesById() {
+        priceHolder.putPrices(entityIds, prices);
+    }
+}
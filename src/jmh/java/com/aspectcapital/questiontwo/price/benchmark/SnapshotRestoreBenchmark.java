@@ -0,0 +1,77 @@
+package com.aspectcapital.questiontwo.price.benchmark;
+
+import com.aspectcapital.questiontwo.price.PriceHolder;
+import com.aspectcapital.questiontwo.price.PriceHolderConfiguration;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from constructing a PriceHolder configured with a snapshot of a million entities until it serves their prices,
+ * and the time to write that snapshot while the holder runs. Restoring allocates every entity at once, so give the
+ * fork a young generation large enough to hold them, e.g. -jvmArgs "-Xmx3g -Xmn2g".
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SnapshotRestoreBenchmark {
+    private static final int NUMBER_OF_ENTITIES = 1_000_000;
+
+    private Path snapshotFile;
+    private PriceHolderConfiguration configuration;
+    private PriceHolder priceHolder;
+    private PriceHolder restored;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        snapshotFile = Files.createTempFile("entities", ".snapshot");
+        Files.delete(snapshotFile);
+        configuration = new PriceHolderConfiguration.Builder()
+                .setNumberOfThreads(1)
+                .setSnapshotFile(snapshotFile)
+                .build();
+
+        priceHolder = new PriceHolder(new BurningPriceProcessor(0), configuration);
+        for (int i = 0; i < NUMBER_OF_ENTITIES; i++) {
+            priceHolder.getOrCreateEntityId("entity-" + i);
+            priceHolder.putPrice(i, BigDecimal.valueOf(i, 2));
+        }
+        priceHolder.stopProcessing();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        priceHolder.stopProcessing();
+        Files.deleteIfExists(snapshotFile);
+    }
+
+    /**
+     * Stopping writes the snapshot again, which is not part of the restore.
+     */
+    @TearDown(Level.Invocation)
+    public void stopRestored() {
+        if (restored != null) {
+            restored.stopProcessing();
+            restored = null;
+        }
+    }
+
+    @Benchmark
+    public BigDecimal restore() {
+        restored = new PriceHolder(new BurningPriceProcessor(0), configuration);
+
+        return restored.getPrice(NUMBER_OF_ENTITIES - 1);
+    }
+
+    @Benchmark
+    public void writeSnapshot() throws IOException {
+        priceHolder.writeSnapshot(snapshotFile);
+    }
+}
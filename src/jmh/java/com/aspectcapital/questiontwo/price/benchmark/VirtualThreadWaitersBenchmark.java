@@ -0,0 +1,90 @@
+package com.aspectcapital.questiontwo.price.benchmark;
+
+import com.aspectcapital.questiontwo.price.PriceHolder;
+import com.aspectcapital.questiontwo.price.PriceHolderConfiguration;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fan out of one snapshot to many subscribers, each blocked in waitForNextPrice on its own virtual thread. Measures the
+ * time from putting the snapshot until every waiter has returned, so the score divided by waiters is the wake up cost
+ * per subscriber. The same number of platform threads would not even start.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class VirtualThreadWaitersBenchmark {
+
+    @Param({"100000"})
+    public int numberOfWaiters;
+
+    @Param({"1", "1000"})
+    public int numberOfEntities;
+
+    private PriceHolder priceHolder;
+    private int[] entityIds;
+    private BigDecimal[] snapshot;
+    private List<Thread> waiters;
+    private int round;
+
+    @Setup(Level.Trial)
+    public void setUpHolder() {
+        priceHolder = new PriceHolder(new BurningPriceProcessor(0), new PriceHolderConfiguration.Builder()
+                .setVirtualThreads(true)
+                .build());
+        entityIds = new int[numberOfEntities];
+        snapshot = new BigDecimal[numberOfEntities];
+
+        for (int i = 0; i < numberOfEntities; i++) {
+            entityIds[i] = priceHolder.getOrCreateEntityId(String.valueOf(i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        priceHolder.stopProcessing();
+    }
+
+    @Setup(Level.Invocation)
+    public void startWaiters() throws InterruptedException {
+        CountDownLatch waiting = new CountDownLatch(numberOfWaiters);
+        waiters = new ArrayList<>(numberOfWaiters);
+        round++;
+
+        for (int i = 0; i < numberOfWaiters; i++) {
+            int entityId = entityIds[i % numberOfEntities];
+
+            waiters.add(Thread.ofVirtual().start(() -> {
+                try {
+                    priceHolder.getPrice(entityId);
+                    waiting.countDown();
+                    priceHolder.waitForNextPrice(entityId);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+
+        waiting.await();
+        for (int i = 0; i < numberOfEntities; i++) {
+            snapshot[i] = BigDecimal.valueOf(round);
+        }
+    }
+
+    @Benchmark
+    public void wakeAllWaiters() throws InterruptedException {
+        priceHolder.putPrices(entityIds, snapshot);
+
+        for (Thread waiter : waiters) {
+            waiter.join();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.aspectcapital.questiontwo.price.benchmark;
+
+import com.aspectcapital.questiontwo.price.PriceHolder;
+import com.aspectcapital.questiontwo.price.PriceHolderConfiguration;
+import com.aspectcapital.questiontwo.price.wait.BackoffWaitStrategy;
+import com.aspectcapital.questiontwo.price.wait.BusySpinWaitStrategy;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Put to waitForNextPrice round trip with an idle queue, so both the processing thread and the reader have to wake up
+ * on every price. "parking" leaves both on their default conditions; the other settings wait through the named
+ * strategy on both sides. Sample mode reports the p50, p99 and p99.9 percentiles.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WakeUpLatencyBenchmark {
+    private static final String ENTITY_NAME = "wake-up";
+
+    @Param({"parking", "backoff", "busySpin"})
+    public String waitStrategy;
+
+    private final BigDecimal[] prices = {BigDecimal.ONE, BigDecimal.TEN};
+    private PriceHolder priceHolder;
+    private int entityId;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        PriceHolderConfiguration.Builder configuration = new PriceHolderConfiguration.Builder()
+                .setNumberOfThreads(1);
+
+        if ("backoff".equals(waitStrategy))
+            configuration.setWaitStrategy(new BackoffWaitStrategy()).setReaderWaitStrategy(BackoffWaitStrategy::new);
+        else if ("busySpin".equals(waitStrategy))
+            configuration.setWaitStrategy(new BusySpinWaitStrategy()).setReaderWaitStrategy(BusySpinWaitStrategy::new);
+
+        priceHolder = new PriceHolder(new BurningPriceProcessor(0), configuration.build());
+        entityId = priceHolder.getOrCreateEntityId(ENTITY_NAME);
+        priceHolder.putPrice(entityId, prices[next]);
+        priceHolder.waitForNextPrice(entityId);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        priceHolder.stopProcessing();
+    }
+
+    @Benchmark
+    public BigDecimal putToWaitForNextPrice() throws InterruptedException {
+        next ^= 1;
+        priceHolder.putPrice(entityId, prices[next]);
+
+        return priceHolder.waitForNextPrice(entityId);
+    }
+}
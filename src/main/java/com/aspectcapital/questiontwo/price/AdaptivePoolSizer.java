@@ -0,0 +1,122 @@
+package com.aspectcapital.questiontwo.price;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.IntSupplier;
+
+/**
+ * Sizes the adaptive processing pool from a sample taken every sizing interval. The pool grows by one thread when the
+ * queue holds more entities than there are threads and the threads were busy most of the interval, and shrinks by one
+ * when the queue was empty and the threads mostly idle. Growing needs {@link #GROW_SAMPLES} and shrinking the longer
+ * {@link #SHRINK_SAMPLES} consecutive samples, so a short burst or lull does not resize the pool. The pool never grows
+ * past the processors available to the JVM nor while the system load average already exceeds them.
+ * <p>
+ * Threads are started and retired by CAS against the target, so processing threads never take a lock here; only the
+ * sizing thread calls {@link #resize(long, long)}.
+ */
+class AdaptivePoolSizer {
+    static final double GROW_UTILISATION = 0.75;
+    static final double SHRINK_UTILISATION = 0.25;
+    static final int GROW_SAMPLES = 2;
+    static final int SHRINK_SAMPLES = 10;
+
+    private final int minThreads;
+    private final int maxThreads;
+    private final IntSupplier availableProcessors;
+    private final DoubleSupplier systemLoadAverage;
+    private final AtomicInteger threads = new AtomicInteger();
+    private final LongAdder busyNanos = new LongAdder();
+    private volatile int targetThreads;
+    private int growSamples;
+    private int shrinkSamples;
+
+    AdaptivePoolSizer(int minThreads, int maxThreads, IntSupplier availableProcessors, DoubleSupplier systemLoadAverage) {
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        this.availableProcessors = availableProcessors;
+        this.systemLoadAverage = systemLoadAverage;
+    }
+
+    /**
+     * Resets the pool to its minimum size, before the processing threads are started.
+     */
+    void reset() {
+        threads.set(0);
+        targetThreads = minThreads;
+        growSamples = 0;
+        shrinkSamples = 0;
+        busyNanos.reset();
+    }
+
+    void onProcessed(long processingNanos) {
+        busyNanos.add(processingNanos);
+    }
+
+    /**
+     * @return true when the caller has to start a processing thread to reach the target size
+     */
+    boolean tryStart() {
+        int current;
+
+        do {
+            current = threads.get();
+            if (current >= targetThreads)
+                return false;
+        } while (!threads.compareAndSet(current, current + 1));
+
+        return true;
+    }
+
+    /**
+     * @return true when the calling processing thread has to exit because the pool shrank
+     */
+    boolean tryRetire() {
+        int current;
+
+        do {
+            current = threads.get();
+            if (current <= targetThreads)
+                return false;
+        } while (!threads.compareAndSet(current, current - 1));
+
+        return true;
+    }
+
+    void resize(long queueDepth, long intervalNanos) {
+        int current = targetThreads;
+        double utilisation = (double) busyNanos.sumThenReset() / ((double) intervalNanos * current);
+
+        if (queueDepth > current && utilisation >= GROW_UTILISATION && canGrow(current)) {
+            shrinkSamples = 0;
+            if (++growSamples >= GROW_SAMPLES) {
+                growSamples = 0;
+                targetThreads = current + 1;
+            }
+        } else if (queueDepth == 0 && utilisation <= SHRINK_UTILISATION && current > minThreads) {
+            growSamples = 0;
+            if (++shrinkSamples >= SHRINK_SAMPLES) {
+                shrinkSamples = 0;
+                targetThreads = current - 1;
+            }
+        } else {
+            growSamples = 0;
+            shrinkSamples = 0;
+        }
+    }
+
+    private boolean canGrow(int current) {
+        int processors = availableProcessors.getAsInt();
+        double load = systemLoadAverage.getAsDouble();
+
+        return current < maxThreads && current < processors && (load < 0 || load < processors);
+    }
+
+    int getThreads() {
+        return threads.get();
+    }
+
+    int getTargetThreads() {
+        return targetThreads;
+    }
+}
@@ -1,136 +1,578 @@
 package com.aspectcapital.questiontwo.price;
 
+import com.aspectcapital.questiontwo.price.subscription.PriceListener;
+import com.aspectcapital.questiontwo.price.wait.WaitStrategy;
 import org.apache.log4j.Logger;
 
 import java.math.BigDecimal;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * All mutable state lives in one immutable {@link State} swapped by CAS, so puts, reads and processing steps never
+ * take a monitor. The lock is only used to park threads in {@link #getNewPrice(PriceCursor)} and is not touched by
+ * writers while nobody waits. What a reader has seen is tracked by its {@link PriceCursor}, not by the entity. With a
+ * reader {@link WaitStrategy} readers wait through it instead of parking on the lock.
+ * <p>
+ * The lock and the collections of waiters are created by the first thread that needs them, so an entity nobody waits
+ * on stays small, which matters when a million of them are restored from a snapshot.
+ * <p>
+ * With {@link PriceEpochs} every published price is also kept as a version in the state, which is what consistent
+ * multi-entity reads are served from.
+ */
 public class Entity {
     private final static Logger logger = Logger.getLogger(Entity.class);
+    private static final AtomicReferenceFieldUpdater<Entity, PriceHistory> HISTORY =
+            AtomicReferenceFieldUpdater.newUpdater(Entity.class, PriceHistory.class, "history");
 
+    private final int id;
     private final String name;
-    private BigDecimal price;
-    private BigDecimal nextPriceToProcess;
-    private AtomicBoolean inProcessing = new AtomicBoolean();
-    private ThreadLocal<BigDecimal> lastPriceRead = new ThreadLocal<>();
-    private BigDecimal nextPriceToReturn;
-    private ReentrantLock lock = new ReentrantLock();
-    private Condition newPricePut = lock.newCondition();
-
-    Entity(String name) {
+    private final AtomicReference<State> state = new AtomicReference<>(State.EMPTY);
+    private final List<PriceListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile WaitLock waitLock;
+    private volatile Set<PriceWaiter> priceWaiters;
+    private volatile Queue<CompletableFuture<BigDecimal>> pendingPrices;
+    private volatile long lastPutNanos;
+    private long queueSequence;
+    private volatile int priority;
+    private final WaitStrategy readerWaitStrategy;
+    private final int historyCapacity;
+    private volatile PriceHistory history;
+    private final PriceEpochs epochs;
+
+    Entity(int id, String name) {
+        this(id, name, null);
+    }
+
+    Entity(int id, String name, WaitStrategy readerWaitStrategy) {
+        this(id, name, readerWaitStrategy, 0);
+    }
+
+    /**
+     * @param historyCapacity how many processed prices the entity's history keeps, 0 for none; the history is only
+     *                        allocated with the first price
+     */
+    Entity(int id, String name, WaitStrategy readerWaitStrategy, int historyCapacity) {
+        this(id, name, readerWaitStrategy, historyCapacity, null);
+    }
+
+    /**
+     * @param epochs versions every published price for consistent reads, null for none
+     */
+    Entity(int id, String name, WaitStrategy readerWaitStrategy, int historyCapacity, PriceEpochs epochs) {
+        this.id = id;
         this.name = name;
+        this.readerWaitStrategy = readerWaitStrategy;
+        this.historyCapacity = historyCapacity;
+        this.epochs = epochs;
     }
 
-    BigDecimal getLastPriceRead() {
-        return lastPriceRead.get();
+    public int getId() {
+        return id;
     }
 
-    void setLastPriceRead(BigDecimal lastPriceRead) {
-        synchronized (lock) {
-            this.lastPriceRead.set(lastPriceRead);
-            logger.debug(String.format("[LAST PRICE READ SET] %s", this));
-        }
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the priority of the entity, higher is more important
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    void addListener(PriceListener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(PriceListener listener) {
+        listeners.remove(listener);
+    }
+
+    List<PriceListener> getListeners() {
+        return listeners;
     }
 
     public BigDecimal getPrice() {
-        BigDecimal toReturn;
+        return state.get().price;
+    }
 
-        synchronized (lock) {
-            toReturn = price;
-            setLastPriceRead(toReturn);
-        }
+    BigDecimal getPrice(PriceCursor cursor) {
+        State current = state.get();
+        cursor.setVersionRead(id, current.version);
 
-        return toReturn;
+        return current.price;
     }
 
     public void setPrice(BigDecimal price) {
-        synchronized (lock) {
-            this.price = price;
-            onNewPrice();
+        State current;
+        PriceEpochs.Version published;
+
+        do {
+            current = state.get();
+            published = publish(current, price);
+        } while (!state.compareAndSet(current, current.withPrice(price, current.inProcessing, published)));
+
+        stamp(published);
+        recordHistory(price);
+        onNewPrice();
+    }
+
+    /**
+     * Publishes a price restored from a snapshot, which is not a new price for the history.
+     */
+    void restorePrice(BigDecimal price) {
+        State current;
+        PriceEpochs.Version published;
+
+        do {
+            current = state.get();
+            published = publish(current, price);
+        } while (!state.compareAndSet(current, current.withPrice(price, current.inProcessing, published)));
+
+        stamp(published);
+    }
+
+    /**
+     * @return the price published at or before {@code epoch} of the entity's {@link PriceEpochs}
+     */
+    BigDecimal getPriceAt(long epoch) {
+        return epochs.getPriceAt(state.get().published, epoch);
+    }
+
+    private PriceEpochs.Version publish(State current, BigDecimal price) {
+        return epochs != null ? epochs.publish(current.published, price) : null;
+    }
+
+    private void stamp(PriceEpochs.Version published) {
+        if (published != null)
+            epochs.stamp(published);
+    }
+
+    /**
+     * @return null unless the entity keeps a history and has a price
+     */
+    PriceHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * Called by the thread publishing the price while the entity is still in processing, which keeps the history to
+     * one writer at a time.
+     */
+    private void recordHistory(BigDecimal price) {
+        if (historyCapacity == 0 || price == null)
+            return;
+
+        PriceHistory current = history;
+        if (current == null) {
+            HISTORY.compareAndSet(this, null, new PriceHistory(historyCapacity));
+            current = history;
         }
+
+        current.add(price);
+    }
+
+    long getLastPutNanos() {
+        return lastPutNanos;
+    }
+
+    void setLastPutNanos(long lastPutNanos) {
+        this.lastPutNanos = lastPutNanos;
+    }
+
+    /**
+     * Arrival order of the entity in an arrival ordered {@link EntityQueue}, read and written under the queue's lock.
+     */
+    long getQueueSequence() {
+        return queueSequence;
+    }
+
+    void setQueueSequence(long queueSequence) {
+        this.queueSequence = queueSequence;
     }
 
     BigDecimal getNextPriceToProcess() {
-        return nextPriceToProcess;
+        return state.get().nextPriceToProcess;
+    }
+
+    /**
+     * @return the number of prices put so far; read it before {@link #getNextPriceToProcess()} so the price taken is
+     * never older than the version handed back to {@link #setProcessedPrice(long, BigDecimal)}
+     */
+    long getReceivedVersion() {
+        return state.get().receivedVersion;
     }
 
-    void setNextPriceToProcess(BigDecimal next) {
-        nextPriceToProcess = next;
+    /**
+     * @return the number of processed prices published so far
+     */
+    long getVersion() {
+        return state.get().version;
+    }
+
+    /**
+     * @return how many processed prices were published since the cursor last read the entity
+     */
+    long getPricesSinceLastRead(PriceCursor cursor) {
+        return state.get().version - cursor.getVersionRead(id);
+    }
+
+    /**
+     * @return true when the entity was idle and has just been marked in processing, i.e. the caller has to queue it
+     */
+    boolean putNextPriceToProcess(BigDecimal next) {
+        State current;
+
+        do {
+            current = state.get();
+        } while (!state.compareAndSet(current, current.withNextPriceToProcess(next, true)));
+
+        return !current.inProcessing;
+    }
+
+    /**
+     * Publishes the result of processing the price put as {@code receivedVersion} and releases the entity unless
+     * another price was put in the meantime, even one of the same value.
+     *
+     * @return true when the entity stays in processing and has to be queued again
+     */
+    boolean setProcessedPrice(long receivedVersion, BigDecimal processedPrice) {
+        publishProcessedPrice(receivedVersion, processedPrice);
+
+        return finishProcessing(receivedVersion);
+    }
+
+    /**
+     * Publishes the result of processing the price put as {@code receivedVersion}. The entity stays in processing, so
+     * whatever a worker does with the price before {@link #finishProcessing(long)} happens before the next price of
+     * the entity is processed.
+     */
+    void publishProcessedPrice(long receivedVersion, BigDecimal processedPrice) {
+        State current;
+        PriceEpochs.Version published;
+
+        do {
+            current = state.get();
+            published = publish(current, processedPrice);
+        } while (!state.compareAndSet(current, current.withProcessedPrice(processedPrice, receivedVersion, true, published)));
+
+        stamp(published);
+        recordHistory(processedPrice);
+        onNewPrice();
+    }
+
+    /**
+     * Releases the entity after the price put as {@code receivedVersion} was processed, or failed to, unless another
+     * price was put in the meantime, even one of the same value.
+     *
+     * @return true when the entity stays in processing and has to be queued again
+     */
+    boolean finishProcessing(long receivedVersion) {
+        State current;
+
+        do {
+            current = state.get();
+            if (current.receivedVersion != receivedVersion)
+                return true;
+        } while (!state.compareAndSet(current, current.withInProcessing(false)));
+
+        return false;
     }
 
     @Override
     public String toString() {
+        State current = state.get();
+
         return "Entity{" +
-                "name='" + name + '\'' +
-                ", price=" + price +
-                ", nextPriceToProcess=" + nextPriceToProcess +
-                ", inProcessing=" + inProcessing +
-                ", lastPriceRead=" + lastPriceRead.get() +
-                ", nextPriceToReturn=" + nextPriceToReturn +
+                "id=" + id +
+                ", name='" + name + '\'' +
+                ", price=" + current.price +
+                ", nextPriceToProcess=" + current.nextPriceToProcess +
+                ", inProcessing=" + current.inProcessing +
+                ", version=" + current.version +
+                ", receivedVersion=" + current.receivedVersion +
                 '}';
     }
 
     boolean isInProcessing() {
-        return inProcessing.get();
+        return state.get().inProcessing;
     }
 
     void setInProcessing(boolean inProcessing) {
-        synchronized (lock) {
-            this.inProcessing.set(inProcessing);
+        State current;
+
+        do {
+            current = state.get();
+        } while (!state.compareAndSet(current, current.withInProcessing(inProcessing)));
+
+        if (logger.isDebugEnabled())
             logger.debug(String.format("[IN PROCESSING]: %s, for: %s", inProcessing, this));
+    }
+
+    void addPriceWaiter(PriceWaiter waiter) {
+        Set<PriceWaiter> waiters = priceWaiters;
+
+        if (waiters == null) {
+            synchronized (this) {
+                if (priceWaiters == null)
+                    priceWaiters = ConcurrentHashMap.newKeySet();
+                waiters = priceWaiters;
+            }
         }
+
+        waiters.add(waiter);
+    }
+
+    void removePriceWaiter(PriceWaiter waiter) {
+        Set<PriceWaiter> waiters = priceWaiters;
+
+        if (waiters != null)
+            waiters.remove(waiter);
+    }
+
+    /**
+     * Creating a waiting structure before checking the state pairs with {@link #onNewPrice()} reading it after
+     * changing the state: either the waiter sees the new price or the writer sees the waiter.
+     */
+    private WaitLock getWaitLock() {
+        WaitLock current = waitLock;
+
+        if (current == null) {
+            synchronized (this) {
+                if (waitLock == null)
+                    waitLock = new WaitLock();
+                current = waitLock;
+            }
+        }
+
+        return current;
+    }
+
+    private Queue<CompletableFuture<BigDecimal>> getPendingPrices() {
+        Queue<CompletableFuture<BigDecimal>> current = pendingPrices;
+
+        if (current == null) {
+            synchronized (this) {
+                if (pendingPrices == null)
+                    pendingPrices = new ConcurrentLinkedQueue<>();
+                current = pendingPrices;
+            }
+        }
+
+        return current;
     }
 
     private void onNewPrice() {
-        lock.lock();
+        Queue<CompletableFuture<BigDecimal>> pending = pendingPrices;
+        if (pending != null && !pending.isEmpty())
+            completePendingPrices(pending);
+
+        Set<PriceWaiter> waiters = priceWaiters;
+        if (waiters != null && !waiters.isEmpty()) {
+            for (PriceWaiter waiter : waiters) {
+                waiter.signal();
+            }
+        }
+
+        if (readerWaitStrategy != null)
+            readerWaitStrategy.signalAll();
+
+        WaitLock current = waitLock;
+        if (current == null || current.waiters.get() == 0)
+            return;
+
+        current.lock.lock();
         try {
-            nextPriceToReturn = price;
-            logger.debug(String.format("[SIGNAL ALL] %s ", this));
-            newPricePut.signalAll();
+            current.newPricePut.signalAll();
         } finally {
-            lock.unlock();
+            current.lock.unlock();
         }
     }
 
-    BigDecimal getNewPrice() throws InterruptedException {
-        BigDecimal newPrice = price;
+    BigDecimal getNewPrice(PriceCursor cursor) throws InterruptedException {
+        long versionRead = cursor.getVersionRead(id);
+        State current = state.get();
 
-        lock.lock();
-        try {
-            while (!hasPriceChanged()) {
-                newPricePut.await();
-                newPrice = nextPriceToReturn;
+        if (current.version <= versionRead && readerWaitStrategy != null) {
+            readerWaitStrategy.waitFor(() -> state.get().version > versionRead);
+            current = state.get();
+        } else if (current.version <= versionRead) {
+            WaitLock waitLock = getWaitLock();
+            waitLock.lock.lock();
+            waitLock.waiters.incrementAndGet();
+            try {
+                while ((current = state.get()).version <= versionRead) {
+                    waitLock.newPricePut.await();
+                }
+            } finally {
+                waitLock.waiters.decrementAndGet();
+                waitLock.lock.unlock();
             }
-        } finally {
-            lock.unlock();
         }
 
-        setLastPriceRead(newPrice);
-        logger.debug(String.format("[NEXT PRICE] %s, price: %f", this, newPrice));
+        cursor.setVersionRead(id, current.version);
 
-        return newPrice;
+        return current.price;
     }
 
-    boolean hasPriceChanged() {
-        return nullSafeIsEqual(price, lastPriceRead.get());
+    BigDecimal getNewPrice(PriceCursor cursor, long timeoutNanos) throws InterruptedException, TimeoutException {
+        long versionRead = cursor.getVersionRead(id);
+        State current = state.get();
+
+        if (current.version <= versionRead && readerWaitStrategy != null) {
+            if (!readerWaitStrategy.waitFor(() -> state.get().version > versionRead, timeoutNanos))
+                throw new TimeoutException(String.format("No new price for entity: \"%s\" within %d ns", name, timeoutNanos));
+            current = state.get();
+        } else if (current.version <= versionRead) {
+            WaitLock waitLock = getWaitLock();
+            waitLock.lock.lockInterruptibly();
+            waitLock.waiters.incrementAndGet();
+            try {
+                long remaining = timeoutNanos;
+
+                while ((current = state.get()).version <= versionRead) {
+                    if (remaining <= 0)
+                        throw new TimeoutException(String.format("No new price for entity: \"%s\" within %d ns", name, timeoutNanos));
+
+                    remaining = waitLock.newPricePut.awaitNanos(remaining);
+                }
+            } finally {
+                waitLock.waiters.decrementAndGet();
+                waitLock.lock.unlock();
+            }
+        }
+
+        cursor.setVersionRead(id, current.version);
+
+        return current.price;
+    }
+
+    /**
+     * @return a future completed, by the thread publishing it, with the first price newer than {@code versionRead};
+     * cancelling it or completing it exceptionally, e.g. by a timeout, stops it waiting
+     */
+    CompletableFuture<BigDecimal> getNewPriceAsync(long versionRead) {
+        State current = state.get();
+
+        if (current.version > versionRead)
+            return CompletableFuture.completedFuture(current.price);
+
+        CompletableFuture<BigDecimal> future = new CompletableFuture<>();
+        Queue<CompletableFuture<BigDecimal>> pendingPrices = getPendingPrices();
+        pendingPrices.offer(future);
+        future.whenComplete((BigDecimal price, Throwable failure) -> {
+            if (failure != null)
+                pendingPrices.remove(future);
+        });
+
+        current = state.get();
+        if (current.version > versionRead && pendingPrices.remove(future))
+            future.complete(current.price);
+
+        return future;
+    }
+
+    /**
+     * @return the number of futures waiting for a new price
+     */
+    int getPendingPriceCount() {
+        Queue<CompletableFuture<BigDecimal>> pending = pendingPrices;
+
+        return pending == null ? 0 : pending.size();
+    }
+
+    private void completePendingPrices(Queue<CompletableFuture<BigDecimal>> pendingPrices) {
+        BigDecimal price = state.get().price;
+        CompletableFuture<BigDecimal> future;
+
+        while ((future = pendingPrices.poll()) != null) {
+            future.complete(price);
+        }
+    }
+
+    /**
+     * @return true when a price was published since the cursor last read the entity
+     */
+    boolean hasPriceChanged(PriceCursor cursor) {
+        return state.get().version > cursor.getVersionRead(id);
     }
 
+    /**
+     * @return true when a price was put that has not been processed yet
+     */
     public boolean hasPriceToProcess() {
-        return nullSafeIsEqual(price, nextPriceToProcess);
+        State current = state.get();
+
+        return current.receivedVersion != current.processedReceivedVersion;
+    }
+
+    private static final class WaitLock {
+        final AtomicInteger waiters = new AtomicInteger();
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition newPricePut = lock.newCondition();
     }
 
-    private boolean nullSafeIsEqual(BigDecimal price1, BigDecimal price2) {
-        boolean priceChanged = true;
+    /**
+     * {@code version} counts processed prices published and {@code receivedVersion} prices put;
+     * {@code processedReceivedVersion} is the received version the current price was processed from.
+     */
+    private static final class State {
+        static final State EMPTY = new State(null, null, false, 0, 0, 0, null);
+
+        final BigDecimal price;
+        final BigDecimal nextPriceToProcess;
+        final boolean inProcessing;
+        final long version;
+        final long receivedVersion;
+        final long processedReceivedVersion;
+        final PriceEpochs.Version published;
 
-        if(price1 != null) {
-            if(price2 != null)
-                priceChanged = price1.compareTo(price2) != 0;
+        State(BigDecimal price, BigDecimal nextPriceToProcess, boolean inProcessing, long version, long receivedVersion,
+              long processedReceivedVersion, PriceEpochs.Version published) {
+            this.price = price;
+            this.nextPriceToProcess = nextPriceToProcess;
+            this.inProcessing = inProcessing;
+            this.version = version;
+            this.receivedVersion = receivedVersion;
+            this.processedReceivedVersion = processedReceivedVersion;
+            this.published = published;
+        }
+
+        State withPrice(BigDecimal price, boolean inProcessing, PriceEpochs.Version published) {
+            return new State(price, nextPriceToProcess, inProcessing, version + 1, receivedVersion, processedReceivedVersion,
+                    published);
+        }
+
+        State withProcessedPrice(BigDecimal price, long processedReceivedVersion, boolean inProcessing,
+                                 PriceEpochs.Version published) {
+            return new State(price, nextPriceToProcess, inProcessing, version + 1, receivedVersion, processedReceivedVersion,
+                    published);
+        }
+
+        State withNextPriceToProcess(BigDecimal nextPriceToProcess, boolean inProcessing) {
+            return new State(price, nextPriceToProcess, inProcessing, version, receivedVersion + 1, processedReceivedVersion,
+                    published);
         }
-        else
-            priceChanged = price2 != null;
 
-        return priceChanged;
+        State withInProcessing(boolean inProcessing) {
+            return new State(price, nextPriceToProcess, inProcessing, version, receivedVersion, processedReceivedVersion, published);
+        }
     }
 }
@@ -0,0 +1,61 @@
+package com.aspectcapital.questiontwo.price;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded blocking FIFO of entity ids in an int array, so queueing an id allocates nothing. Like the queue of
+ * {@link FixedPointPriceHolder} it is sized to the maximum number of entities, which is enough because an entity is
+ * never queued twice.
+ */
+class EntityIdQueue {
+    private final int[] ids;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private int head;
+    private int size;
+
+    EntityIdQueue(int capacity) {
+        this.ids = new int[capacity];
+    }
+
+    void put(int entityId) {
+        lock.lock();
+        try {
+            if (size == ids.length)
+                throw new IllegalStateException(String.format("Cannot queue entity id: %d, queue of %d ids is full", entityId, ids.length));
+
+            ids[(head + size) % ids.length] = entityId;
+            size++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                notEmpty.await();
+            }
+
+            int entityId = ids[head];
+            head = (head + 1) % ids.length;
+            size--;
+
+            return entityId;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package com.aspectcapital.questiontwo.price;
+
+import com.aspectcapital.questiontwo.price.scheduling.SchedulingPolicy;
+import com.aspectcapital.questiontwo.price.wait.WaitStrategy;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Queue of entities waiting for processing. Unlike LinkedBlockingQueue a whole batch is enqueued under one lock
+ * acquisition and without allocating a node per entity. With a priority scheduling policy every priority class has a
+ * queue of its own and the policy picks the class served next; an entity's class is its priority, clamped to the
+ * classes configured. In arrival order every distinct priority queued gets a class of its own, created the first time
+ * it is queued, and the class whose first entity arrived first is served, so the lowest priority entity to shed is
+ * found without walking the queue.
+ * <p>
+ * Taking threads park on the queue's condition, which wakes one of them per entity put, unless a {@link WaitStrategy}
+ * is given; then they wait through it for the queue to become non-empty, outside the lock, and race for the entity.
+ */
+class EntityQueue {
+    private ArrayDeque<Entity>[] classes;
+    private int[] classPriorities;
+    private long nextSequence;
+    private final SchedulingPolicy policy;
+    private final int[] weights;
+    private final int[] credits;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final WaitStrategy waitStrategy;
+    private volatile int size;
+    private final BooleanSupplier notEmptyCondition = () -> size > 0;
+
+    EntityQueue() {
+        this(SchedulingPolicy.FIFO, new int[]{1});
+    }
+
+    /**
+     * @param weights one weight per priority class, from the lowest class 0 up
+     */
+    EntityQueue(SchedulingPolicy policy, int[] weights) {
+        this(policy, weights, null);
+    }
+
+    /**
+     * @param waitStrategy how taking threads wait for entities, null to park on the queue's condition
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    EntityQueue(SchedulingPolicy policy, int[] weights, WaitStrategy waitStrategy) {
+        this.policy = policy;
+        this.waitStrategy = waitStrategy;
+        this.weights = policy == SchedulingPolicy.FIFO ? new int[]{1} : weights.clone();
+        this.credits = this.weights.clone();
+        this.classes = new ArrayDeque[this.weights.length];
+        this.classPriorities = policy == SchedulingPolicy.FIFO ? new int[]{0} : null;
+
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new ArrayDeque<>();
+        }
+    }
+
+    void put(Entity entity) {
+        lock.lock();
+        try {
+            add(entity);
+            size++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        if (waitStrategy != null)
+            waitStrategy.signalAll();
+    }
+
+    void putAll(Collection<Entity> batch) {
+        if (batch.isEmpty())
+            return;
+
+        lock.lock();
+        try {
+            for (Entity entity : batch) {
+                add(entity);
+            }
+            size += batch.size();
+
+            if (batch.size() == 1)
+                notEmpty.signal();
+            else
+                notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        if (waitStrategy != null)
+            waitStrategy.signalAll();
+    }
+
+    Entity take() throws InterruptedException {
+        if (waitStrategy != null)
+            return takeWaiting();
+
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                notEmpty.await();
+            }
+
+            return poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the next entity or null when none was queued within the timeout
+     */
+    Entity poll(long timeoutNanos) throws InterruptedException {
+        if (waitStrategy != null)
+            return pollWaiting(timeoutNanos);
+
+        lock.lockInterruptibly();
+        try {
+            long remaining = timeoutNanos;
+
+            while (size == 0) {
+                if (remaining <= 0)
+                    return null;
+
+                remaining = notEmpty.awaitNanos(remaining);
+            }
+
+            return poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until at least one entity is queued, then moves up to {@code maxElements} entities to {@code batch}.
+     *
+     * @return the number of entities moved
+     */
+    int takeAll(Collection<? super Entity> batch, int maxElements) throws InterruptedException {
+        if (waitStrategy != null) {
+            int taken;
+
+            do {
+                waitStrategy.waitFor(notEmptyCondition);
+            } while ((taken = tryTakeAll(batch, maxElements)) == 0);
+
+            return taken;
+        }
+
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                notEmpty.await();
+            }
+
+            return drainTo(batch, maxElements);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int tryTakeAll(Collection<? super Entity> batch, int maxElements) {
+        lock.lock();
+        try {
+            return drainTo(batch, maxElements);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called under the lock.
+     */
+    private int drainTo(Collection<? super Entity> batch, int maxElements) {
+        int taken = 0;
+
+        while (taken < maxElements && size > 0) {
+            batch.add(poll());
+            taken++;
+        }
+
+        return taken;
+    }
+
+    private Entity takeWaiting() throws InterruptedException {
+        Entity entity;
+
+        do {
+            waitStrategy.waitFor(notEmptyCondition);
+        } while ((entity = tryPoll()) == null);
+
+        return entity;
+    }
+
+    private Entity pollWaiting(long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        Entity entity;
+
+        do {
+            if (!waitStrategy.waitFor(notEmptyCondition, deadline - System.nanoTime()))
+                return null;
+        } while ((entity = tryPoll()) == null);
+
+        return entity;
+    }
+
+    /**
+     * @return the next entity or null when another thread took the last one first
+     */
+    private Entity tryPoll() {
+        lock.lock();
+        try {
+            return size > 0 ? poll() : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called under the lock. In arrival order an entity keeps only the sequence of its last arrival, so one queued
+     * twice at once, which the price holder never does, is ordered across classes by its later arrival.
+     */
+    private void add(Entity entity) {
+        if (classPriorities != null)
+            entity.setQueueSequence(nextSequence++);
+
+        int classIndex = classOf(entity.getPriority());
+        classes[classIndex].addLast(entity);
+    }
+
+    /**
+     * Called under the lock; in arrival order creates the class of a priority queued for the first time.
+     */
+    private int classOf(int priority) {
+        if (classPriorities == null)
+            return Math.min(Math.max(priority, 0), classes.length - 1);
+
+        int index = Arrays.binarySearch(classPriorities, priority);
+        if (index >= 0)
+            return index;
+
+        return addClass(-index - 1, priority);
+    }
+
+    private int addClass(int index, int priority) {
+        int[] priorities = new int[classPriorities.length + 1];
+        System.arraycopy(classPriorities, 0, priorities, 0, index);
+        System.arraycopy(classPriorities, index, priorities, index + 1, classPriorities.length - index);
+        priorities[index] = priority;
+
+        ArrayDeque<Entity>[] grown = Arrays.copyOf(classes, classes.length + 1);
+        System.arraycopy(classes, index, grown, index + 1, classes.length - index);
+        grown[index] = new ArrayDeque<>();
+
+        classPriorities = priorities;
+        classes = grown;
+
+        return index;
+    }
+
+    private int priorityOf(int classIndex) {
+        return classPriorities != null ? classPriorities[classIndex] : classIndex;
+    }
+
+    /**
+     * Called under the lock with at least one entity queued.
+     */
+    private Entity poll() {
+        size--;
+
+        if (classes.length == 1)
+            return classes[0].pollFirst();
+
+        if (classPriorities != null)
+            return pollFirstArrived();
+
+        if (policy == SchedulingPolicy.STRICT_PRIORITY)
+            return pollHighestClass();
+
+        return pollWeightedFair();
+    }
+
+    private Entity pollFirstArrived() {
+        ArrayDeque<Entity> first = null;
+        long firstSequence = Long.MAX_VALUE;
+
+        for (ArrayDeque<Entity> entities : classes) {
+            Entity head = entities.peekFirst();
+
+            if (head != null && head.getQueueSequence() < firstSequence) {
+                first = entities;
+                firstSequence = head.getQueueSequence();
+            }
+        }
+
+        if (first == null)
+            throw new IllegalStateException("No entity queued");
+
+        return first.pollFirst();
+    }
+
+    private Entity pollHighestClass() {
+        for (int i = classes.length - 1; i >= 0; i--) {
+            if (!classes[i].isEmpty())
+                return classes[i].pollFirst();
+        }
+
+        throw new IllegalStateException("No entity queued");
+    }
+
+    /**
+     * Takes from the highest class with entities queued and credit left in the current round, starting a new round
+     * once every class with entities queued has spent its credit.
+     */
+    private Entity pollWeightedFair() {
+        while (true) {
+            for (int i = classes.length - 1; i >= 0; i--) {
+                if (credits[i] > 0 && !classes[i].isEmpty()) {
+                    credits[i]--;
+                    return classes[i].pollFirst();
+                }
+            }
+
+            System.arraycopy(weights, 0, credits, 0, weights.length);
+        }
+    }
+
+    /**
+     * Looks at the last entity of the lowest non-empty class only; an entity counts with the priority it was queued
+     * with.
+     *
+     * @return the queued entity of the lowest priority below {@code priority}, the one queued last among equals, or
+     * null when there is none
+     */
+    Entity peekLowestPriority(int priority) {
+        lock.lock();
+        try {
+            for (int i = 0; i < classes.length && priorityOf(i) < priority; i++) {
+                if (!classes[i].isEmpty())
+                    return classes[i].peekLast();
+            }
+
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the entity in constant time when it is the last of its priority's class, as the one returned by
+     * {@link #peekLowestPriority(int)} is unless more were queued since.
+     *
+     * @return false when the entity is not queued, e.g. because a processing thread has just taken it
+     */
+    boolean remove(Entity entity) {
+        lock.lock();
+        try {
+            ArrayDeque<Entity> entities = classPriorities != null && Arrays.binarySearch(classPriorities, entity.getPriority()) < 0
+                    ? null : classes[classOf(entity.getPriority())];
+
+            if (entities != null && entities.peekLast() == entity) {
+                entities.pollLast();
+                size--;
+                return true;
+            }
+
+            for (ArrayDeque<Entity> queued : classes) {
+                if (queued.removeLastOccurrence(entity)) {
+                    size--;
+                    return true;
+                }
+            }
+
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.aspectcapital.questiontwo.price;
+
+import com.aspectcapital.questiontwo.price.wait.WaitStrategy;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Interns entity names and hands out dense, stable ids. Lookups by id are a bounds check and an array read; the name
+ * map is only consulted by the String based API and on registration.
+ */
+class EntityRegistry {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Map<String, Entity> entitiesByName;
+    private final Object registrationLock = new Object();
+    private final Supplier<? extends WaitStrategy> readerWaitStrategies;
+    private final Consumer<Entity> registrationListener;
+    private final int historyCapacity;
+    private final PriceEpochs epochs;
+    private volatile Entity[] entitiesById;
+    private volatile int size;
+
+    EntityRegistry() {
+        this(null);
+    }
+
+    /**
+     * @param readerWaitStrategies creates the reader wait strategy of every entity registered, null to park readers on
+     *                             the entity's lock
+     */
+    EntityRegistry(Supplier<? extends WaitStrategy> readerWaitStrategies) {
+        this(readerWaitStrategies, null, 0, 0, null);
+    }
+
+    /**
+     * @param registrationListener called under the registration lock with every entity registered, before it is
+     *                             visible by name, null for none
+     * @param expectedSize         number of entities the tables are sized for up front
+     * @param historyCapacity      how many processed prices every entity's history keeps, 0 for none
+     * @param epochs               versions the prices of every entity for consistent reads, null for none
+     */
+    EntityRegistry(Supplier<? extends WaitStrategy> readerWaitStrategies, Consumer<Entity> registrationListener,
+                   int expectedSize, int historyCapacity, PriceEpochs epochs) {
+        this.readerWaitStrategies = readerWaitStrategies;
+        this.registrationListener = registrationListener;
+        this.historyCapacity = historyCapacity;
+        this.epochs = epochs;
+        this.entitiesByName = new ConcurrentHashMap<>(Math.max(expectedSize, 16));
+        this.entitiesById = new Entity[Math.max(expectedSize, INITIAL_CAPACITY)];
+    }
+
+    Entity getOrCreate(String entityName) {
+        Entity entity = entitiesByName.get(entityName);
+
+        return entity != null ? entity : register(entityName);
+    }
+
+    private Entity register(String entityName) {
+        synchronized (registrationLock) {
+            Entity entity = entitiesByName.get(entityName);
+
+            if (entity == null) {
+                int id = size;
+                Entity[] table = entitiesById;
+
+                if (id == table.length)
+                    table = Arrays.copyOf(table, table.length * 2);
+
+                entity = newEntity(id, entityName);
+                if (registrationListener != null)
+                    registrationListener.accept(entity);
+                table[id] = entity;
+                entitiesById = table;
+                size = id + 1;
+                entitiesByName.put(entityName, entity);
+            }
+
+            return entity;
+        }
+    }
+
+    void restore(EntitySnapshot snapshot) {
+        restore(snapshot, 1);
+    }
+
+    /**
+     * Registers the entities of a snapshot under their snapshot ids, creating them in parallel, and publishes their
+     * prices. Only valid before any entity is registered; the registration listener is not called.
+     *
+     * @param numberOfPriorityClasses with more than one, priorities outside the classes are clamped to the nearest one
+     * @return the number of priorities clamped
+     */
+    int restore(EntitySnapshot snapshot, int numberOfPriorityClasses) {
+        synchronized (registrationLock) {
+            if (size != 0)
+                throw new IllegalStateException(String.format("Cannot restore a snapshot into %d registered entities", size));
+
+            int restoredSize = snapshot.size();
+            Entity[] table = entitiesById.length >= restoredSize ? entitiesById : new Entity[restoredSize];
+            LongAdder clamped = new LongAdder();
+
+            IntStream.range(0, restoredSize).parallel().forEach(id -> {
+                Entity entity = newEntity(id, snapshot.getName(id));
+                int priority = snapshot.getPriority(id);
+                if (numberOfPriorityClasses > 1 && (priority < 0 || priority >= numberOfPriorityClasses)) {
+                    priority = Math.max(0, Math.min(priority, numberOfPriorityClasses - 1));
+                    clamped.increment();
+                }
+                entity.setPriority(priority);
+                if (snapshot.getPrice(id) != null)
+                    entity.restorePrice(snapshot.getPrice(id));
+
+                table[id] = entity;
+                entitiesByName.put(entity.getName(), entity);
+            });
+
+            entitiesById = table;
+            size = restoredSize;
+
+            return clamped.intValue();
+        }
+    }
+
+    private Entity newEntity(int id, String entityName) {
+        return new Entity(id, entityName, readerWaitStrategies != null ? readerWaitStrategies.get() : null, historyCapacity,
+                epochs);
+    }
+
+    Entity get(String entityName) {
+        return entitiesByName.get(entityName);
+    }
+
+    /**
+     * @return the entity or null when no entity was registered under the id
+     */
+    Entity get(int entityId) {
+        if (entityId < 0 || entityId >= size)
+            return null;
+
+        return entitiesById[entityId];
+    }
+
+    int size() {
+        return size;
+    }
+}
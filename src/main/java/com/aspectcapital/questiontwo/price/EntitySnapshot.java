@@ -0,0 +1,186 @@
+package com.aspectcapital.questiontwo.price;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+/**
+ * Binary snapshot of the entity table: the name, priority and latest processed price of every entity, in id order so
+ * ids survive a restore. Entities are written in chunks whose offsets are kept in the header, which lets a restore
+ * decode the chunks in parallel. Writing reads every entity's state without locking, so it pauses neither producers
+ * nor processing threads; prices of different entities may come from slightly different moments.
+ * <p>
+ * Layout: magic, format version, number of entities, entities per chunk, chunk offsets, then per entity the name as a
+ * length prefixed UTF-8 string, the priority and the price, which is absent, an unscaled long or an unscaled big
+ * integer, followed by its scale.
+ */
+class EntitySnapshot {
+    private static final int MAGIC = 0x50485350;
+    private static final int FORMAT_VERSION = 1;
+    private static final int ENTITIES_PER_CHUNK = 16 * 1024;
+    private static final byte NO_PRICE = 0;
+    private static final byte LONG_PRICE = 1;
+    private static final byte BIG_PRICE = 2;
+
+    private final String[] names;
+    private final int[] priorities;
+    private final BigDecimal[] prices;
+
+    private EntitySnapshot(int size) {
+        this.names = new String[size];
+        this.priorities = new int[size];
+        this.prices = new BigDecimal[size];
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    String getName(int entityId) {
+        return names[entityId];
+    }
+
+    int getPriority(int entityId) {
+        return priorities[entityId];
+    }
+
+    /**
+     * @return the latest processed price or null when the entity had none
+     */
+    BigDecimal getPrice(int entityId) {
+        return prices[entityId];
+    }
+
+    String[] getNames() {
+        return names;
+    }
+
+    /**
+     * Writes the entities registered when called to a temporary file and moves it over {@code file} atomically, so
+     * a crash never leaves a partial snapshot behind and concurrent writers do not interfere.
+     */
+    static void write(EntityRegistry registry, Path file) throws IOException {
+        int size = registry.size();
+        int numberOfChunks = (size + ENTITIES_PER_CHUNK - 1) / ENTITIES_PER_CHUNK;
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES * 4 + Long.BYTES * numberOfChunks);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(size).putInt(ENTITIES_PER_CHUNK);
+
+        Path temporaryFile = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+                writeEntities(registry, size, header, channel);
+            }
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    private static void writeEntities(EntityRegistry registry, int size, ByteBuffer header, FileChannel channel) throws IOException {
+        channel.position(header.capacity());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream chunk = new DataOutputStream(bytes);
+
+        for (int first = 0; first < size; first += ENTITIES_PER_CHUNK) {
+            header.putLong(channel.position());
+            bytes.reset();
+
+            for (int id = first; id < Math.min(size, first + ENTITIES_PER_CHUNK); id++) {
+                writeEntity(chunk, registry.get(id));
+            }
+
+            writeFully(channel, ByteBuffer.wrap(bytes.toByteArray()));
+        }
+
+        header.flip();
+        channel.position(0);
+        writeFully(channel, header);
+        channel.force(false);
+    }
+
+    private static void writeEntity(DataOutputStream chunk, Entity entity) throws IOException {
+        byte[] name = entity.getName().getBytes(StandardCharsets.UTF_8);
+        chunk.writeInt(name.length);
+        chunk.write(name);
+        chunk.writeInt(entity.getPriority());
+
+        BigDecimal price = entity.getPrice();
+        if (price == null) {
+            chunk.writeByte(NO_PRICE);
+        } else if (price.unscaledValue().bitLength() < Long.SIZE) {
+            chunk.writeByte(LONG_PRICE);
+            chunk.writeLong(price.unscaledValue().longValue());
+            chunk.writeInt(price.scale());
+        } else {
+            byte[] unscaled = price.unscaledValue().toByteArray();
+            chunk.writeByte(BIG_PRICE);
+            chunk.writeInt(unscaled.length);
+            chunk.write(unscaled);
+            chunk.writeInt(price.scale());
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Maps the snapshot and decodes its chunks in parallel.
+     */
+    static EntitySnapshot read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC)
+                throw new IOException(String.format("File: %s is not an entity snapshot", file));
+            int formatVersion = buffer.getInt();
+            if (formatVersion != FORMAT_VERSION)
+                throw new IOException(String.format("Snapshot format version: %d is not supported", formatVersion));
+
+            EntitySnapshot snapshot = new EntitySnapshot(buffer.getInt());
+            int entitiesPerChunk = buffer.getInt();
+            long[] offsets = new long[(snapshot.size() + entitiesPerChunk - 1) / entitiesPerChunk];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = buffer.getLong();
+            }
+
+            IntStream.range(0, offsets.length).parallel().forEach(chunk -> {
+                int first = chunk * entitiesPerChunk;
+                snapshot.readChunk(buffer.duplicate().position((int) offsets[chunk]), first,
+                        Math.min(snapshot.size(), first + entitiesPerChunk));
+            });
+
+            return snapshot;
+        }
+    }
+
+    private void readChunk(ByteBuffer chunk, int first, int last) {
+        for (int id = first; id < last; id++) {
+            byte[] name = new byte[chunk.getInt()];
+            chunk.get(name);
+            names[id] = new String(name, StandardCharsets.UTF_8);
+            priorities[id] = chunk.getInt();
+
+            byte kind = chunk.get();
+            if (kind == LONG_PRICE) {
+                prices[id] = BigDecimal.valueOf(chunk.getLong(), chunk.getInt());
+            } else if (kind == BIG_PRICE) {
+                byte[] unscaled = new byte[chunk.getInt()];
+                chunk.get(unscaled);
+                prices[id] = new BigDecimal(new BigInteger(unscaled), chunk.getInt());
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.aspectcapital.questiontwo.price;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Entity of a {@link FixedPointPriceHolder}. Prices are scaled longs held in plain volatile fields, so neither puts,
+ * reads nor processing steps allocate. What a reader has seen is the version its {@link PriceCursor} read.
+ */
+class FixedPointEntity {
+    static final long NO_PRICE = Long.MIN_VALUE;
+
+    private final int id;
+    private final String name;
+    private volatile long price = NO_PRICE;
+    private volatile long nextPriceToProcess = NO_PRICE;
+    private volatile long version;
+    private final AtomicLong pricesPut = new AtomicLong();
+    private final AtomicBoolean inProcessing = new AtomicBoolean();
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition newPricePut = lock.newCondition();
+
+    FixedPointEntity(int id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    long getPrice(PriceCursor cursor) {
+        long currentVersion = version;
+        cursor.setVersionRead(id, currentVersion);
+
+        return currentVersion == 0 ? NO_PRICE : price;
+    }
+
+    /**
+     * @return true when the entity was idle and has just been marked in processing, i.e. the caller has to queue it
+     */
+    boolean putNextPriceToProcess(long next) {
+        nextPriceToProcess = next;
+        pricesPut.incrementAndGet();
+
+        return inProcessing.compareAndSet(false, true);
+    }
+
+    long getPricesPut() {
+        return pricesPut.get();
+    }
+
+    long getNextPriceToProcess() {
+        return nextPriceToProcess;
+    }
+
+    /**
+     * Only the thread holding the entity in processing calls this, so the version is written by a single thread.
+     *
+     * @param pricesPutWhenTaken value of {@link #getPricesPut()} read before the processed price was taken
+     * @return true when a price was put during processing and the caller has to queue the entity again
+     */
+    boolean setProcessedPrice(long processedPrice, long pricesPutWhenTaken) {
+        price = processedPrice;
+        version = version + 1;
+        onNewPrice();
+
+        return finishProcessing(pricesPutWhenTaken);
+    }
+
+    /**
+     * Releases the entity without publishing a price, e.g. when the processor failed.
+     *
+     * @return true when a price was put during processing and the caller has to queue the entity again
+     */
+    boolean finishProcessing(long pricesPutWhenTaken) {
+        inProcessing.set(false);
+
+        return pricesPut.get() != pricesPutWhenTaken && inProcessing.compareAndSet(false, true);
+    }
+
+    void setInProcessing(boolean inProcessing) {
+        this.inProcessing.set(inProcessing);
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    boolean hasPriceChanged(PriceCursor cursor) {
+        return version > cursor.getVersionRead(id);
+    }
+
+    /**
+     * Blocks until a price newer than the last one the cursor read is published, including the same price processed
+     * again.
+     */
+    long getNewPrice(PriceCursor cursor) throws InterruptedException {
+        if (!hasPriceChanged(cursor)) {
+            lock.lockInterruptibly();
+            waiters.incrementAndGet();
+            try {
+                while (!hasPriceChanged(cursor)) {
+                    newPricePut.await();
+                }
+            } finally {
+                waiters.decrementAndGet();
+                lock.unlock();
+            }
+        }
+
+        return getPrice(cursor);
+    }
+
+    private void onNewPrice() {
+        if (waiters.get() == 0)
+            return;
+
+        lock.lock();
+        try {
+            newPricePut.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FixedPointEntity{" +
+                "id=" + id +
+                ", name='" + name + '\'' +
+                ", price=" + price +
+                ", nextPriceToProcess=" + nextPriceToProcess +
+                ", inProcessing=" + inProcessing +
+                ", version=" + version +
+                '}';
+    }
+}
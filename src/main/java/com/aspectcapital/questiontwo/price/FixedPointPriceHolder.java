@@ -0,0 +1,206 @@
+package com.aspectcapital.questiontwo.price;
+
+import com.aspectcapital.questiontwo.price.processor.LongPriceProcessor;
+import org.apache.log4j.Logger;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Allocation-free variant of {@link PriceHolder}. Prices are kept as longs at a fixed scale, i.e. a mantissa of 12345
+ * at scale 2 is 123.45; BigDecimal is only created or parsed by the BigDecimal overloads at the API edge.
+ * <p>
+ * The processing queue is array backed and sized to the maximum number of entities, which is enough because an
+ * entity is never queued twice, so steady state puts and gets allocate nothing. Hot path logging is left out for the
+ * same reason. What a reader has seen is tracked by its {@link PriceCursor}, the calling thread's own unless one is
+ * given.
+ */
+public class FixedPointPriceHolder {
+    private static final Logger logger = Logger.getLogger(FixedPointPriceHolder.class);
+
+    public static final long NO_PRICE = FixedPointEntity.NO_PRICE;
+
+    private static final int DEFAULT_NUMBER_OF_PROCESSING_THREADS = 4;
+    private static final int DEFAULT_MAX_NUMBER_OF_ENTITIES = 1 << 16;
+    private static final String processingPriceThreadNameFormat = "fixed-point-price-processing-%d";
+
+    private final Map<String, FixedPointEntity> entities = new ConcurrentHashMap<>();
+    private final BlockingQueue<FixedPointEntity> entitiesToProcess;
+
+    private final LongPriceProcessor priceProcessor;
+    private final int scale;
+    private final int maxNumberOfEntities;
+    private final AtomicInteger numberOfEntities = new AtomicInteger();
+    private final ThreadLocal<PriceCursor> threadCursors = ThreadLocal.withInitial(PriceCursor::new);
+    private final ProcessingThreads processingThreads;
+
+    public FixedPointPriceHolder(LongPriceProcessor priceProcessor, int scale) {
+        this(priceProcessor, scale, DEFAULT_NUMBER_OF_PROCESSING_THREADS, DEFAULT_MAX_NUMBER_OF_ENTITIES);
+    }
+
+    public FixedPointPriceHolder(LongPriceProcessor priceProcessor, int scale, int numberOfThreads, int maxNumberOfEntities) {
+        this.priceProcessor = priceProcessor;
+        this.scale = scale;
+        this.processingThreads = new ProcessingThreads(processingPriceThreadNameFormat, numberOfThreads, this::processNextPrice);
+        this.maxNumberOfEntities = maxNumberOfEntities;
+        this.entitiesToProcess = new ArrayBlockingQueue<>(maxNumberOfEntities);
+        startProcessing();
+    }
+
+    void startProcessing() {
+        processingThreads.start();
+    }
+
+    public void stopProcessing() {
+        logger.warn("Stop processing invoked");
+
+        processingThreads.stop();
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    public void putPrice(final String entityName, final BigDecimal price) {
+        putPrice(entityName, toMantissa(price));
+    }
+
+    public void putPrice(final String entityName, final long mantissa) {
+        checkForNull(entityName);
+        FixedPointEntity entity = getOrCreateEntity(entityName);
+
+        if (entity.putNextPriceToProcess(mantissa)) {
+            addToProcessingQueue(entity);
+        }
+    }
+
+    private void addToProcessingQueue(FixedPointEntity entity) {
+        try {
+            entitiesToProcess.put(entity);
+        } catch (Exception e) {
+            logger.warn(e);
+            entity.setInProcessing(false);
+        }
+    }
+
+    /**
+     * @return the processed price or null when the entity has not been processed yet
+     */
+    public BigDecimal getPrice(final String entityName) {
+        return toBigDecimal(getMantissa(entityName));
+    }
+
+    /**
+     * @return the processed price or {@link #NO_PRICE} when the entity has not been processed yet
+     */
+    public long getMantissa(final String entityName) {
+        return getMantissa(threadCursors.get(), entityName);
+    }
+
+    public long getMantissa(final PriceCursor cursor, final String entityName) {
+        checkForNull(entityName);
+
+        return getEntity(entityName).getPrice(cursor);
+    }
+
+    public boolean hasPriceChanged(final String entityName) {
+        return hasPriceChanged(threadCursors.get(), entityName);
+    }
+
+    public boolean hasPriceChanged(final PriceCursor cursor, final String entityName) {
+        checkForNull(entityName);
+
+        return getEntity(entityName).hasPriceChanged(cursor);
+    }
+
+    public BigDecimal waitForNextPrice(final String entityName) throws InterruptedException {
+        return toBigDecimal(waitForNextMantissa(entityName));
+    }
+
+    public long waitForNextMantissa(final String entityName) throws InterruptedException {
+        return waitForNextMantissa(threadCursors.get(), entityName);
+    }
+
+    public long waitForNextMantissa(final PriceCursor cursor, final String entityName) throws InterruptedException {
+        checkForNull(entityName);
+
+        return getEntity(entityName).getNewPrice(cursor);
+    }
+
+    /**
+     * @return a read cursor of its own for a consumer, which may move between threads
+     */
+    public PriceCursor newCursor() {
+        return new PriceCursor(numberOfEntities.get());
+    }
+
+    long toMantissa(BigDecimal price) {
+        if (price == null)
+            throw new IllegalArgumentException("Price provided is null");
+
+        try {
+            return price.setScale(scale, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException(String.format("Price: %s cannot be represented at scale %d", price, scale), e);
+        }
+    }
+
+    BigDecimal toBigDecimal(long mantissa) {
+        return mantissa == NO_PRICE ? null : BigDecimal.valueOf(mantissa, scale);
+    }
+
+    private void checkForNull(String entityName) {
+        if(entityName == null)
+            throw new IllegalArgumentException("Entity name provided is null");
+    }
+
+    FixedPointEntity getOrCreateEntity(String entityName) {
+        FixedPointEntity entity = entities.get(entityName);
+
+        if (entity != null)
+            return entity;
+
+        return entities.computeIfAbsent(entityName, this::createEntity);
+    }
+
+    private FixedPointEntity createEntity(String entityName) {
+        int count = numberOfEntities.incrementAndGet();
+        if (count > maxNumberOfEntities) {
+            numberOfEntities.decrementAndGet();
+            throw new IllegalStateException(String.format("Cannot create entity: \"%s\", limit of %d entities reached", entityName, maxNumberOfEntities));
+        }
+
+        return new FixedPointEntity(count - 1, entityName);
+    }
+
+    FixedPointEntity getEntity(String entityName) {
+        FixedPointEntity entity = entities.get(entityName);
+
+        if(entity == null)
+            throw new IllegalArgumentException(String.format("Entity: \"%s\" does not exist", entityName));
+
+        return entity;
+    }
+
+    private void processNextPrice() throws InterruptedException {
+        FixedPointEntity entity = entitiesToProcess.take();
+
+        long pricesPut = entity.getPricesPut();
+        long processedPrice;
+        try {
+            processedPrice = priceProcessor.process(entity.getNextPriceToProcess());
+        } catch (RuntimeException e) {
+            if (entity.finishProcessing(pricesPut)) {
+                entitiesToProcess.put(entity);
+            }
+            throw e;
+        }
+
+        if (entity.setProcessedPrice(processedPrice, pricesPut)) {
+            entitiesToProcess.put(entity);
+        }
+    }
+}
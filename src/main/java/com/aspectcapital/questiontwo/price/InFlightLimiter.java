@@ -0,0 +1,120 @@
+package com.aspectcapital.questiontwo.price;
+
+import com.aspectcapital.questiontwo.price.overload.OverloadListener;
+import com.aspectcapital.questiontwo.price.overload.OverloadPolicy;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Counts the entities in flight, from the put that made an entity leave idle to the processing step that released it.
+ * Permits are taken and returned with a CAS; the lock is only used to park blocked producers and is not touched by
+ * processing threads while nobody waits. The count may briefly exceed the bound by one per producer, when a put
+ * races with the release of the same entity.
+ */
+class InFlightLimiter {
+    private final int maxEntitiesInFlight;
+    private final int recoveryThreshold;
+    private final OverloadPolicy policy;
+    private final OverloadListener listener;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicBoolean overloaded = new AtomicBoolean();
+    private final LongAdder droppedPrices = new LongAdder();
+    private final LongAdder shedEntities = new LongAdder();
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+
+    InFlightLimiter(int maxEntitiesInFlight, OverloadPolicy policy, OverloadListener listener) {
+        this.maxEntitiesInFlight = maxEntitiesInFlight;
+        this.recoveryThreshold = maxEntitiesInFlight / 2;
+        this.policy = policy;
+        this.listener = listener;
+    }
+
+    OverloadPolicy getPolicy() {
+        return policy;
+    }
+
+    boolean tryAcquire() {
+        int current;
+
+        do {
+            current = inFlight.get();
+            if (current >= maxEntitiesInFlight)
+                return false;
+        } while (!inFlight.compareAndSet(current, current + 1));
+
+        return true;
+    }
+
+    void acquire() throws InterruptedException {
+        if (tryAcquire())
+            return;
+
+        lock.lockInterruptibly();
+        waiters.incrementAndGet();
+        try {
+            while (!tryAcquire()) {
+                released.await();
+            }
+        } finally {
+            waiters.decrementAndGet();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a permit regardless of the bound, for an entity that became in flight behind the producer's back.
+     */
+    void forceAcquire() {
+        inFlight.incrementAndGet();
+    }
+
+    void release() {
+        if (inFlight.decrementAndGet() <= recoveryThreshold && overloaded.compareAndSet(true, false) && listener != null)
+            listener.onRecovered();
+
+        if (waiters.get() == 0)
+            return;
+
+        lock.lock();
+        try {
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void onOverloaded() {
+        if (overloaded.compareAndSet(false, true) && listener != null)
+            listener.onOverloaded();
+    }
+
+    void onDropped() {
+        droppedPrices.increment();
+    }
+
+    void onShed() {
+        shedEntities.increment();
+    }
+
+    boolean isOverloaded() {
+        return overloaded.get();
+    }
+
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+    long getDroppedPrices() {
+        return droppedPrices.sum();
+    }
+
+    long getShedEntities() {
+        return shedEntities.sum();
+    }
+}
@@ -18,18 +18,24 @@ public class Main {
     private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(100);
     private static final PriceHolder priceHolder = new PriceHolder(new RewritingPriceProcessor());
 
+    private static final int[] entityIds = new int[NUMBER_OF_ENTITIES];
+
     public static void main(String[] args) {
         Runtime.getRuntime().addShutdownHook(new ShutdownHook(Thread.currentThread()));
 
-        scheduler.scheduleAtFixedRate(() -> priceHolder.putPrice(getEntityName(), BigDecimal.valueOf(random.nextInt(MAX_PRICE))), 1, 1, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < NUMBER_OF_ENTITIES; i++) {
+            entityIds[i] = priceHolder.getOrCreateEntityId(String.valueOf(i));
+        }
+
+        scheduler.scheduleAtFixedRate(() -> priceHolder.putPrice(getEntityId(), BigDecimal.valueOf(random.nextInt(MAX_PRICE))), 1, 1, TimeUnit.MILLISECONDS);
         scheduler.scheduleAtFixedRate(() -> {
-            String entityName = getEntityName();
-            System.out.println(String.format("Entity: %s, price: %f", entityName, priceHolder.getPrice(entityName)));
+            int entityId = getEntityId();
+            System.out.println(String.format("Entity: %d, price: %f", entityId, priceHolder.getPrice(entityId)));
         }, 500, 500, TimeUnit.MILLISECONDS);
     }
 
-    private static String getEntityName() {
-        return String.valueOf(random.nextInt(NUMBER_OF_ENTITIES));
+    private static int getEntityId() {
+        return entityIds[random.nextInt(NUMBER_OF_ENTITIES)];
     }
 
     static class ShutdownHook extends Thread {
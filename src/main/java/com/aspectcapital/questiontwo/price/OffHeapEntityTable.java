@@ -0,0 +1,153 @@
+package com.aspectcapital.questiontwo.price;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * State of the entities of an {@link OffHeapPriceHolder} in direct memory, one 64 byte slot per entity index, so a
+ * million entities cost the garbage collector nothing to trace. Slots are a cache line each, which keeps entities
+ * processed by different threads from sharing one. Memory is allocated in chunks of {@value #ENTITIES_PER_CHUNK}
+ * entities on first use of an index in the chunk, and direct memory is zeroed, so a fresh slot has no price, no
+ * version and is not in processing.
+ * <p>
+ * Fields are longs accessed through a VarHandle with the same ordering as the volatile fields of
+ * {@link FixedPointEntity}: the price is written before the version, so a reader that sees a version sees a price at
+ * least as new.
+ */
+class OffHeapEntityTable {
+    static final int SLOT_SIZE = 64;
+    static final int ENTITIES_PER_CHUNK = 1 << 20;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final int CHUNK_SHIFT = Integer.numberOfTrailingZeros(ENTITIES_PER_CHUNK);
+    private static final int PRICE = 0;
+    private static final int NEXT_PRICE_TO_PROCESS = 8;
+    private static final int PRICES_PUT = 16;
+    private static final int VERSION = 24;
+    private static final int IN_PROCESSING = 32;
+    private static final int WAITERS = 40;
+
+    private final int capacity;
+    private final AtomicReferenceArray<ByteBuffer> chunks;
+
+    OffHeapEntityTable(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException(String.format("Max number of entities: %d is not positive", capacity));
+
+        this.capacity = capacity;
+        this.chunks = new AtomicReferenceArray<>((capacity + ENTITIES_PER_CHUNK - 1) >>> CHUNK_SHIFT);
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the bytes of direct memory allocated so far
+     */
+    long getAllocatedBytes() {
+        long bytes = 0;
+
+        for (int i = 0; i < chunks.length(); i++) {
+            ByteBuffer chunk = chunks.get(i);
+            if (chunk != null)
+                bytes += chunk.capacity();
+        }
+
+        return bytes;
+    }
+
+    private ByteBuffer chunkOf(int entityId) {
+        int index = entityId >>> CHUNK_SHIFT;
+        ByteBuffer chunk = chunks.get(index);
+
+        return chunk != null ? chunk : allocateChunk(index);
+    }
+
+    private ByteBuffer allocateChunk(int index) {
+        int entities = Math.min(ENTITIES_PER_CHUNK, capacity - (index << CHUNK_SHIFT));
+        ByteBuffer chunk = ByteBuffer.allocateDirect(entities * SLOT_SIZE + SLOT_SIZE).alignedSlice(SLOT_SIZE);
+
+        return chunks.compareAndSet(index, null, chunk) ? chunk : chunks.get(index);
+    }
+
+    private static int offsetOf(int entityId, int field) {
+        return (entityId & (ENTITIES_PER_CHUNK - 1)) * SLOT_SIZE + field;
+    }
+
+    long getPrice(int entityId) {
+        return (long) LONGS.getVolatile(chunkOf(entityId), offsetOf(entityId, PRICE));
+    }
+
+    /**
+     * @return the number of processed prices published so far, 0 while the entity has no price
+     */
+    long getVersion(int entityId) {
+        return (long) LONGS.getVolatile(chunkOf(entityId), offsetOf(entityId, VERSION));
+    }
+
+    long getNextPriceToProcess(int entityId) {
+        return (long) LONGS.getVolatile(chunkOf(entityId), offsetOf(entityId, NEXT_PRICE_TO_PROCESS));
+    }
+
+    long getPricesPut(int entityId) {
+        return (long) LONGS.getVolatile(chunkOf(entityId), offsetOf(entityId, PRICES_PUT));
+    }
+
+    /**
+     * @return true when the entity was idle and has just been marked in processing, i.e. the caller has to queue it
+     */
+    boolean putNextPriceToProcess(int entityId, long next) {
+        ByteBuffer chunk = chunkOf(entityId);
+        LONGS.setVolatile(chunk, offsetOf(entityId, NEXT_PRICE_TO_PROCESS), next);
+        LONGS.getAndAdd(chunk, offsetOf(entityId, PRICES_PUT), 1L);
+
+        return LONGS.compareAndSet(chunk, offsetOf(entityId, IN_PROCESSING), 0L, 1L);
+    }
+
+    /**
+     * Only the thread holding the entity in processing calls this, so the version is written by a single thread.
+     *
+     * @param pricesPutWhenTaken value of {@link #getPricesPut(int)} read before the processed price was taken
+     * @return true when a price was put during processing and the caller has to queue the entity again
+     */
+    boolean setProcessedPrice(int entityId, long processedPrice, long pricesPutWhenTaken) {
+        ByteBuffer chunk = chunkOf(entityId);
+        LONGS.setVolatile(chunk, offsetOf(entityId, PRICE), processedPrice);
+        LONGS.setVolatile(chunk, offsetOf(entityId, VERSION), (long) LONGS.get(chunk, offsetOf(entityId, VERSION)) + 1);
+
+        return finishProcessing(entityId, pricesPutWhenTaken);
+    }
+
+    /**
+     * Releases the entity without publishing a price, e.g. when the processor failed.
+     *
+     * @return true when a price was put during processing and the caller has to queue the entity again
+     */
+    boolean finishProcessing(int entityId, long pricesPutWhenTaken) {
+        ByteBuffer chunk = chunkOf(entityId);
+        LONGS.setVolatile(chunk, offsetOf(entityId, IN_PROCESSING), 0L);
+
+        return getPricesPut(entityId) != pricesPutWhenTaken
+                && LONGS.compareAndSet(chunk, offsetOf(entityId, IN_PROCESSING), 0L, 1L);
+    }
+
+    void setInProcessing(int entityId, boolean inProcessing) {
+        LONGS.setVolatile(chunkOf(entityId), offsetOf(entityId, IN_PROCESSING), inProcessing ? 1L : 0L);
+    }
+
+    boolean isInProcessing(int entityId) {
+        return (long) LONGS.getVolatile(chunkOf(entityId), offsetOf(entityId, IN_PROCESSING)) != 0;
+    }
+
+    long getWaiters(int entityId) {
+        return (long) LONGS.getVolatile(chunkOf(entityId), offsetOf(entityId, WAITERS));
+    }
+
+    void addWaiters(int entityId, long delta) {
+        LONGS.getAndAdd(chunkOf(entityId), offsetOf(entityId, WAITERS), delta);
+    }
+}
@@ -0,0 +1,302 @@
+package com.aspectcapital.questiontwo.price;
+
+import com.aspectcapital.questiontwo.price.processor.LongPriceProcessor;
+import org.apache.log4j.Logger;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Variant of {@link FixedPointPriceHolder} for millions of entities. The state of every entity (price, pending price,
+ * versions, processing flag) lives off heap in an {@link OffHeapEntityTable} addressed by entity id, and ids are
+ * queued in an int array, so the heap holds no object per entity and GC pauses do not grow with their number. Ids go
+ * from 0 to the maximum number of entities; names are optional and only mapped to ids by the String overloads.
+ * <p>
+ * The only heap objects per entity are a lock that lives while threads block waiting for the entity's next price,
+ * and the name mapping of entities registered by name. What a reader has seen is tracked by its {@link PriceCursor},
+ * the calling thread's own unless one is given, which holds versions only for the ranges of ids it has read.
+ */
+public class OffHeapPriceHolder {
+    private static final Logger logger = Logger.getLogger(OffHeapPriceHolder.class);
+
+    public static final long NO_PRICE = FixedPointEntity.NO_PRICE;
+
+    private static final int DEFAULT_NUMBER_OF_PROCESSING_THREADS = 4;
+    private static final String processingPriceThreadNameFormat = "off-heap-price-processing-%d";
+
+    private final OffHeapEntityTable table;
+    private final EntityIdQueue entitiesToProcess;
+    private final Map<String, Integer> entityIdsByName = new ConcurrentHashMap<>();
+    private final AtomicInteger numberOfNamedEntities = new AtomicInteger();
+    private final Map<Integer, WaitLock> waitLocks = new ConcurrentHashMap<>();
+    private final ThreadLocal<PriceCursor> threadCursors = ThreadLocal.withInitial(PriceCursor::new);
+
+    private final LongPriceProcessor priceProcessor;
+    private final int scale;
+    private final ProcessingThreads processingThreads;
+
+    public OffHeapPriceHolder(LongPriceProcessor priceProcessor, int scale, int maxNumberOfEntities) {
+        this(priceProcessor, scale, DEFAULT_NUMBER_OF_PROCESSING_THREADS, maxNumberOfEntities);
+    }
+
+    /**
+     * Direct memory for the entities is allocated a chunk at a time as ids are used, 64 bytes per entity; size
+     * {@code -XX:MaxDirectMemorySize} for the maximum number of entities.
+     */
+    public OffHeapPriceHolder(LongPriceProcessor priceProcessor, int scale, int numberOfThreads, int maxNumberOfEntities) {
+        this.priceProcessor = priceProcessor;
+        this.scale = scale;
+        this.processingThreads = new ProcessingThreads(processingPriceThreadNameFormat, numberOfThreads, this::processNextPrice);
+        this.table = new OffHeapEntityTable(maxNumberOfEntities);
+        this.entitiesToProcess = new EntityIdQueue(maxNumberOfEntities);
+        startProcessing();
+    }
+
+    void startProcessing() {
+        processingThreads.start();
+    }
+
+    public void stopProcessing() {
+        logger.warn("Stop processing invoked");
+
+        processingThreads.stop();
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    public int getMaxNumberOfEntities() {
+        return table.getCapacity();
+    }
+
+    /**
+     * @return the bytes of direct memory holding entity state
+     */
+    public long getOffHeapBytes() {
+        return table.getAllocatedBytes();
+    }
+
+    /**
+     * @return the id of the entity, registering the name under the next free id when it is new
+     */
+    public int getOrCreateEntityId(final String entityName) {
+        checkForNull(entityName);
+        Integer entityId = entityIdsByName.get(entityName);
+
+        return entityId != null ? entityId : entityIdsByName.computeIfAbsent(entityName, this::createEntityId);
+    }
+
+    private Integer createEntityId(String entityName) {
+        int entityId = numberOfNamedEntities.getAndIncrement();
+
+        if (entityId >= table.getCapacity()) {
+            numberOfNamedEntities.decrementAndGet();
+            throw new IllegalStateException(String.format("Cannot create entity: \"%s\", limit of %d entities reached", entityName, table.getCapacity()));
+        }
+
+        return entityId;
+    }
+
+    public void putPrice(final String entityName, final BigDecimal price) {
+        putPrice(getOrCreateEntityId(entityName), toMantissa(price));
+    }
+
+    public void putPrice(final String entityName, final long mantissa) {
+        putPrice(getOrCreateEntityId(entityName), mantissa);
+    }
+
+    public void putPrice(final int entityId, final long mantissa) {
+        checkEntityId(entityId);
+
+        if (table.putNextPriceToProcess(entityId, mantissa)) {
+            addToProcessingQueue(entityId);
+        }
+    }
+
+    private void addToProcessingQueue(int entityId) {
+        try {
+            entitiesToProcess.put(entityId);
+        } catch (Exception e) {
+            logger.warn(e);
+            table.setInProcessing(entityId, false);
+        }
+    }
+
+    /**
+     * @return the processed price or null when the entity has not been processed yet
+     */
+    public BigDecimal getPrice(final String entityName) {
+        return toBigDecimal(getMantissa(getEntityId(entityName)));
+    }
+
+    /**
+     * @return the processed price or {@link #NO_PRICE} when the entity has not been processed yet
+     */
+    public long getMantissa(final String entityName) {
+        return getMantissa(threadCursors.get(), getEntityId(entityName));
+    }
+
+    public long getMantissa(final int entityId) {
+        return getMantissa(threadCursors.get(), entityId);
+    }
+
+    public long getMantissa(final PriceCursor cursor, final int entityId) {
+        checkEntityId(entityId);
+        long version = table.getVersion(entityId);
+        cursor.setVersionRead(entityId, version);
+
+        return version == 0 ? NO_PRICE : table.getPrice(entityId);
+    }
+
+    public boolean hasPriceChanged(final String entityName) {
+        return hasPriceChanged(threadCursors.get(), getEntityId(entityName));
+    }
+
+    public boolean hasPriceChanged(final PriceCursor cursor, final int entityId) {
+        checkEntityId(entityId);
+
+        return table.getVersion(entityId) > cursor.getVersionRead(entityId);
+    }
+
+    public BigDecimal waitForNextPrice(final String entityName) throws InterruptedException {
+        return toBigDecimal(waitForNextMantissa(threadCursors.get(), getEntityId(entityName)));
+    }
+
+    public long waitForNextMantissa(final String entityName) throws InterruptedException {
+        return waitForNextMantissa(threadCursors.get(), getEntityId(entityName));
+    }
+
+    public long waitForNextMantissa(final int entityId) throws InterruptedException {
+        return waitForNextMantissa(threadCursors.get(), entityId);
+    }
+
+    /**
+     * Blocks until a price newer than the last one the cursor read is published. A reader increments the entity's
+     * off-heap waiter count before checking the version and the processing thread reads it after publishing, so
+     * either the reader sees the price or the processing thread sees the reader. The last waiter to leave removes the
+     * entity's lock; a reader that finds the lock it got removed retries with a new one.
+     */
+    public long waitForNextMantissa(final PriceCursor cursor, final int entityId) throws InterruptedException {
+        checkEntityId(entityId);
+        long versionRead = cursor.getVersionRead(entityId);
+
+        while (table.getVersion(entityId) <= versionRead) {
+            WaitLock waitLock = waitLocks.computeIfAbsent(entityId, id -> new WaitLock());
+            waitLock.lock.lockInterruptibly();
+            if (waitLock.removed) {
+                waitLock.lock.unlock();
+                continue;
+            }
+
+            waitLock.waiters++;
+            table.addWaiters(entityId, 1);
+            try {
+                while (table.getVersion(entityId) <= versionRead) {
+                    waitLock.newPricePut.await();
+                }
+            } finally {
+                table.addWaiters(entityId, -1);
+                if (--waitLock.waiters == 0) {
+                    waitLock.removed = true;
+                    waitLocks.remove(entityId, waitLock);
+                }
+                waitLock.lock.unlock();
+            }
+        }
+
+        return getMantissa(cursor, entityId);
+    }
+
+    /**
+     * @return the number of entities with a thread blocked waiting for their next price
+     */
+    int getNumberOfWaitLocks() {
+        return waitLocks.size();
+    }
+
+    private void onNewPrice(int entityId) {
+        if (table.getWaiters(entityId) == 0)
+            return;
+
+        WaitLock waitLock = waitLocks.get(entityId);
+        if (waitLock == null)
+            return;
+
+        waitLock.lock.lock();
+        try {
+            waitLock.newPricePut.signalAll();
+        } finally {
+            waitLock.lock.unlock();
+        }
+    }
+
+    long toMantissa(BigDecimal price) {
+        if (price == null)
+            throw new IllegalArgumentException("Price provided is null");
+
+        try {
+            return price.setScale(scale, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException(String.format("Price: %s cannot be represented at scale %d", price, scale), e);
+        }
+    }
+
+    BigDecimal toBigDecimal(long mantissa) {
+        return mantissa == NO_PRICE ? null : BigDecimal.valueOf(mantissa, scale);
+    }
+
+    private void checkForNull(String entityName) {
+        if(entityName == null)
+            throw new IllegalArgumentException("Entity name provided is null");
+    }
+
+    private void checkEntityId(int entityId) {
+        if(entityId < 0 || entityId >= table.getCapacity())
+            throw new IllegalArgumentException(String.format("Entity id: %d is not below the limit of %d entities", entityId, table.getCapacity()));
+    }
+
+    int getEntityId(String entityName) {
+        checkForNull(entityName);
+        Integer entityId = entityIdsByName.get(entityName);
+
+        if(entityId == null)
+            throw new IllegalArgumentException(String.format("Entity: \"%s\" does not exist", entityName));
+
+        return entityId;
+    }
+
+    private static final class WaitLock {
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition newPricePut = lock.newCondition();
+        int waiters;
+        boolean removed;
+    }
+
+    private void processNextPrice() throws InterruptedException {
+        int entityId = entitiesToProcess.take();
+
+        long pricesPut = table.getPricesPut(entityId);
+        long processedPrice;
+        try {
+            processedPrice = priceProcessor.process(table.getNextPriceToProcess(entityId));
+        } catch (RuntimeException e) {
+            if (table.finishProcessing(entityId, pricesPut)) {
+                entitiesToProcess.put(entityId);
+            }
+            throw e;
+        }
+
+        boolean hasPriceToProcess = table.setProcessedPrice(entityId, processedPrice, pricesPut);
+        onNewPrice(entityId);
+
+        if (hasPriceToProcess) {
+            entitiesToProcess.put(entityId);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.aspectcapital.questiontwo.price;
+
+import java.util.Arrays;
+
+/**
+ * Remembers, per entity id, the version of the last price a consumer has read, so "has the price changed" does not
+ * depend on the thread asking. A cursor is not thread safe: use it from one thread at a time and hand it over with
+ * the usual happens-before guarantees (an executor submission, a queue, a lock).
+ * <p>
+ * Versions are kept in pages of {@value #PAGE_SIZE} ids allocated the first time an id in them is read, so a cursor
+ * reading a few entities of millions costs a reference per page and not a version per id.
+ */
+public class PriceCursor {
+    private static final int PAGE_SHIFT = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private long[][] pages;
+
+    PriceCursor() {
+        this(PAGE_SIZE);
+    }
+
+    /**
+     * @param capacity number of entity ids expected, which only sizes the page table
+     */
+    PriceCursor(int capacity) {
+        this.pages = new long[Math.max((capacity + PAGE_MASK) >>> PAGE_SHIFT, 1)][];
+    }
+
+    long getVersionRead(int entityId) {
+        int page = entityId >>> PAGE_SHIFT;
+
+        if (page >= pages.length || pages[page] == null)
+            return 0;
+
+        return pages[page][entityId & PAGE_MASK];
+    }
+
+    void setVersionRead(int entityId, long version) {
+        int page = entityId >>> PAGE_SHIFT;
+
+        if (page >= pages.length)
+            pages = Arrays.copyOf(pages, Math.max(page + 1, pages.length * 2));
+
+        if (pages[page] == null)
+            pages[page] = new long[PAGE_SIZE];
+
+        pages[page][entityId & PAGE_MASK] = version;
+    }
+}
@@ -0,0 +1,151 @@
+package com.aspectcapital.questiontwo.price;
+
+import java.math.BigDecimal;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Clock and reader registry behind consistent multi-entity reads. Every published price becomes a {@link Version} of
+ * its entity stamped with an epoch of the clock; a reader picks an epoch and takes, for every entity, the newest
+ * version stamped at or before it, which is the state of all entities at one moment.
+ * <p>
+ * A version is installed unstamped and stamped afterwards, so a version stamped at or before a reader's epoch was
+ * installed before the reader picked it and cannot be missed. A reader meeting an unstamped version stamps it itself
+ * with a new epoch, which is after its own, instead of waiting for the writer. Neither side takes a lock.
+ * <p>
+ * Older versions are kept while an active reader may need them: a reader announces its epoch in a slot, and a writer
+ * cuts its entity's chain after the newest version every announced epoch, and the current one, can use. There are as
+ * many slots as readers expected at once; a reader takes a permit for one first, so it never spins looking for a free
+ * slot, and readers beyond the slots block until one exits.
+ */
+class PriceEpochs {
+    static final int DEFAULT_READER_SLOTS = 64;
+    private static final long FREE = 0;
+
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLongArray readerEpochs;
+    private final Semaphore freeSlots;
+    private final AtomicInteger activeReaders = new AtomicInteger();
+
+    PriceEpochs() {
+        this(DEFAULT_READER_SLOTS);
+    }
+
+    /**
+     * @param readerSlots number of readers active at once without blocking
+     */
+    PriceEpochs(int readerSlots) {
+        if (readerSlots < 1)
+            throw new IllegalArgumentException(String.format("Reader slots: %d is not positive", readerSlots));
+
+        this.readerEpochs = new AtomicLongArray(readerSlots);
+        this.freeSlots = new Semaphore(readerSlots);
+    }
+
+    /**
+     * Publishes {@code price} as the newest version after {@code current}, pruning versions no reader needs.
+     */
+    Version publish(Version current, BigDecimal price) {
+        prune(current, getOldestEpochInUse());
+
+        return new Version(price, current);
+    }
+
+    void stamp(Version version) {
+        if (version.stamp == 0)
+            Version.STAMP.compareAndSet(version, 0, clock.incrementAndGet());
+    }
+
+    private static void prune(Version current, long oldestEpochInUse) {
+        for (Version version = current; version != null; version = version.previous) {
+            long stamp = version.stamp;
+
+            if (stamp != 0 && stamp <= oldestEpochInUse) {
+                version.previous = null;
+                return;
+            }
+        }
+    }
+
+    /**
+     * The clock is read before the readers: a reader registering after the scan reads the clock again afterwards and
+     * gets an epoch at least as new as the one returned.
+     */
+    private long getOldestEpochInUse() {
+        long oldest = clock.get();
+
+        if (activeReaders.get() == 0)
+            return oldest;
+
+        for (int i = 0; i < readerEpochs.length(); i++) {
+            long announced = readerEpochs.get(i);
+            if (announced != FREE)
+                oldest = Math.min(oldest, announced - 1);
+        }
+
+        return oldest;
+    }
+
+    /**
+     * Registers a reader, blocking while every slot is taken; its epoch is read after announcing an older or equal
+     * one, which writers already honour. The permit guarantees a free slot, so the search for it ends within a pass.
+     *
+     * @return the reader's slot, to be released with {@link #exit(int)}
+     */
+    int enter() {
+        freeSlots.acquireUninterruptibly();
+        activeReaders.incrementAndGet();
+        int slots = readerEpochs.length();
+        int slot = (int) (Thread.currentThread().threadId() % slots);
+
+        while (!readerEpochs.compareAndSet(slot, FREE, clock.get() + 1)) {
+            slot = (slot + 1) % slots;
+        }
+
+        return slot;
+    }
+
+    long getEpoch() {
+        return clock.get();
+    }
+
+    void exit(int slot) {
+        readerEpochs.set(slot, FREE);
+        activeReaders.decrementAndGet();
+        freeSlots.release();
+    }
+
+    /**
+     * @return the price of the newest version stamped at or before {@code epoch}, null when there is none
+     */
+    BigDecimal getPriceAt(Version newest, long epoch) {
+        for (Version version = newest; version != null; version = version.previous) {
+            stamp(version);
+
+            if (version.stamp <= epoch)
+                return version.price;
+        }
+
+        return null;
+    }
+
+    /**
+     * Published price of an entity. {@code previous} is only ever cut, by the writer, below what any reader needs, so
+     * it is a plain field.
+     */
+    static final class Version {
+        static final AtomicLongFieldUpdater<Version> STAMP = AtomicLongFieldUpdater.newUpdater(Version.class, "stamp");
+
+        final BigDecimal price;
+        volatile long stamp;
+        Version previous;
+
+        Version(BigDecimal price, Version previous) {
+            this.price = price;
+            this.previous = previous;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.aspectcapital.questiontwo.price;
+
+import java.lang.invoke.VarHandle;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-capacity ring of an entity's latest processed prices with their timestamps, kept in primitive arrays so
+ * recording a price allocates nothing. It has one writer at a time, the thread publishing the entity's prices, which
+ * records a price before it releases the entity to the next worker.
+ * <p>
+ * Readers never block the writer. The writer announces the sequence it is about to write in {@code claimed} before
+ * overwriting a slot and publishes it in {@code published} afterwards; a reader copies slots and then checks
+ * {@code claimed} to discard whatever may have been overwritten during the copy, searching again further ahead when
+ * the writer has lapped it.
+ */
+class PriceHistory {
+    private static final long EPOCH_NANOS_AT_START = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    private static final long NANO_TIME_AT_START = System.nanoTime();
+
+    private final int capacity;
+    private final int mask;
+    private final long[] timestampNanos;
+    private final long[] unscaledPrices;
+    private final int[] scales;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+
+    PriceHistory(int capacity) {
+        if (Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException(String.format("History capacity: %d is not a power of 2", capacity));
+
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.timestampNanos = new long[capacity];
+        this.unscaledPrices = new long[capacity];
+        this.scales = new int[capacity];
+    }
+
+    /**
+     * @return nanoseconds since the epoch from a monotonic clock anchored to the wall clock once
+     */
+    static long currentTimeNanos() {
+        return EPOCH_NANOS_AT_START + (System.nanoTime() - NANO_TIME_AT_START);
+    }
+
+    void add(BigDecimal price) {
+        long sequence = published.get();
+        int index = (int) sequence & mask;
+
+        claimed.set(sequence + 1);
+        VarHandle.storeStoreFence();
+
+        timestampNanos[index] = currentTimeNanos();
+        if (price.unscaledValue().bitLength() < Long.SIZE) {
+            unscaledPrices[index] = price.unscaledValue().longValue();
+            scales[index] = price.scale();
+        } else {
+            unscaledPrices[index] = Double.doubleToRawLongBits(price.doubleValue());
+            scales[index] = PriceSeries.APPROXIMATE_SCALE;
+        }
+
+        published.set(sequence + 1);
+    }
+
+    /**
+     * Replaces the content of {@code series} with the latest {@code n} prices, fewer when fewer were recorded.
+     */
+    void getLast(int n, PriceSeries series) {
+        long lowest = 0;
+
+        while (true) {
+            long head = published.get();
+            long oldest = Math.max(Math.max(head - Math.min(n, capacity), 0), lowest);
+
+            series.clear();
+            copy(oldest, head, series);
+
+            long overwritten = overwritten();
+            if (overwritten <= oldest)
+                return;
+            lowest = overwritten + margin();
+        }
+    }
+
+    /**
+     * Replaces the content of {@code series} with the prices published from {@code fromNanos} up to and including
+     * {@code toNanos}.
+     */
+    void getRange(long fromNanos, long toNanos, PriceSeries series) {
+        long lowest = 0;
+
+        while (true) {
+            long head = published.get();
+            long oldest = Math.max(Math.max(head - capacity, 0), lowest);
+            long first = firstPublishedAfter(oldest, head, fromNanos - 1);
+            long last = firstPublishedAfter(first, head, toNanos);
+
+            series.clear();
+            copy(first, last, series);
+
+            long overwritten = overwritten();
+            if (overwritten <= oldest)
+                return;
+            lowest = overwritten + margin();
+        }
+    }
+
+    /**
+     * @return the first sequence in [from, to) published after {@code nanos}, or {@code to} when there is none
+     */
+    private long firstPublishedAfter(long from, long to, long nanos) {
+        long low = from;
+        long high = to;
+
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+
+            if (timestampNanos[(int) middle & mask] <= nanos)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+
+        return low;
+    }
+
+    private void copy(long from, long to, PriceSeries series) {
+        for (long sequence = from; sequence < to; sequence++) {
+            int index = (int) sequence & mask;
+            series.add(timestampNanos[index], unscaledPrices[index], scales[index]);
+        }
+    }
+
+    /**
+     * Orders the slot reads before it, so every sequence from the returned one on was intact while it was copied.
+     */
+    private long overwritten() {
+        VarHandle.acquireFence();
+
+        return claimed.get() - capacity;
+    }
+
+    /**
+     * How far ahead of the writer a reader that was lapped starts again, so it is not lapped again at once.
+     */
+    private int margin() {
+        return Math.max(capacity >>> 4, 1);
+    }
+}
@@ -1,131 +1,1226 @@
 package com.aspectcapital.questiontwo.price;
 
+import com.aspectcapital.questiontwo.price.journal.JournalRecord;
+import com.aspectcapital.questiontwo.price.journal.PriceJournal;
+import com.aspectcapital.questiontwo.price.processor.BatchPriceProcessor;
 import com.aspectcapital.questiontwo.price.processor.PriceProcessor;
+import com.aspectcapital.questiontwo.price.subscription.ConflatingPricePublisher;
+import com.aspectcapital.questiontwo.price.subscription.PriceListener;
+import com.aspectcapital.questiontwo.price.subscription.PriceUpdate;
+import com.aspectcapital.questiontwo.price.wait.BlockingWaitStrategy;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
-import com.sun.istack.internal.NotNull;
 import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
 
-public class PriceHolder {
+public class PriceHolder implements AutoCloseable {
     private static final Logger logger = Logger.getLogger(PriceHolder.class);
 
-    private static final int DEFAULT_NUMBER_OF_PROCESSING_THREADS = 4;
-    private static final String processingPriceThreadNameFormat = "price-processing-%d";
+    private static final String processingPriceThreadNamePrefix = "price-processing-";
 
-    private final Map<String, Entity> entities = new ConcurrentHashMap<>();
-    private final BlockingQueue<Entity> entitiesToProcess = new LinkedBlockingQueue<>();
+    private final EntityRegistry entities;
+    private final EntityQueue[] entitiesToProcess;
+    private final PriceRingBuffer ringBuffer;
+    private final List<PriceListener> listeners = new CopyOnWriteArrayList<>();
+    private final PriceTracer tracer;
+    private final PriceJournal journal;
+    private final PriceHolderMetrics metrics;
+    private final InFlightLimiter limiter;
+    private final AdaptivePoolSizer poolSizer;
+    private final long poolSizingIntervalNanos;
+    private final boolean timingProcessing;
+    private ScheduledExecutorService poolSizingExecutorService;
+    private final Path snapshotFile;
+    private final long snapshotIntervalMillis;
+    private ScheduledExecutorService snapshotExecutorService;
+    private ObjectName metricsMBeanName;
+    private final ThreadLocal<PriceCursor> threadCursors = ThreadLocal.withInitial(PriceCursor::new);
 
     private final PriceProcessor priceProcessor;
+    private final BatchPriceProcessor batchPriceProcessor;
     private final ReentrantLock reentrantLock = new ReentrantLock();
     private final int numberOfThreads;
+    private final int batchSize;
+    private final int numberOfPriorityClasses;
+    private final boolean historyEnabled;
+    private final PriceEpochs epochs;
+    private final boolean virtualThreads;
     private ExecutorService processingExecutorService;
     private volatile boolean isRunning;
 
     public PriceHolder(PriceProcessor priceProcessor) {
-        this(priceProcessor, DEFAULT_NUMBER_OF_PROCESSING_THREADS);
+        this(priceProcessor, new PriceHolderConfiguration.Builder().build());
     }
 
     public PriceHolder(PriceProcessor priceProcessor, int numberOfThreads) {
+        this(priceProcessor, new PriceHolderConfiguration.Builder().setNumberOfThreads(numberOfThreads).build());
+    }
+
+    /**
+     * Batch processing mode: every worker takes up to {@code batchSize} queued entities and processes their prices
+     * with one {@link BatchPriceProcessor} invocation.
+     */
+    public PriceHolder(BatchPriceProcessor batchPriceProcessor, int numberOfThreads, int batchSize) {
+        this(batchPriceProcessor, new PriceHolderConfiguration.Builder()
+                .setNumberOfThreads(numberOfThreads)
+                .setBatchSize(batchSize)
+                .build());
+    }
+
+    public PriceHolder(PriceProcessor priceProcessor, PriceHolderConfiguration configuration) {
+        this(priceProcessor, null, configuration);
+    }
+
+    public PriceHolder(BatchPriceProcessor batchPriceProcessor, PriceHolderConfiguration configuration) {
+        this(null, batchPriceProcessor, configuration);
+    }
+
+    private PriceHolder(PriceProcessor priceProcessor, BatchPriceProcessor batchPriceProcessor, PriceHolderConfiguration configuration) {
+        if (configuration.isRingBufferIngestion() && priceProcessor == null)
+            throw new IllegalArgumentException("Ring buffer ingestion requires a PriceProcessor");
+        if (configuration.isAdaptiveThreads() && priceProcessor == null)
+            throw new IllegalArgumentException("Adaptive threads require a PriceProcessor");
+
+        this.snapshotFile = configuration.getSnapshotFile();
+        this.snapshotIntervalMillis = configuration.getSnapshotIntervalMillis();
+        EntitySnapshot snapshot = snapshotFile != null ? readSnapshot(snapshotFile) : null;
+        this.journal = configuration.isJournaling() ? openJournal(configuration) : null;
+        this.epochs = configuration.isConsistentReads() ? new PriceEpochs(configuration.getConsistentReaders()) : null;
+        this.entities = new EntityRegistry(configuration.getReaderWaitStrategies(),
+                journal != null ? entity -> journal.appendEntity(entity.getId(), entity.getName()) : null,
+                snapshot != null ? snapshot.size() : 0, configuration.getHistoryCapacity(), epochs);
+        if (snapshot != null)
+            restore(snapshot, configuration.getNumberOfPriorityClasses());
         this.priceProcessor = priceProcessor;
-        this.numberOfThreads = numberOfThreads;
+        this.batchPriceProcessor = batchPriceProcessor;
+        this.numberOfThreads = configuration.getNumberOfThreads();
+        this.batchSize = configuration.getBatchSize();
+        this.numberOfPriorityClasses = configuration.getNumberOfPriorityClasses();
+        this.historyEnabled = configuration.isHistoryEnabled();
+        this.virtualThreads = configuration.isVirtualThreads();
+        this.tracer = configuration.isTracing() ? new PriceTracer(configuration.getTraceCapacity()) : null;
+        this.metrics = configuration.isMetricsEnabled() ? new PriceHolderMetrics(this::getQueueDepth) : null;
+        this.limiter = configuration.isBounded()
+                ? new InFlightLimiter(configuration.getMaxEntitiesInFlight(), configuration.getOverloadPolicy(), configuration.getOverloadListener())
+                : null;
+        this.poolSizer = configuration.isAdaptiveThreads()
+                ? new AdaptivePoolSizer(configuration.getMinThreads(), configuration.getMaxThreads(),
+                        Runtime.getRuntime()::availableProcessors, ManagementFactory.getOperatingSystemMXBean()::getSystemLoadAverage)
+                : null;
+        this.poolSizingIntervalNanos = TimeUnit.MILLISECONDS.toNanos(configuration.getPoolSizingIntervalMillis());
+        this.timingProcessing = metrics != null || poolSizer != null;
+        this.entitiesToProcess = new EntityQueue[configuration.isSharded() ? numberOfThreads : 1];
+        this.ringBuffer = configuration.isRingBufferIngestion()
+                ? new PriceRingBuffer(configuration.getRingBufferSize(), numberOfThreads,
+                        configuration.getWaitStrategy() != null ? configuration.getWaitStrategy() : new BlockingWaitStrategy())
+                : null;
+
+        for (int i = 0; i < entitiesToProcess.length; i++) {
+            entitiesToProcess[i] = new EntityQueue(configuration.getSchedulingPolicy(), configuration.getPriorityWeights(),
+                    configuration.getWaitStrategy());
+        }
+
         startProcessing();
     }
 
+    private static PriceJournal openJournal(PriceHolderConfiguration configuration) {
+        try {
+            return new PriceJournal(configuration.getJournalDirectory(), configuration.getJournalSegmentSize());
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("Cannot open journal in: %s", configuration.getJournalDirectory()), e);
+        }
+    }
+
+    /**
+     * Restores the entities of the snapshot and journals their names, which the registration listener is not called
+     * with.
+     */
+    private void restore(EntitySnapshot snapshot, int numberOfPriorityClasses) {
+        int clamped = entities.restore(snapshot, numberOfPriorityClasses);
+        if (clamped > 0)
+            logger.warn(String.format("Clamped %d restored priorities to the %d priority classes", clamped, numberOfPriorityClasses));
+
+        if (journal != null) {
+            String[] names = new String[entities.size()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = entities.get(i).getName();
+            }
+            journal.appendEntities(names);
+        }
+    }
+
+    /**
+     * @return null when there is no snapshot to restore yet
+     */
+    private static EntitySnapshot readSnapshot(Path snapshotFile) {
+        if (!Files.exists(snapshotFile))
+            return null;
+
+        try {
+            return EntitySnapshot.read(snapshotFile);
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("Cannot restore snapshot: %s", snapshotFile), e);
+        }
+    }
+
     void startProcessing() {
-        synchronized (reentrantLock) {
+        reentrantLock.lock();
+        try {
             if (!isRunning) {
-                processingExecutorService = Executors.newFixedThreadPool(numberOfThreads, new ThreadFactoryBuilder()
-                        .setNameFormat(processingPriceThreadNameFormat).setDaemon(true).build());
+                processingExecutorService = createProcessingExecutor();
                 isRunning = true;
+                if (ringBuffer != null)
+                    ringBuffer.setStopped(false);
                 processPrices();
+                if (snapshotIntervalMillis > 0)
+                    startPeriodicSnapshots();
             }
+        } finally {
+            reentrantLock.unlock();
         }
     }
 
+    private ExecutorService createProcessingExecutor() {
+        if (virtualThreads)
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(processingPriceThreadNamePrefix, 0).factory());
+
+        ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat(processingPriceThreadNamePrefix + "%d").setDaemon(true).build();
+
+        if (poolSizer != null)
+            return Executors.newCachedThreadPool(threadFactory);
+
+        return Executors.newFixedThreadPool(numberOfThreads, threadFactory);
+    }
+
     public void putPrice(@NotNull final String entityName, @NotNull final BigDecimal price) {
-        logger.debug(String.format("[RECEIVED] entityName='%s', price=%f", entityName, price));
         checkForNull(entityName);
 
+        putPrice(getOrCreateEntity(entityName), price);
+    }
+
+    /**
+     * Sets the priority of the entity, registering it when it does not exist yet, and puts the price.
+     */
+    public void putPrice(@NotNull final String entityName, @NotNull final BigDecimal price, final int priority) {
+        checkForNull(entityName);
         Entity entity = getOrCreateEntity(entityName);
+        setPriority(entity, priority);
+
+        putPrice(entity, price);
+    }
+
+    public void putPrice(final int entityId, @NotNull final BigDecimal price) {
+        putPrice(getEntity(entityId), price);
+    }
+
+    private void putPrice(Entity entity, BigDecimal price) {
+        trace(PriceTracer.Event.RECEIVED, entity.getId(), 1);
+        journal(JournalRecord.Type.RECEIVED, entity, price);
+
+        if (ringBuffer != null) {
+            if (metrics != null)
+                entity.setLastPutNanos(System.nanoTime());
+            ringBuffer.publish(entity, price);
+            onPut(false);
+        } else if (putNextPriceToProcess(entity, price, null)) {
+            addToProcessingQueue(entity);
+        }
+    }
 
-        synchronized (entity) {
-            entity.setNextPriceToProcess(price);
+    /**
+     * @param toQueue entities admitted by the batch being put, which are queued before the producer blocks
+     * @return true when the entity was idle and has to be queued
+     */
+    private boolean putNextPriceToProcess(Entity entity, BigDecimal price, List<Entity> toQueue) {
+        if (metrics != null)
+            entity.setLastPutNanos(System.nanoTime());
 
-            if (!entity.isInProcessing()) {
-                addToProcessingQueue(entity);
+        if (limiter == null || entity.isInProcessing()) {
+            boolean idle = entity.putNextPriceToProcess(price);
+            if (idle && limiter != null)
+                limiter.forceAcquire();
+            onPut(!idle);
+
+            return idle;
+        }
+
+        if (!admit(entity, toQueue)) {
+            limiter.onDropped();
+            trace(PriceTracer.Event.DROPPED, entity.getId(), 1);
+            return false;
+        }
+
+        boolean idle = entity.putNextPriceToProcess(price);
+        if (!idle)
+            limiter.release();
+        onPut(!idle);
+
+        return idle;
+    }
+
+    /**
+     * @return false when the price has to be dropped
+     */
+    private boolean admit(Entity entity, List<Entity> toQueue) {
+        if (limiter.tryAcquire())
+            return true;
+
+        limiter.onOverloaded();
+
+        switch (limiter.getPolicy()) {
+            case BLOCK:
+                if (toQueue != null) {
+                    addToProcessingQueue(toQueue);
+                    toQueue.clear();
+                }
+                try {
+                    limiter.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException(String.format("Interrupted while waiting to put a price for entity: \"%s\"", entity.getName()));
+                }
+                return true;
+            case SHED_LOWEST_PRIORITY:
+                return shedLowerPriorityThan(entity.getPriority());
+            case FAIL_FAST:
+                throw new RejectedExecutionException(String.format("Too many entities in flight to put a price for entity: \"%s\"", entity.getName()));
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Removes the lowest priority queued entity below {@code priority} and hands its in flight permit over to the
+     * caller; the removed entity goes back to idle with its pending price unprocessed.
+     */
+    private boolean shedLowerPriorityThan(int priority) {
+        while (true) {
+            EntityQueue lowestQueue = null;
+            Entity lowest = null;
+
+            for (EntityQueue queue : entitiesToProcess) {
+                Entity candidate = queue.peekLowestPriority(lowest == null ? priority : lowest.getPriority() + 1);
+
+                if (candidate != null) {
+                    lowest = candidate;
+                    lowestQueue = queue;
+                }
+            }
+
+            if (lowest == null)
+                return false;
+
+            if (lowestQueue.remove(lowest)) {
+                lowest.setInProcessing(false);
+                limiter.onShed();
+                trace(PriceTracer.Event.SHED, lowest.getId(), 1);
+                return true;
+            }
+        }
+    }
+
+    private void release(Entity entity) {
+        entity.setInProcessing(false);
+        releaseInFlight();
+    }
+
+    private void releaseInFlight() {
+        if (limiter != null)
+            limiter.release();
+    }
+
+    private void onPut(boolean inProcessing) {
+        if (metrics != null)
+            metrics.onPut(inProcessing);
+    }
+
+    /**
+     * Puts a whole snapshot at once: every entity is updated first and the ones that became dirty are queued as one
+     * batch.
+     */
+    public void putPrices(@NotNull final Map<String, BigDecimal> prices) {
+        trace(PriceTracer.Event.RECEIVED_BATCH, PriceTracer.NO_ENTITY, prices.size());
+        if (ringBuffer != null) {
+            publishPrices(prices);
+            return;
+        }
+
+        List<Entity> toQueue = new ArrayList<>(prices.size());
+
+        try {
+            for (Map.Entry<String, BigDecimal> price : prices.entrySet()) {
+                checkForNull(price.getKey());
+                putPrice(getOrCreateEntity(price.getKey()), price.getValue(), toQueue);
+            }
+        } finally {
+            addToProcessingQueue(toQueue);
+        }
+    }
+
+    public void putPrices(@NotNull final int[] entityIds, @NotNull final BigDecimal[] prices) {
+        trace(PriceTracer.Event.RECEIVED_BATCH, PriceTracer.NO_ENTITY, prices.length);
+        if (entityIds.length != prices.length)
+            throw new IllegalArgumentException(String.format("Got %d entity ids for %d prices", entityIds.length, prices.length));
+
+        if (ringBuffer != null) {
+            publishPrices(entityIds, prices);
+            return;
+        }
+
+        List<Entity> toQueue = new ArrayList<>(prices.length);
+
+        try {
+            for (int i = 0; i < entityIds.length; i++) {
+                putPrice(getEntity(entityIds[i]), prices[i], toQueue);
+            }
+        } finally {
+            addToProcessingQueue(toQueue);
+        }
+    }
+
+    private void publishPrices(Map<String, BigDecimal> prices) {
+        Entity[] batchEntities = new Entity[prices.size()];
+        BigDecimal[] batchPrices = new BigDecimal[prices.size()];
+        int i = 0;
+
+        for (Map.Entry<String, BigDecimal> price : prices.entrySet()) {
+            checkForNull(price.getKey());
+            batchEntities[i] = getOrCreateEntity(price.getKey());
+            batchPrices[i++] = price.getValue();
+        }
+
+        publishToRingBuffer(batchEntities, batchPrices);
+    }
+
+    private void publishPrices(int[] entityIds, BigDecimal[] prices) {
+        Entity[] batchEntities = new Entity[entityIds.length];
+
+        for (int i = 0; i < entityIds.length; i++) {
+            batchEntities[i] = getEntity(entityIds[i]);
+        }
+
+        publishToRingBuffer(batchEntities, prices);
+    }
+
+    private void publishToRingBuffer(Entity[] batchEntities, BigDecimal[] prices) {
+        if (journal != null) {
+            for (int i = 0; i < batchEntities.length; i++) {
+                journal.append(JournalRecord.Type.RECEIVED, batchEntities[i].getId(), prices[i]);
+            }
+        }
+        if (metrics != null) {
+            long now = System.nanoTime();
+            for (Entity entity : batchEntities) {
+                entity.setLastPutNanos(now);
+            }
+            metrics.onPuts(batchEntities.length);
+        }
+
+        ringBuffer.publish(batchEntities, prices);
+    }
+
+    private void putPrice(Entity entity, BigDecimal price, List<Entity> toQueue) {
+        journal(JournalRecord.Type.RECEIVED, entity, price);
+
+        if (putNextPriceToProcess(entity, price, toQueue))
+            toQueue.add(entity);
+    }
+
+    private void addToProcessingQueue(List<Entity> batch) {
+        try {
+            if (entitiesToProcess.length == 1) {
+                entitiesToProcess[0].putAll(batch);
+            } else {
+                putAllToShards(batch);
             }
+            trace(PriceTracer.Event.QUEUED_BATCH, PriceTracer.NO_ENTITY, batch.size());
+        } catch (Exception e) {
+            logger.warn(e);
+            for (Entity entity : batch) {
+                release(entity);
+            }
+        }
+    }
+
+    private void putAllToShards(List<Entity> batch) {
+        List<List<Entity>> shards = new ArrayList<>(entitiesToProcess.length);
+
+        for (int i = 0; i < entitiesToProcess.length; i++) {
+            shards.add(new ArrayList<>());
         }
+
+        for (Entity entity : batch) {
+            shards.get(shardOf(entity)).add(entity);
+        }
+
+        for (int i = 0; i < entitiesToProcess.length; i++) {
+            entitiesToProcess[i].putAll(shards.get(i));
+        }
+    }
+
+    private int shardOf(Entity entity) {
+        return entity.getId() % entitiesToProcess.length;
+    }
+
+    private EntityQueue queueOf(Entity entity) {
+        return entitiesToProcess[shardOf(entity)];
     }
 
     private void addToProcessingQueue(Entity entity) {
         try {
-            entity.setInProcessing(true);
-            entitiesToProcess.put(entity);
-            logger.debug(String.format("[QUEUED] %s", entity));
+            queueOf(entity).put(entity);
+            trace(PriceTracer.Event.QUEUED, entity.getId(), 1);
         } catch (Exception e) {
             logger.warn(e);
-            entity.setInProcessing(false);
+            release(entity);
         }
     }
 
     private void processPrices() {
+        if (ringBuffer != null) {
+            for (int i = 0; i < numberOfThreads; i++) {
+                processingExecutorService.execute(new RingBufferPriceProcessor(i));
+            }
+            return;
+        }
+
+        if (poolSizer != null) {
+            startAdaptivePool();
+            return;
+        }
+
         for (int i = 0; i < numberOfThreads; i++) {
-            processingExecutorService.execute(new PriceQueueProcessor());
+            EntityQueue queue = entitiesToProcess[i % entitiesToProcess.length];
+            processingExecutorService.execute(batchPriceProcessor != null ? new BatchPriceQueueProcessor(queue) : new PriceQueueProcessor(queue));
+        }
+    }
+
+    private void startAdaptivePool() {
+        poolSizer.reset();
+        startPoolThreads();
+
+        poolSizingExecutorService = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("price-pool-sizing-%d").setDaemon(true).build());
+        poolSizingExecutorService.scheduleAtFixedRate(() -> {
+            poolSizer.resize(getQueueDepth(), poolSizingIntervalNanos);
+            startPoolThreads();
+        }, poolSizingIntervalNanos, poolSizingIntervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void startPoolThreads() {
+        while (poolSizer.tryStart()) {
+            processingExecutorService.execute(new PriceQueueProcessor(entitiesToProcess[0]));
         }
     }
 
+    /**
+     * @return the number of processing threads, which only changes over time with adaptive threads
+     */
+    public int getNumberOfProcessingThreads() {
+        return poolSizer != null ? poolSizer.getThreads() : numberOfThreads;
+    }
+
+    private void startPeriodicSnapshots() {
+        snapshotExecutorService = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("price-snapshot-%d").setDaemon(true).build());
+        snapshotExecutorService.scheduleWithFixedDelay(this::writeConfiguredSnapshot,
+                snapshotIntervalMillis, snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void writeConfiguredSnapshot() {
+        try {
+            writeSnapshot(snapshotFile);
+        } catch (IOException e) {
+            logger.warn(String.format("Cannot write snapshot: %s", snapshotFile), e);
+        }
+    }
+
+    /**
+     * Writes the name, priority and latest processed price of every entity to {@code file}, replacing it
+     * atomically. Neither producers nor processing threads are paused, so prices of different entities may be
+     * taken at slightly different moments. A PriceHolder configured with the file restores it on construction.
+     */
+    public void writeSnapshot(@NotNull final Path file) throws IOException {
+        EntitySnapshot.write(entities, file);
+    }
+
     public void stopProcessing() {
         logger.warn("Stop processing invoked");
 
-        synchronized (reentrantLock) {
+        reentrantLock.lock();
+        try {
             if (isRunning) {
                 isRunning = false;
+                if (ringBuffer != null)
+                    ringBuffer.setStopped(true);
+                if (poolSizingExecutorService != null)
+                    poolSizingExecutorService.shutdownNow();
                 shutDownProcessingExecutor();
+                if (journal != null)
+                    journal.force();
+                if (snapshotFile != null)
+                    writeFinalSnapshot();
+            }
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+
+    /**
+     * Stops processing and closes the journal, whose thread, file and mapped segments would otherwise outlive the
+     * holder. The holder cannot be used afterwards; with journaling every put throws.
+     */
+    @Override
+    public void close() {
+        try {
+            stopProcessing();
+        } finally {
+            if (journal != null) {
+                try {
+                    journal.close();
+                } catch (IOException e) {
+                    logger.warn("Cannot close journal", e);
+                }
             }
         }
     }
 
+    /**
+     * Lets a periodic snapshot in progress finish rather than interrupting its file channel, so it cannot replace the
+     * final one.
+     */
+    private void writeFinalSnapshot() {
+        if (snapshotExecutorService != null) {
+            snapshotExecutorService.shutdown();
+            try {
+                snapshotExecutorService.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        writeConfiguredSnapshot();
+    }
+
     private void shutDownProcessingExecutor() {
-        processingExecutorService.shutdown();
+        processingExecutorService.shutdownNow();
 
         try {
-            if (!processingExecutorService.awaitTermination(100, TimeUnit.MICROSECONDS)) {
-                throw new RuntimeException("Cannot shutdown executor service");
-            }
+            if (!processingExecutorService.awaitTermination(100, TimeUnit.MILLISECONDS))
+                logger.warn("Processing threads did not stop within 100 ms");
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            Thread.currentThread().interrupt();
         }
 
         logger.debug("[STOPPED] Processing prices stopped");
     }
 
+    /**
+     * @return how many processed prices of the entity were published since the calling thread last read it
+     */
+    public long getPricesSinceLastRead(@NotNull final String entityName) {
+        return getPricesSinceLastRead(threadCursors.get(), entityName);
+    }
+
+    public long getPricesSinceLastRead(@NotNull final PriceCursor cursor, @NotNull final String entityName) {
+        checkForNull(entityName);
+
+        return getEntity(entityName).getPricesSinceLastRead(cursor);
+    }
+
+    /**
+     * @return a read cursor of its own for a consumer, which may move between threads
+     */
+    public PriceCursor newCursor() {
+        return new PriceCursor(entities.size());
+    }
+
+    /**
+     * Reads through the calling thread's cursor; see {@link #getPrice(PriceCursor, String)} for consumers that hop
+     * threads.
+     */
     public BigDecimal getPrice(@NotNull final String entityName) {
-        logger.debug(String.format("[GET PRICE INVOKED] For entity name: \"%s\"", entityName));
+        return getPrice(threadCursors.get(), entityName);
+    }
+
+    public BigDecimal getPrice(final int entityId) {
+        return getPrice(threadCursors.get(), entityId);
+    }
+
+    public BigDecimal getPrice(@NotNull final PriceCursor cursor, @NotNull final String entityName) {
         checkForNull(entityName);
         Entity entity = getEntity(entityName);
-        logger.debug(String.format("[GET PRICE] %s", entity));
+        trace(PriceTracer.Event.GET_PRICE, entity.getId(), 1);
+
+        return entity.getPrice(cursor);
+    }
 
-        return entity.getPrice();
+    public BigDecimal getPrice(@NotNull final PriceCursor cursor, final int entityId) {
+        Entity entity = getEntity(entityId);
+        trace(PriceTracer.Event.GET_PRICE, entityId, 1);
+
+        return entity.getPrice(cursor);
     }
 
     public boolean hasPriceChanged(final String entityName) {
-        logger.debug(String.format("[HAS PRICE CHANGED] %s", entityName));
+        return hasPriceChanged(threadCursors.get(), entityName);
+    }
+
+    public boolean hasPriceChanged(final int entityId) {
+        return hasPriceChanged(threadCursors.get(), entityId);
+    }
+
+    public boolean hasPriceChanged(@NotNull final PriceCursor cursor, final String entityName) {
         checkForNull(entityName);
         Entity entity = getEntity(entityName);
+        trace(PriceTracer.Event.HAS_PRICE_CHANGED, entity.getId(), 1);
+
+        return entity.hasPriceChanged(cursor);
+    }
 
-        return entity.hasPriceChanged();
+    public boolean hasPriceChanged(@NotNull final PriceCursor cursor, final int entityId) {
+        trace(PriceTracer.Event.HAS_PRICE_CHANGED, entityId, 1);
+
+        return getEntity(entityId).hasPriceChanged(cursor);
     }
 
     public BigDecimal waitForNextPrice(String entityName) throws InterruptedException {
-        logger.debug(String.format("[WAIT FOR NEXT PRICE] %s", entityName));
+        return waitForNextPrice(threadCursors.get(), entityName);
+    }
+
+    public BigDecimal waitForNextPrice(final int entityId) throws InterruptedException {
+        return waitForNextPrice(threadCursors.get(), entityId);
+    }
+
+    public BigDecimal waitForNextPrice(@NotNull final PriceCursor cursor, String entityName) throws InterruptedException {
+        checkForNull(entityName);
+        Entity entity = getEntity(entityName);
+        trace(PriceTracer.Event.WAIT_FOR_NEXT_PRICE, entity.getId(), 1);
+
+        onWaitStarted();
+        try {
+            return entity.getNewPrice(cursor);
+        } finally {
+            onWaitFinished();
+        }
+    }
+
+    public BigDecimal waitForNextPrice(@NotNull final PriceCursor cursor, final int entityId) throws InterruptedException {
+        trace(PriceTracer.Event.WAIT_FOR_NEXT_PRICE, entityId, 1);
+
+        Entity entity = getEntity(entityId);
+
+        onWaitStarted();
+        try {
+            return entity.getNewPrice(cursor);
+        } finally {
+            onWaitFinished();
+        }
+    }
+
+    /**
+     * @throws TimeoutException when no new price was published within the timeout
+     */
+    public BigDecimal waitForNextPrice(@NotNull final String entityName, long timeout, @NotNull TimeUnit unit)
+            throws InterruptedException, TimeoutException {
+        return waitForNextPrice(threadCursors.get(), entityName, timeout, unit);
+    }
+
+    public BigDecimal waitForNextPrice(@NotNull final PriceCursor cursor, @NotNull final String entityName, long timeout,
+                                       @NotNull TimeUnit unit) throws InterruptedException, TimeoutException {
+        checkForNull(entityName);
+        Entity entity = getEntity(entityName);
+        trace(PriceTracer.Event.WAIT_FOR_NEXT_PRICE, entity.getId(), 1);
+
+        onWaitStarted();
+        try {
+            return entity.getNewPrice(cursor, unit.toNanos(timeout));
+        } finally {
+            onWaitFinished();
+        }
+    }
+
+    private void onWaitStarted() {
+        if (metrics != null)
+            metrics.onWaitStarted();
+    }
+
+    private void onWaitFinished() {
+        if (metrics != null)
+            metrics.onWaitFinished();
+    }
+
+    public CompletableFuture<BigDecimal> nextPriceAsync(@NotNull final String entityName) {
+        return nextPriceAsync(threadCursors.get(), entityName);
+    }
+
+    /**
+     * Returns at once with a future of the first price the cursor has not read yet. The future is completed by the
+     * processing thread publishing the price, so dependent stages should use the *Async methods or be quick. The
+     * cursor is not advanced, as the price is delivered to whichever thread consumes the future.
+     */
+    public CompletableFuture<BigDecimal> nextPriceAsync(@NotNull final PriceCursor cursor, @NotNull final String entityName) {
         checkForNull(entityName);
         Entity entity = getEntity(entityName);
+        trace(PriceTracer.Event.WAIT_FOR_NEXT_PRICE, entity.getId(), 0);
+
+        return entity.getNewPriceAsync(cursor.getVersionRead(entity.getId()));
+    }
+
+    public Set<String> waitForAnyPrice(@NotNull final Collection<String> entityNames, long timeout, @NotNull TimeUnit unit)
+            throws InterruptedException {
+        return waitForAnyPrice(threadCursors.get(), entityNames, timeout, unit);
+    }
+
+    /**
+     * Blocks until the processed price of at least one of the entities changed since the cursor last read it, parking
+     * the calling thread once for all of them.
+     *
+     * @return the names of the changed entities, empty when the timeout elapsed first
+     */
+    public Set<String> waitForAnyPrice(@NotNull final PriceCursor cursor, @NotNull final Collection<String> entityNames,
+                                       long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+        trace(PriceTracer.Event.WAIT_FOR_ANY_PRICE, PriceTracer.NO_ENTITY, entityNames.size());
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        List<Entity> toWatch = new ArrayList<>(entityNames.size());
+
+        for (String entityName : entityNames) {
+            checkForNull(entityName);
+            toWatch.add(getEntity(entityName));
+        }
+
+        Set<String> changed = getChangedEntityNames(cursor, toWatch);
+        if (!changed.isEmpty())
+            return changed;
+
+        PriceWaiter waiter = new PriceWaiter();
+        for (Entity entity : toWatch) {
+            entity.addPriceWaiter(waiter);
+        }
+
+        onWaitStarted();
+        try {
+            while ((changed = getChangedEntityNames(cursor, toWatch)).isEmpty() && waiter.await(deadline)) {
+            }
+        } finally {
+            onWaitFinished();
+            for (Entity entity : toWatch) {
+                entity.removePriceWaiter(waiter);
+            }
+        }
+
+        return changed;
+    }
+
+    private Set<String> getChangedEntityNames(PriceCursor cursor, List<Entity> toWatch) {
+        Set<String> changed = new HashSet<>();
+
+        for (Entity entity : toWatch) {
+            if (entity.hasPriceChanged(cursor))
+                changed.add(entity.getName());
+        }
+
+        return changed;
+    }
+
+    /**
+     * Calls the listener from the processing thread after every processed price of the entity, registering the
+     * entity when it does not exist yet.
+     */
+    public void subscribe(@NotNull final String entityName, @NotNull final PriceListener listener) {
+        checkForNull(entityName);
+        checkForNull(listener);
+
+        getOrCreateEntity(entityName).addListener(listener);
+    }
+
+    public void unsubscribe(@NotNull final String entityName, @NotNull final PriceListener listener) {
+        checkForNull(entityName);
+
+        getEntity(entityName).removeListener(listener);
+    }
+
+    /**
+     * Calls the listener from the processing thread after every processed price of any entity.
+     */
+    public void subscribe(@NotNull final PriceListener listener) {
+        checkForNull(listener);
+
+        listeners.add(listener);
+    }
+
+    public void unsubscribe(@NotNull final PriceListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return a publisher of the processed prices of the entity, conflated per subscriber to the latest price
+     */
+    public Flow.Publisher<PriceUpdate> getPublisher(@NotNull final String entityName) {
+        checkForNull(entityName);
+        Entity entity = getOrCreateEntity(entityName);
+
+        return new ConflatingPricePublisher(entity::addListener, entity::removeListener);
+    }
+
+    /**
+     * @return a publisher of the processed prices of all entities, conflated per subscriber to the latest price of
+     * every entity
+     */
+    public Flow.Publisher<PriceUpdate> getPublisher() {
+        return new ConflatingPricePublisher(listeners::add, listeners::remove);
+    }
+
+    private void onProcessed(long start, long putNanos) {
+        if (!timingProcessing)
+            return;
+
+        long now = System.nanoTime();
+        if (poolSizer != null)
+            poolSizer.onProcessed(now - start);
+        if (metrics != null) {
+            metrics.onProcessed(now - start);
+            metrics.onVisible(now - putNanos);
+        }
+    }
+
+    private void notifyListeners(Entity entity, BigDecimal price) {
+        if (listeners.isEmpty() && entity.getListeners().isEmpty())
+            return;
+
+        PriceUpdate update = new PriceUpdate(entity.getId(), entity.getName(), price);
+        notifyListeners(entity.getListeners(), update);
+        notifyListeners(listeners, update);
+    }
+
+    private void notifyListeners(List<PriceListener> toNotify, PriceUpdate update) {
+        for (PriceListener listener : toNotify) {
+            try {
+                listener.onPrice(update);
+            } catch (Exception e) {
+                logger.warn(e);
+            }
+        }
+    }
+
+    /**
+     * Sets the priority, higher is more important, which is the priority class the scheduler serves the entity from
+     * and ranks the entities shed on overload. Registers the entity when it does not exist yet; the priority applies
+     * from the next time the entity is queued.
+     */
+    public void setPriority(@NotNull final String entityName, final int priority) {
+        checkForNull(entityName);
+
+        setPriority(getOrCreateEntity(entityName), priority);
+    }
+
+    private void setPriority(Entity entity, int priority) {
+        if (numberOfPriorityClasses > 1 && (priority < 0 || priority >= numberOfPriorityClasses))
+            throw new IllegalArgumentException(String.format("Priority: %d is not one of the %d priority classes", priority, numberOfPriorityClasses));
+
+        entity.setPriority(priority);
+    }
+
+    /**
+     * @return true from the moment the bound on entities in flight was reached until half of them were released
+     */
+    public boolean isOverloaded() {
+        return limiter != null && limiter.isOverloaded();
+    }
+
+    public long getNumberOfDroppedPrices() {
+        return limiter != null ? limiter.getDroppedPrices() : 0;
+    }
+
+    public long getNumberOfShedEntities() {
+        return limiter != null ? limiter.getShedEntities() : 0;
+    }
+
+    /**
+     * @return the stable id of the entity, registering it when it does not exist yet
+     */
+    public int getOrCreateEntityId(@NotNull final String entityName) {
+        checkForNull(entityName);
+
+        return getOrCreateEntity(entityName).getId();
+    }
+
+    /**
+     * @return the stable id of the entity, registering it when it does not exist yet, after setting its priority
+     */
+    public int getOrCreateEntityId(@NotNull final String entityName, final int priority) {
+        checkForNull(entityName);
+        Entity entity = getOrCreateEntity(entityName);
+        setPriority(entity, priority);
+
+        return entity.getId();
+    }
+
+    /**
+     * @return the metrics recorded so far
+     * @throws IllegalStateException when metrics were not enabled in the configuration
+     */
+    public PriceHolderMetricsSnapshot getMetricsSnapshot() {
+        return getMetrics().snapshot();
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server under
+     * {@code com.aspectcapital.questiontwo.price:type=PriceHolder,name=<name>}.
+     */
+    public ObjectName registerMetricsMBean(@NotNull final String name) throws JMException {
+        PriceHolderMetrics toRegister = getMetrics();
+
+        reentrantLock.lock();
+        try {
+            if (metricsMBeanName != null)
+                throw new IllegalStateException(String.format("Metrics already registered as: %s", metricsMBeanName));
+
+            ObjectName objectName = new ObjectName(String.format("com.aspectcapital.questiontwo.price:type=PriceHolder,name=%s", ObjectName.quote(name)));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(toRegister, objectName);
+            metricsMBeanName = objectName;
+
+            return objectName;
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+
+    public void unregisterMetricsMBean() throws JMException {
+        reentrantLock.lock();
+        try {
+            if (metricsMBeanName != null) {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsMBeanName);
+                metricsMBeanName = null;
+            }
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+
+    private PriceHolderMetrics getMetrics() {
+        if (metrics == null)
+            throw new IllegalStateException("Metrics are not enabled");
+
+        return metrics;
+    }
+
+    private long getQueueDepth() {
+        long depth = ringBuffer != null ? ringBuffer.getBacklog() : 0;
+
+        for (EntityQueue queue : entitiesToProcess) {
+            depth += queue.size();
+        }
+
+        return depth;
+    }
+
+    private void trace(PriceTracer.Event event, int entityId, long value) {
+        if (tracer != null)
+            tracer.trace(event, entityId, value);
+    }
+
+    private void journal(JournalRecord.Type type, Entity entity, BigDecimal price) {
+        if (journal != null)
+            journal.append(type, entity.getId(), price);
+    }
+
+    /**
+     * @return the last traced hot path events, oldest first, or an empty string when tracing is off
+     */
+    public String dumpTrace() {
+        return tracer != null ? tracer.dump() : "";
+    }
+
+    /**
+     * @return the processed prices of the entity published from {@code fromNanos} up to and including
+     * {@code toNanos}, in nanoseconds since the epoch, oldest first and as far back as the history goes
+     * @throws IllegalStateException when no history capacity was configured
+     */
+    public PriceSeries getHistory(@NotNull final String entityName, final long fromNanos, final long toNanos) {
+        checkForNull(entityName);
+        PriceSeries series = new PriceSeries();
+        getHistory(getEntity(entityName), fromNanos, toNanos, series);
+
+        return series;
+    }
+
+    /**
+     * Like {@link #getHistory(String, long, long)} but replaces the content of {@code series}, which lets a caller
+     * query without allocating.
+     */
+    public void getHistory(final int entityId, final long fromNanos, final long toNanos, @NotNull final PriceSeries series) {
+        getHistory(getEntity(entityId), fromNanos, toNanos, series);
+    }
+
+    private void getHistory(Entity entity, long fromNanos, long toNanos, PriceSeries series) {
+        checkHistoryEnabled();
+        PriceHistory history = entity.getHistory();
+
+        if (history == null)
+            series.clear();
+        else
+            history.getRange(fromNanos, toNanos, series);
+    }
+
+    /**
+     * @return the last {@code n} processed prices of the entity, oldest first, fewer when the history holds fewer
+     * @throws IllegalStateException when no history capacity was configured
+     */
+    public PriceSeries getLastPrices(@NotNull final String entityName, final int n) {
+        checkForNull(entityName);
+        PriceSeries series = new PriceSeries();
+        getLastPrices(getEntity(entityName), n, series);
+
+        return series;
+    }
+
+    /**
+     * Like {@link #getLastPrices(String, int)} but replaces the content of {@code series}, which lets a caller query
+     * without allocating.
+     */
+    public void getLastPrices(final int entityId, final int n, @NotNull final PriceSeries series) {
+        getLastPrices(getEntity(entityId), n, series);
+    }
+
+    private void getLastPrices(Entity entity, int n, PriceSeries series) {
+        checkHistoryEnabled();
+        if (n < 0)
+            throw new IllegalArgumentException(String.format("Number of prices: %d is negative", n));
+        PriceHistory history = entity.getHistory();
+
+        if (history == null)
+            series.clear();
+        else
+            history.getLast(n, series);
+    }
+
+    /**
+     * @return the clock history timestamps are taken from, in nanoseconds since the epoch
+     */
+    public static long currentTimeNanos() {
+        return PriceHistory.currentTimeNanos();
+    }
+
+    /**
+     * Reads the prices of the entities as of one moment, even while they are being processed. Unlike a
+     * {@link #getPrice(String)} per entity the read is neither traced nor recorded in the calling thread's cursor.
+     *
+     * @return a read-only map of the prices by entity name, in the order of {@code entityNames}, null for an entity
+     * without a price at that moment
+     * @throws IllegalStateException when consistent reads were not configured
+     */
+    public Map<String, BigDecimal> getPrices(@NotNull final Collection<String> entityNames) {
+        checkConsistentReads();
+        Entity[] selected = new Entity[entityNames.size()];
+        int i = 0;
+        for (String entityName : entityNames) {
+            checkForNull(entityName);
+            selected[i++] = getEntity(entityName);
+        }
+
+        BigDecimal[] prices = new BigDecimal[selected.length];
+        readPrices(selected, prices);
+
+        String[] names = new String[selected.length];
+        for (i = 0; i < selected.length; i++)
+            names[i] = selected[i].getName();
+
+        return new PriceMap(names, prices);
+    }
+
+    /**
+     * Like {@link #getPrices(Collection)} but by entity id into {@code prices}, which lets a caller read repeatedly
+     * without allocating.
+     *
+     * @return the epoch of the read, see {@link PriceSnapshot#getEpoch()}
+     */
+    public long getPrices(@NotNull final int[] entityIds, @NotNull final BigDecimal[] prices) {
+        checkConsistentReads();
+        if (prices.length < entityIds.length)
+            throw new IllegalArgumentException(String.format("Prices length: %d is below the number of entities: %d",
+                    prices.length, entityIds.length));
+        Entity[] selected = new Entity[entityIds.length];
+        for (int i = 0; i < entityIds.length; i++)
+            selected[i] = getEntity(entityIds[i]);
 
-        return entity.getNewPrice();
+        return readPrices(selected, prices);
+    }
+
+    /**
+     * @return the prices of all entities registered so far as of one moment
+     * @throws IllegalStateException when consistent reads were not configured
+     */
+    public PriceSnapshot snapshotAll() {
+        checkConsistentReads();
+        Entity[] all = new Entity[entities.size()];
+        String[] entityNames = new String[all.length];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = entities.get(i);
+            entityNames[i] = all[i].getName();
+        }
+
+        BigDecimal[] prices = new BigDecimal[all.length];
+        long epoch = readPrices(all, prices);
+
+        return new PriceSnapshot(epoch, entityNames, prices);
+    }
+
+    /**
+     * A price published before the read whose writer has not stamped it yet is stamped by the read itself with an epoch
+     * after its own and skipped, although getPrice() may already have returned it. Such a stamp moves the clock, so
+     * when it moved the read is repeated once at the epoch reached, at or after the stamp of every price published
+     * before the read.
+     */
+    private long readPrices(Entity[] selected, BigDecimal[] prices) {
+        int slot = epochs.enter();
+        try {
+            long epoch = epochs.getEpoch();
+            readPricesAt(selected, prices, epoch);
+
+            long reached = epochs.getEpoch();
+            if (reached != epoch) {
+                epoch = reached;
+                readPricesAt(selected, prices, epoch);
+            }
+
+            return epoch;
+        } finally {
+            epochs.exit(slot);
+        }
+    }
+
+    private static void readPricesAt(Entity[] selected, BigDecimal[] prices, long epoch) {
+        for (int i = 0; i < selected.length; i++)
+            prices[i] = selected[i].getPriceAt(epoch);
+    }
+
+    private void checkConsistentReads() {
+        if (epochs == null)
+            throw new IllegalStateException("Consistent reads are not enabled");
+    }
+
+    private void checkHistoryEnabled() {
+        if (!historyEnabled)
+            throw new IllegalStateException("Price history is not enabled");
     }
 
     private void checkForNull(String entityName) {
@@ -133,9 +1228,14 @@ public class PriceHolder {
             throw new IllegalArgumentException("Entity name provided is null");
     }
 
+    private void checkForNull(PriceListener listener) {
+        if(listener == null)
+            throw new IllegalArgumentException("Listener provided is null");
+    }
+
     @NotNull
     Entity getOrCreateEntity(@NotNull String entityName) {
-        return entities.computeIfAbsent(entityName, Entity::new);
+        return entities.getOrCreate(entityName);
     }
 
     @NotNull
@@ -148,39 +1248,262 @@ public class PriceHolder {
         return entity;
     }
 
+    @NotNull
+    Entity getEntity(int entityId) {
+        Entity entity = entities.get(entityId);
+
+        if(entity == null)
+            throw new IllegalArgumentException(String.format("Entity id: %d does not exist", entityId));
+
+        return entity;
+    }
+
     class PriceQueueProcessor implements Runnable {
+        private final EntityQueue queue;
+
+        PriceQueueProcessor(EntityQueue queue) {
+            this.queue = queue;
+        }
+
         @Override
         public void run() {
-            while (isRunning) {
+            while (isRunning && (poolSizer == null || !poolSizer.tryRetire())) {
                 try {
-                    Entity entity = processNextPrice();
-                    requeueIfNeeded(entity);
+                    processNextPrice();
                 } catch (Exception e) {
                     logger.warn(e);
                 }
             }
         }
 
-        private Entity processNextPrice() throws InterruptedException {
-            Entity entity = entitiesToProcess.take();
-            logger.debug(String.format("[TOOK] %s", entity));
+        /**
+         * A thread of the adaptive pool only waits one sizing interval for an entity, so it notices when the pool
+         * shrank.
+         */
+        private void processNextPrice() throws InterruptedException {
+            Entity entity = poolSizer == null ? queue.take() : queue.poll(poolSizingIntervalNanos);
+            if (entity == null)
+                return;
+            trace(PriceTracer.Event.TOOK, entity.getId(), 1);
+
+            long receivedVersion = entity.getReceivedVersion();
+            long putNanos = entity.getLastPutNanos();
+            BigDecimal priceToProcess = entity.getNextPriceToProcess();
+            long start = timingProcessing ? System.nanoTime() : 0;
+            BigDecimal processedPrice = process(entity, receivedVersion, priceToProcess);
+            entity.publishProcessedPrice(receivedVersion, processedPrice);
+            trace(PriceTracer.Event.PROCESSED, entity.getId(), entity.getVersion());
+            onProcessed(start, putNanos);
+            notifyListeners(entity, processedPrice);
+            journal(JournalRecord.Type.PROCESSED, entity, processedPrice);
+
+            requeueIfNeeded(entity, entity.finishProcessing(receivedVersion));
+        }
+
+        /**
+         * A failed price releases the entity, which is queued again when a price was put while it was processed.
+         */
+        private BigDecimal process(Entity entity, long receivedVersion, BigDecimal priceToProcess) {
+            try {
+                return priceProcessor.process(priceToProcess);
+            } catch (RuntimeException e) {
+                requeueIfNeeded(entity, entity.finishProcessing(receivedVersion));
+                throw e;
+            }
+        }
+
+        private void requeueIfNeeded(Entity entity, boolean hasPriceToProcess) {
+            if (hasPriceToProcess) {
+                queue.put(entity);
+                trace(PriceTracer.Event.REQUEUED, entity.getId(), 1);
+                if (metrics != null)
+                    metrics.onRequeue();
+            } else {
+                releaseInFlight();
+            }
+        }
+    }
 
-            BigDecimal processedPrice = priceProcessor.process(entity.getNextPriceToProcess());
-            entity.setPrice(processedPrice);
-            logger.debug(String.format("[PROCESSED] %s", entity));
+    class BatchPriceQueueProcessor implements Runnable {
+        private final List<Entity> batch = new ArrayList<>(batchSize);
+        private final List<BigDecimal> pricesToProcess = new ArrayList<>(batchSize);
+        private final long[] receivedVersions = new long[batchSize];
+        private final long[] putNanos = new long[batchSize];
+        private final List<Entity> toRequeue = new ArrayList<>(batchSize);
+        private final EntityQueue queue;
 
-            return entity;
+        BatchPriceQueueProcessor(EntityQueue queue) {
+            this.queue = queue;
         }
 
-        private void requeueIfNeeded(Entity entity) throws InterruptedException {
-            synchronized (entity) {
-                if (entity.hasPriceToProcess()) {
-                    entitiesToProcess.put(entity);
-                    logger.debug(String.format("[REQUEUED] %s", entity));
+        @Override
+        public void run() {
+            while (isRunning) {
+                try {
+                    processNextPrices();
+                } catch (Exception e) {
+                    logger.warn(e);
+                }
+            }
+        }
+
+        private void processNextPrices() throws InterruptedException {
+            batch.clear();
+            pricesToProcess.clear();
+            toRequeue.clear();
+
+            queue.takeAll(batch, batchSize);
+            trace(PriceTracer.Event.TOOK_BATCH, PriceTracer.NO_ENTITY, batch.size());
+
+            for (int i = 0; i < batch.size(); i++) {
+                receivedVersions[i] = batch.get(i).getReceivedVersion();
+                putNanos[i] = batch.get(i).getLastPutNanos();
+                pricesToProcess.add(batch.get(i).getNextPriceToProcess());
+            }
+
+            long start = timingProcessing ? System.nanoTime() : 0;
+            List<BigDecimal> processedPrices = process(pricesToProcess);
+
+            for (int i = 0; i < batch.size(); i++) {
+                Entity entity = batch.get(i);
+
+                entity.publishProcessedPrice(receivedVersions[i], processedPrices.get(i));
+                journal(JournalRecord.Type.PROCESSED, entity, processedPrices.get(i));
+                notifyListeners(entity, processedPrices.get(i));
+                if (entity.finishProcessing(receivedVersions[i])) {
+                    toRequeue.add(entity);
                 } else {
-                    entity.setInProcessing(false);
+                    releaseInFlight();
+                }
+            }
+            trace(PriceTracer.Event.PROCESSED_BATCH, PriceTracer.NO_ENTITY, batch.size());
+            onBatchProcessed(start);
+
+            queue.putAll(toRequeue);
+        }
+
+        private void onBatchProcessed(long start) {
+            if (metrics == null)
+                return;
+
+            long now = System.nanoTime();
+            metrics.onProcessed(batch.size(), now - start);
+
+            for (int i = 0; i < batch.size(); i++) {
+                metrics.onVisible(now - putNanos[i]);
+            }
+            for (int i = 0; i < toRequeue.size(); i++) {
+                metrics.onRequeue();
+            }
+        }
+
+        /**
+         * A failed batch releases its entities, queueing again the ones a price was put to while it was processed.
+         */
+        private List<BigDecimal> process(List<BigDecimal> prices) {
+            try {
+                List<BigDecimal> processedPrices = batchPriceProcessor.process(prices);
+
+                if (processedPrices.size() != prices.size())
+                    throw new IllegalStateException(String.format("Processor returned %d prices for %d", processedPrices.size(), prices.size()));
+
+                return processedPrices;
+            } catch (RuntimeException e) {
+                for (int i = 0; i < batch.size(); i++) {
+                    if (batch.get(i).finishProcessing(receivedVersions[i]))
+                        toRequeue.add(batch.get(i));
+                    else
+                        releaseInFlight();
+                }
+                queue.putAll(toRequeue);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Consumer of the ring buffer. Reads every published slot but only handles the entities of its shard, so an entity
+     * is always processed by the same thread and needs no in-processing handshake. Prices of one entity found in the
+     * same run of slots are conflated to the last one.
+     */
+    class RingBufferPriceProcessor implements Runnable {
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private final int consumer;
+        private final BooleanSupplier hasPricesOrStopped;
+        private BigDecimal[] pricesToProcess = new BigDecimal[INITIAL_CAPACITY];
+        private Entity[] dirtyEntities = new Entity[INITIAL_CAPACITY];
+        private int numberOfDirtyEntities;
+
+        RingBufferPriceProcessor(int consumer) {
+            this.consumer = consumer;
+            this.hasPricesOrStopped = () -> !isRunning || ringBuffer.isAvailable(ringBuffer.getConsumerSequence(consumer) + 1);
+        }
+
+        @Override
+        public void run() {
+            while (isRunning) {
+                try {
+                    processNextPrices();
+                } catch (Exception e) {
+                    logger.warn(e);
+                }
+            }
+        }
+
+        private void processNextPrices() throws InterruptedException {
+            ringBuffer.getWaitStrategy().waitFor(hasPricesOrStopped);
+
+            long next = ringBuffer.getConsumerSequence(consumer) + 1;
+            long highest = ringBuffer.getHighestAvailableSequence(next);
+
+            for (long sequence = next; sequence <= highest; sequence++) {
+                Entity entity = ringBuffer.getEntity(sequence);
+
+                if (entity.getId() % ringBuffer.getNumberOfConsumers() == consumer) {
+                    conflate(entity, ringBuffer.getPrice(sequence));
                 }
             }
+            ringBuffer.setConsumerSequence(consumer, highest);
+
+            for (int i = 0; i < numberOfDirtyEntities; i++) {
+                process(dirtyEntities[i]);
+                dirtyEntities[i] = null;
+            }
+            numberOfDirtyEntities = 0;
+        }
+
+        private void conflate(Entity entity, BigDecimal price) {
+            int id = entity.getId();
+
+            if (id >= pricesToProcess.length)
+                pricesToProcess = Arrays.copyOf(pricesToProcess, Math.max(id + 1, pricesToProcess.length * 2));
+
+            if (pricesToProcess[id] == null) {
+                if (numberOfDirtyEntities == dirtyEntities.length)
+                    dirtyEntities = Arrays.copyOf(dirtyEntities, dirtyEntities.length * 2);
+
+                dirtyEntities[numberOfDirtyEntities++] = entity;
+            }
+
+            pricesToProcess[id] = price;
+        }
+
+        private void process(Entity entity) {
+            BigDecimal priceToProcess = pricesToProcess[entity.getId()];
+            pricesToProcess[entity.getId()] = null;
+
+            try {
+                long putNanos = entity.getLastPutNanos();
+                long start = timingProcessing ? System.nanoTime() : 0;
+                BigDecimal processedPrice = priceProcessor.process(priceToProcess);
+                entity.setPrice(processedPrice);
+                journal(JournalRecord.Type.PROCESSED, entity, processedPrice);
+                onProcessed(start, putNanos);
+                notifyListeners(entity, processedPrice);
+            } catch (Exception e) {
+                logger.warn(e);
+            }
         }
     }
 }
@@ -0,0 +1,486 @@
+package com.aspectcapital.questiontwo.price;
+
+import com.aspectcapital.questiontwo.price.journal.PriceJournal;
+import com.aspectcapital.questiontwo.price.overload.OverloadListener;
+import com.aspectcapital.questiontwo.price.overload.OverloadPolicy;
+import com.aspectcapital.questiontwo.price.scheduling.SchedulingPolicy;
+import com.aspectcapital.questiontwo.price.wait.WaitStrategy;
+
+import java.nio.file.Path;
+import java.util.function.Supplier;
+
+public class PriceHolderConfiguration {
+    private final int numberOfThreads;
+    private final int batchSize;
+    private final boolean sharded;
+    private final int ringBufferSize;
+    private final WaitStrategy waitStrategy;
+    private final Supplier<? extends WaitStrategy> readerWaitStrategies;
+    private final boolean virtualThreads;
+    private final int traceCapacity;
+    private final boolean metricsEnabled;
+    private final int maxEntitiesInFlight;
+    private final OverloadPolicy overloadPolicy;
+    private final OverloadListener overloadListener;
+    private final SchedulingPolicy schedulingPolicy;
+    private final int[] priorityWeights;
+    private final int minThreads;
+    private final int maxThreads;
+    private final long poolSizingIntervalMillis;
+    private final Path journalDirectory;
+    private final int journalSegmentSize;
+    private final Path snapshotFile;
+    private final long snapshotIntervalMillis;
+    private final int historyCapacity;
+    private final boolean consistentReads;
+    private final int consistentReaders;
+
+    private PriceHolderConfiguration(Builder builder) {
+        this.numberOfThreads = builder.numberOfThreads;
+        this.batchSize = builder.batchSize;
+        this.sharded = builder.sharded;
+        this.ringBufferSize = builder.ringBufferSize;
+        this.waitStrategy = builder.waitStrategy;
+        this.readerWaitStrategies = builder.readerWaitStrategies;
+        this.virtualThreads = builder.virtualThreads;
+        this.traceCapacity = builder.traceCapacity;
+        this.metricsEnabled = builder.metricsEnabled;
+        this.maxEntitiesInFlight = builder.maxEntitiesInFlight;
+        this.overloadPolicy = builder.overloadPolicy;
+        this.overloadListener = builder.overloadListener;
+        this.schedulingPolicy = builder.schedulingPolicy;
+        this.minThreads = builder.minThreads;
+        this.maxThreads = builder.maxThreads;
+        this.poolSizingIntervalMillis = builder.poolSizingIntervalMillis;
+        this.journalDirectory = builder.journalDirectory;
+        this.journalSegmentSize = builder.journalSegmentSize;
+        this.snapshotFile = builder.snapshotFile;
+        this.snapshotIntervalMillis = builder.snapshotIntervalMillis;
+        this.historyCapacity = builder.historyCapacity;
+        this.consistentReads = builder.consistentReads;
+        this.consistentReaders = builder.consistentReaders;
+        this.priorityWeights = builder.schedulingPolicy == SchedulingPolicy.FIFO ? new int[]{1} : builder.priorityWeights.clone();
+    }
+
+    public int getNumberOfThreads() {
+        return numberOfThreads;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public boolean isSharded() {
+        return sharded;
+    }
+
+    public int getRingBufferSize() {
+        return ringBufferSize;
+    }
+
+    public boolean isRingBufferIngestion() {
+        return ringBufferSize > 0;
+    }
+
+    /**
+     * @return the strategy processing threads wait through, null when none was set: ring buffer consumers then block
+     * on a BlockingWaitStrategy of their own and queue workers park on the queue's condition
+     */
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    /**
+     * @return null unless one was set
+     */
+    public Supplier<? extends WaitStrategy> getReaderWaitStrategies() {
+        return readerWaitStrategies;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public int getTraceCapacity() {
+        return traceCapacity;
+    }
+
+    public boolean isTracing() {
+        return traceCapacity > 0;
+    }
+
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    public int getMaxEntitiesInFlight() {
+        return maxEntitiesInFlight;
+    }
+
+    public boolean isBounded() {
+        return maxEntitiesInFlight > 0;
+    }
+
+    public OverloadPolicy getOverloadPolicy() {
+        return overloadPolicy;
+    }
+
+    public OverloadListener getOverloadListener() {
+        return overloadListener;
+    }
+
+    public SchedulingPolicy getSchedulingPolicy() {
+        return schedulingPolicy;
+    }
+
+    public int[] getPriorityWeights() {
+        return priorityWeights.clone();
+    }
+
+    public int getNumberOfPriorityClasses() {
+        return priorityWeights.length;
+    }
+
+    public boolean isAdaptiveThreads() {
+        return maxThreads > 0;
+    }
+
+    public int getMinThreads() {
+        return minThreads;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public long getPoolSizingIntervalMillis() {
+        return poolSizingIntervalMillis;
+    }
+
+    /**
+     * @return null unless journaling is enabled
+     */
+    public Path getJournalDirectory() {
+        return journalDirectory;
+    }
+
+    public int getJournalSegmentSize() {
+        return journalSegmentSize;
+    }
+
+    public boolean isJournaling() {
+        return journalDirectory != null;
+    }
+
+    /**
+     * @return null unless snapshots are enabled
+     */
+    public Path getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    public long getSnapshotIntervalMillis() {
+        return snapshotIntervalMillis;
+    }
+
+    public int getHistoryCapacity() {
+        return historyCapacity;
+    }
+
+    public boolean isHistoryEnabled() {
+        return historyCapacity > 0;
+    }
+
+    public boolean isConsistentReads() {
+        return consistentReads;
+    }
+
+    public int getConsistentReaders() {
+        return consistentReaders;
+    }
+
+    public static class Builder {
+        private int numberOfThreads = 4;
+        private int batchSize = 1;
+        private boolean sharded;
+        private int ringBufferSize;
+        private WaitStrategy waitStrategy;
+        private Supplier<? extends WaitStrategy> readerWaitStrategies;
+        private boolean virtualThreads;
+        private int traceCapacity;
+        private boolean metricsEnabled;
+        private int maxEntitiesInFlight;
+        private OverloadPolicy overloadPolicy = OverloadPolicy.BLOCK;
+        private OverloadListener overloadListener;
+        private SchedulingPolicy schedulingPolicy = SchedulingPolicy.FIFO;
+        private int[] priorityWeights = {1};
+        private int minThreads;
+        private int maxThreads;
+        private long poolSizingIntervalMillis = 100;
+        private Path journalDirectory;
+        private int journalSegmentSize = PriceJournal.DEFAULT_SEGMENT_SIZE;
+        private Path snapshotFile;
+        private long snapshotIntervalMillis;
+        private int historyCapacity;
+        private boolean consistentReads;
+        private int consistentReaders = PriceEpochs.DEFAULT_READER_SLOTS;
+
+        public Builder setNumberOfThreads(int numberOfThreads) {
+            this.numberOfThreads = numberOfThreads;
+            return this;
+        }
+
+        /**
+         * Maximum number of entities handed to a BatchPriceProcessor in one invocation, ignored for a PriceProcessor.
+         */
+        public Builder setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Gives every processing thread its own queue and always queues an entity to the same thread, so processing
+         * threads never contend with each other and an entity's state stays in one core's cache.
+         */
+        public Builder setSharded(boolean sharded) {
+            this.sharded = sharded;
+            return this;
+        }
+
+        /**
+         * Ingests prices through a pre-allocated ring buffer of the given size (a power of 2) instead of the entity
+         * queue. Every processing thread reads the whole ring, conflates the prices of its share of the entities and
+         * processes them, so puts never allocate a queue node nor touch a lock. Requires a PriceProcessor. A put to a
+         * full ring waits for the processing threads, or throws IllegalStateException once processing is stopped.
+         */
+        public Builder setRingBufferSize(int ringBufferSize) {
+            this.ringBufferSize = ringBufferSize;
+            return this;
+        }
+
+        /**
+         * How processing threads wait for new prices, whether from the ring buffer or the entity queue. By default
+         * ring buffer consumers block on a BlockingWaitStrategy and queue workers park on the queue's condition, which
+         * wakes one worker per entity queued. Threads waiting through a strategy are all signalled on every put.
+         */
+        public Builder setWaitStrategy(WaitStrategy waitStrategy) {
+            this.waitStrategy = waitStrategy;
+            return this;
+        }
+
+        /**
+         * How waitForNextPrice callers wait for a new price. Every entity gets its own strategy from
+         * {@code readerWaitStrategies}, so publishing a price only signals the readers of that entity. By default
+         * readers park on the entity's lock. Timed waits are covered too, waitForAnyPrice is not.
+         */
+        public Builder setReaderWaitStrategy(Supplier<? extends WaitStrategy> readerWaitStrategies) {
+            this.readerWaitStrategies = readerWaitStrategies;
+            return this;
+        }
+
+        /**
+         * Runs the processing workers on virtual threads. Waiting in the price holder never pins a carrier thread, so
+         * callers may also block in waitForNextPrice from as many virtual threads as they like. Avoid the busy spin
+         * wait strategy here, a spinning virtual thread holds its carrier.
+         */
+        public Builder setVirtualThreads(boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        /**
+         * Keeps the last {@code traceCapacity} (a power of 2) hot path events in a binary trace that
+         * PriceHolder.dumpTrace() formats on demand. Tracing is off by default and then costs a null check.
+         */
+        public Builder setTraceCapacity(int traceCapacity) {
+            this.traceCapacity = traceCapacity;
+            return this;
+        }
+
+        /**
+         * Records counters and latency histograms readable through PriceHolder.getMetricsSnapshot() and JMX.
+         */
+        public Builder setMetricsEnabled(boolean metricsEnabled) {
+            this.metricsEnabled = metricsEnabled;
+            return this;
+        }
+
+        /**
+         * Bounds the number of entities queued or in processing; what happens to a price beyond the bound is decided
+         * by the overload policy. Unbounded by default. Not supported with ring buffer ingestion, which is bounded by
+         * the size of the ring.
+         */
+        public Builder setMaxEntitiesInFlight(int maxEntitiesInFlight) {
+            this.maxEntitiesInFlight = maxEntitiesInFlight;
+            return this;
+        }
+
+        public Builder setOverloadPolicy(OverloadPolicy overloadPolicy) {
+            this.overloadPolicy = overloadPolicy;
+            return this;
+        }
+
+        public Builder setOverloadListener(OverloadListener overloadListener) {
+            this.overloadListener = overloadListener;
+            return this;
+        }
+
+        /**
+         * Serves queued entities by priority class instead of in arrival order. Not supported with ring buffer
+         * ingestion, whose processing threads do not take entities from a queue.
+         */
+        public Builder setSchedulingPolicy(SchedulingPolicy schedulingPolicy) {
+            this.schedulingPolicy = schedulingPolicy;
+            return this;
+        }
+
+        /**
+         * One weight per priority class, from the lowest class 0 up; an entity's class is its priority. Strict
+         * priority scheduling only uses the number of classes.
+         */
+        public Builder setPriorityWeights(int... priorityWeights) {
+            this.priorityWeights = priorityWeights;
+            return this;
+        }
+
+        /**
+         * Replaces the fixed number of processing threads with a pool that starts with {@code minThreads} and grows
+         * up to {@code maxThreads} while the queue backs up, shrinking again once it drains. Requires a
+         * PriceProcessor and a single, unsharded queue.
+         */
+        public Builder setAdaptiveThreads(int minThreads, int maxThreads) {
+            this.minThreads = minThreads;
+            this.maxThreads = maxThreads;
+            return this;
+        }
+
+        /**
+         * How often the adaptive pool samples queue depth and processing time, 100 ms by default.
+         */
+        public Builder setPoolSizingIntervalMillis(long poolSizingIntervalMillis) {
+            this.poolSizingIntervalMillis = poolSizingIntervalMillis;
+            return this;
+        }
+
+        /**
+         * Journals every price received and processed to memory-mapped segment files in {@code journalDirectory},
+         * which PriceJournal.read() reads back. Records are written by the putting and processing threads
+         * themselves, which adds roughly 60 ns to a put; close the PriceHolder to release the journal. Off by default.
+         */
+        public Builder setJournalDirectory(Path journalDirectory) {
+            this.journalDirectory = journalDirectory;
+            return this;
+        }
+
+        /**
+         * Bytes per journal segment file, a power of 2, 64 MB by default.
+         */
+        public Builder setJournalSegmentSize(int journalSegmentSize) {
+            this.journalSegmentSize = journalSegmentSize;
+            return this;
+        }
+
+        /**
+         * Restores the entity table from {@code snapshotFile} on construction when the file exists and writes it
+         * again when processing stops, and periodically with a snapshot interval. Off by default.
+         */
+        public Builder setSnapshotFile(Path snapshotFile) {
+            this.snapshotFile = snapshotFile;
+            return this;
+        }
+
+        /**
+         * How often the snapshot file is rewritten in the background, never by default.
+         */
+        public Builder setSnapshotIntervalMillis(long snapshotIntervalMillis) {
+            this.snapshotIntervalMillis = snapshotIntervalMillis;
+            return this;
+        }
+
+        /**
+         * Keeps the last {@code historyCapacity} (a power of 2) processed prices of every entity with their
+         * timestamps, queried through PriceHolder.getHistory() and getLastPrices(). An entity's history takes 20
+         * bytes per price and is allocated with its first price. Off by default.
+         */
+        public Builder setHistoryCapacity(int historyCapacity) {
+            this.historyCapacity = historyCapacity;
+            return this;
+        }
+
+        /**
+         * Versions every published price so PriceHolder.getPrices() and snapshotAll() can read many entities as of
+         * one moment. Costs every published price a version object and an increment of a shared clock. Off by default.
+         */
+        public Builder setConsistentReads(boolean consistentReads) {
+            this.consistentReads = consistentReads;
+            return this;
+        }
+
+        /**
+         * Number of consistent reads that can run at once, 64 by default. A read beyond them blocks until one ends;
+         * every writer scans one slot per reader when publishing a price while any read runs.
+         */
+        public Builder setConsistentReaders(int consistentReaders) {
+            this.consistentReaders = consistentReaders;
+            return this;
+        }
+
+        public PriceHolderConfiguration build() {
+            if (numberOfThreads < 1)
+                throw new IllegalArgumentException(String.format("Number of threads: %d is not positive", numberOfThreads));
+            if (batchSize < 1)
+                throw new IllegalArgumentException(String.format("Batch size: %d is not positive", batchSize));
+            if (ringBufferSize < 0 || (ringBufferSize > 0 && Integer.bitCount(ringBufferSize) != 1))
+                throw new IllegalArgumentException(String.format("Ring buffer size: %d is not a power of 2", ringBufferSize));
+            if (traceCapacity < 0 || (traceCapacity > 0 && Integer.bitCount(traceCapacity) != 1))
+                throw new IllegalArgumentException(String.format("Trace capacity: %d is not a power of 2", traceCapacity));
+            if (maxEntitiesInFlight < 0)
+                throw new IllegalArgumentException(String.format("Max entities in flight: %d is negative", maxEntitiesInFlight));
+            if (overloadPolicy == null)
+                throw new IllegalArgumentException("Overload policy provided is null");
+            if (maxEntitiesInFlight > 0 && ringBufferSize > 0)
+                throw new IllegalArgumentException("Ring buffer ingestion cannot be combined with max entities in flight");
+            if (schedulingPolicy == null)
+                throw new IllegalArgumentException("Scheduling policy provided is null");
+            if (schedulingPolicy != SchedulingPolicy.FIFO)
+                validatePriorityScheduling();
+            if (maxThreads > 0)
+                validateAdaptiveThreads();
+            if (journalDirectory != null && (Integer.bitCount(journalSegmentSize) != 1 || journalSegmentSize < PriceJournal.MIN_SEGMENT_SIZE))
+                throw new IllegalArgumentException(String.format("Journal segment size: %d is not a power of 2 of at least %d", journalSegmentSize, PriceJournal.MIN_SEGMENT_SIZE));
+            if (historyCapacity < 0 || (historyCapacity > 0 && Integer.bitCount(historyCapacity) != 1))
+                throw new IllegalArgumentException(String.format("History capacity: %d is not a power of 2", historyCapacity));
+            if (snapshotIntervalMillis < 0)
+                throw new IllegalArgumentException(String.format("Snapshot interval: %d ms is negative", snapshotIntervalMillis));
+            if (snapshotIntervalMillis > 0 && snapshotFile == null)
+                throw new IllegalArgumentException("Snapshot interval requires a snapshot file");
+            if (consistentReaders < 1)
+                throw new IllegalArgumentException(String.format("Consistent readers: %d is not positive", consistentReaders));
+
+            return new PriceHolderConfiguration(this);
+        }
+
+        private void validateAdaptiveThreads() {
+            if (minThreads < 1 || maxThreads < minThreads)
+                throw new IllegalArgumentException(String.format("Adaptive threads: %d to %d is not a range of positive sizes", minThreads, maxThreads));
+            if (poolSizingIntervalMillis < 1)
+                throw new IllegalArgumentException(String.format("Pool sizing interval: %d ms is not positive", poolSizingIntervalMillis));
+            if (ringBufferSize > 0)
+                throw new IllegalArgumentException("Ring buffer ingestion cannot be combined with adaptive threads");
+            if (sharded)
+                throw new IllegalArgumentException("Sharded queues cannot be combined with adaptive threads");
+        }
+
+        private void validatePriorityScheduling() {
+            if (ringBufferSize > 0)
+                throw new IllegalArgumentException("Ring buffer ingestion cannot be combined with priority scheduling");
+            if (priorityWeights == null || priorityWeights.length < 2)
+                throw new IllegalArgumentException("Priority scheduling needs weights for at least 2 priority classes");
+
+            for (int weight : priorityWeights) {
+                if (weight < 1)
+                    throw new IllegalArgumentException(String.format("Priority weight: %d is not positive", weight));
+            }
+        }
+    }
+}
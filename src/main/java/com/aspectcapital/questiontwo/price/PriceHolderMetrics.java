@@ -0,0 +1,152 @@
+package com.aspectcapital.questiontwo.price;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters are striped {@link LongAdder}s and latencies go to HdrHistogram {@link Recorder}s, so recording never
+ * contends between processing threads. A read swaps out the interval histograms and merges them into cumulative ones
+ * under the monitor; only readers take it.
+ */
+public class PriceHolderMetrics implements PriceHolderMetricsMXBean {
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final LongAdder pricesPut = new LongAdder();
+    private final LongAdder pricesPutWhileInProcessing = new LongAdder();
+    private final LongAdder pricesProcessed = new LongAdder();
+    private final LongAdder requeues = new LongAdder();
+    private final LongAdder waiters = new LongAdder();
+    private final Recorder processingTimeRecorder = new Recorder(HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+    private final Recorder putToVisibleLatencyRecorder = new Recorder(HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+    private final Histogram processingTime = new Histogram(HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+    private final Histogram putToVisibleLatency = new Histogram(HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+    private final LongSupplier queueDepth;
+    private Histogram processingTimeInterval;
+    private Histogram putToVisibleLatencyInterval;
+
+    PriceHolderMetrics(LongSupplier queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    void onPut(boolean inProcessing) {
+        pricesPut.increment();
+        if (inProcessing)
+            pricesPutWhileInProcessing.increment();
+    }
+
+    void onPuts(int count) {
+        pricesPut.add(count);
+    }
+
+    void onProcessed(long processingNanos) {
+        pricesProcessed.increment();
+        processingTimeRecorder.recordValue(Math.min(processingNanos, HIGHEST_TRACKABLE_NANOS));
+    }
+
+    void onProcessed(int count, long processingNanos) {
+        pricesProcessed.add(count);
+        processingTimeRecorder.recordValue(Math.min(processingNanos, HIGHEST_TRACKABLE_NANOS));
+    }
+
+    void onVisible(long putToVisibleNanos) {
+        putToVisibleLatencyRecorder.recordValue(Math.min(Math.max(putToVisibleNanos, 0), HIGHEST_TRACKABLE_NANOS));
+    }
+
+    void onRequeue() {
+        requeues.increment();
+    }
+
+    void onWaitStarted() {
+        waiters.increment();
+    }
+
+    void onWaitFinished() {
+        waiters.decrement();
+    }
+
+    public synchronized PriceHolderMetricsSnapshot snapshot() {
+        processingTimeInterval = processingTimeRecorder.getIntervalHistogram(processingTimeInterval);
+        processingTime.add(processingTimeInterval);
+        putToVisibleLatencyInterval = putToVisibleLatencyRecorder.getIntervalHistogram(putToVisibleLatencyInterval);
+        putToVisibleLatency.add(putToVisibleLatencyInterval);
+
+        return new PriceHolderMetricsSnapshot(pricesPut.sum(), pricesPutWhileInProcessing.sum(), pricesProcessed.sum(),
+                requeues.sum(), queueDepth.getAsLong(), waiters.sum(), toLatency(processingTime),
+                toLatency(putToVisibleLatency));
+    }
+
+    private static PriceHolderMetricsSnapshot.Latency toLatency(Histogram histogram) {
+        return new PriceHolderMetricsSnapshot.Latency(histogram.getTotalCount(), histogram.getValueAtPercentile(50),
+                histogram.getValueAtPercentile(99), histogram.getValueAtPercentile(99.9), histogram.getMaxValue());
+    }
+
+    @Override
+    public long getPricesPut() {
+        return pricesPut.sum();
+    }
+
+    @Override
+    public long getPricesPutWhileInProcessing() {
+        return pricesPutWhileInProcessing.sum();
+    }
+
+    @Override
+    public long getPricesProcessed() {
+        return pricesProcessed.sum();
+    }
+
+    @Override
+    public long getRequeues() {
+        return requeues.sum();
+    }
+
+    @Override
+    public double getConflationRatio() {
+        return snapshot().conflationRatio();
+    }
+
+    @Override
+    public long getQueueDepth() {
+        return queueDepth.getAsLong();
+    }
+
+    @Override
+    public long getWaiters() {
+        return waiters.sum();
+    }
+
+    @Override
+    public long getProcessingTimeP50() {
+        return snapshot().processingTime().p50();
+    }
+
+    @Override
+    public long getProcessingTimeP99() {
+        return snapshot().processingTime().p99();
+    }
+
+    @Override
+    public long getProcessingTimeMax() {
+        return snapshot().processingTime().max();
+    }
+
+    @Override
+    public long getPutToVisibleLatencyP50() {
+        return snapshot().putToVisibleLatency().p50();
+    }
+
+    @Override
+    public long getPutToVisibleLatencyP99() {
+        return snapshot().putToVisibleLatency().p99();
+    }
+
+    @Override
+    public long getPutToVisibleLatencyMax() {
+        return snapshot().putToVisibleLatency().max();
+    }
+}
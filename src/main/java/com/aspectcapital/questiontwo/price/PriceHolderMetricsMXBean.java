@@ -0,0 +1,32 @@
+package com.aspectcapital.questiontwo.price;
+
+/**
+ * JMX view of {@link PriceHolderMetrics}; latencies are in nanoseconds and cumulative since the holder was created.
+ */
+public interface PriceHolderMetricsMXBean {
+    long getPricesPut();
+
+    long getPricesPutWhileInProcessing();
+
+    long getPricesProcessed();
+
+    long getRequeues();
+
+    double getConflationRatio();
+
+    long getQueueDepth();
+
+    long getWaiters();
+
+    long getProcessingTimeP50();
+
+    long getProcessingTimeP99();
+
+    long getProcessingTimeMax();
+
+    long getPutToVisibleLatencyP50();
+
+    long getPutToVisibleLatencyP99();
+
+    long getPutToVisibleLatencyMax();
+}
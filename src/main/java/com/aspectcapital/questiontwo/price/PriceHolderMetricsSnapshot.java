@@ -0,0 +1,23 @@
+package com.aspectcapital.questiontwo.price;
+
+/**
+ * Point in time copy of the metrics. Counters are read one after the other, so they are not a consistent cut under
+ * load, e.g. pricesProcessed may include a price put after pricesPut was read.
+ */
+public record PriceHolderMetricsSnapshot(long pricesPut, long pricesPutWhileInProcessing, long pricesProcessed,
+                                         long requeues, long queueDepth, long waiters, Latency processingTime,
+                                         Latency putToVisibleLatency) {
+
+    /**
+     * @return the share of put prices that were never processed because a later price of the entity superseded them
+     */
+    public double conflationRatio() {
+        return pricesPut == 0 ? 0 : Math.max(0, 1 - (double) pricesProcessed / pricesPut);
+    }
+
+    /**
+     * Percentiles in nanoseconds.
+     */
+    public record Latency(long count, long p50, long p99, long p999, long max) {
+    }
+}
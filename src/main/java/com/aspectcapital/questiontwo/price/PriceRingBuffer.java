@@ -0,0 +1,177 @@
+package com.aspectcapital.questiontwo.price;
+
+import com.aspectcapital.questiontwo.price.wait.WaitStrategy;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pre-allocated multi-producer ring of (entity, price) slots. Producers claim sequences with one CAS, fill the slots
+ * in place and mark them available; every consumer reads all slots in sequence order and owns the entities of its
+ * shard. A producer that would overwrite a slot not yet read by every consumer waits for the slowest consumer, unless
+ * the consumers are stopped, in which case nothing would free the slot and the put is rejected.
+ */
+class PriceRingBuffer {
+    private static final long INITIAL_SEQUENCE = -1;
+
+    private final int bufferSize;
+    private final int indexMask;
+    private final int indexShift;
+    private final Entity[] entities;
+    private final BigDecimal[] prices;
+    private final AtomicIntegerArray availableRounds;
+    private final AtomicLong cursor = new AtomicLong(INITIAL_SEQUENCE);
+    private final AtomicLong[] consumerSequences;
+    private final WaitStrategy waitStrategy;
+    private volatile long cachedGatingSequence = INITIAL_SEQUENCE;
+    private volatile boolean stopped;
+
+    PriceRingBuffer(int bufferSize, int numberOfConsumers, WaitStrategy waitStrategy) {
+        if (Integer.bitCount(bufferSize) != 1)
+            throw new IllegalArgumentException(String.format("Ring buffer size: %d is not a power of 2", bufferSize));
+
+        this.bufferSize = bufferSize;
+        this.indexMask = bufferSize - 1;
+        this.indexShift = Integer.numberOfTrailingZeros(bufferSize);
+        this.entities = new Entity[bufferSize];
+        this.prices = new BigDecimal[bufferSize];
+        this.availableRounds = new AtomicIntegerArray(bufferSize);
+        this.consumerSequences = new AtomicLong[numberOfConsumers];
+        this.waitStrategy = waitStrategy;
+
+        for (int i = 0; i < bufferSize; i++) {
+            availableRounds.set(i, -1);
+        }
+
+        for (int i = 0; i < numberOfConsumers; i++) {
+            consumerSequences[i] = new AtomicLong(INITIAL_SEQUENCE);
+        }
+    }
+
+    int getNumberOfConsumers() {
+        return consumerSequences.length;
+    }
+
+    WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    /**
+     * Marks the consumers stopped or running again; while they are stopped, producers of a full ring are rejected
+     * rather than left waiting.
+     */
+    void setStopped(boolean stopped) {
+        this.stopped = stopped;
+        waitStrategy.signalAll();
+    }
+
+    void publish(Entity entity, BigDecimal price) {
+        long sequence = claim(1);
+        write(sequence, entity, price);
+        waitStrategy.signalAll();
+    }
+
+    void publish(Entity[] batchEntities, BigDecimal[] batchPrices) {
+        for (int offset = 0; offset < batchEntities.length; offset += bufferSize) {
+            int count = Math.min(bufferSize, batchEntities.length - offset);
+            long first = claim(count) - count + 1;
+
+            for (int i = 0; i < count; i++) {
+                write(first + i, batchEntities[offset + i], batchPrices[offset + i]);
+            }
+        }
+
+        waitStrategy.signalAll();
+    }
+
+    private void write(long sequence, Entity entity, BigDecimal price) {
+        int index = (int) sequence & indexMask;
+        entities[index] = entity;
+        prices[index] = price;
+        availableRounds.set(index, (int) (sequence >>> indexShift));
+    }
+
+    /**
+     * @return the highest of the {@code count} claimed sequences
+     * @throws IllegalStateException when the ring is full and the consumers are stopped
+     */
+    private long claim(int count) {
+        while (true) {
+            long current = cursor.get();
+            long next = current + count;
+            long wrapPoint = next - bufferSize;
+
+            if (wrapPoint > cachedGatingSequence) {
+                long gatingSequence = getMinimumConsumerSequence();
+                cachedGatingSequence = gatingSequence;
+
+                if (wrapPoint > gatingSequence) {
+                    if (stopped)
+                        throw new IllegalStateException("Ring buffer is full and processing is stopped");
+                    waitStrategy.signalAll();
+                    LockSupport.parkNanos(1);
+                    continue;
+                }
+            }
+
+            if (cursor.compareAndSet(current, next))
+                return next;
+        }
+    }
+
+    private long getMinimumConsumerSequence() {
+        long minimum = Long.MAX_VALUE;
+
+        for (AtomicLong sequence : consumerSequences) {
+            minimum = Math.min(minimum, sequence.get());
+        }
+
+        return minimum;
+    }
+
+    /**
+     * @return the number of published slots the slowest consumer has not read yet
+     */
+    long getBacklog() {
+        return cursor.get() - getMinimumConsumerSequence();
+    }
+
+    boolean isAvailable(long sequence) {
+        return availableRounds.get((int) sequence & indexMask) == (int) (sequence >>> indexShift);
+    }
+
+    /**
+     * @return the highest sequence from {@code from} on such that every sequence up to it is available
+     */
+    long getHighestAvailableSequence(long from) {
+        long highest = from - 1;
+        long published = cursor.get();
+
+        for (long sequence = from; sequence <= published && isAvailable(sequence); sequence++) {
+            highest = sequence;
+        }
+
+        return highest;
+    }
+
+    Entity getEntity(long sequence) {
+        return entities[(int) sequence & indexMask];
+    }
+
+    BigDecimal getPrice(long sequence) {
+        return prices[(int) sequence & indexMask];
+    }
+
+    long getConsumerSequence(int consumer) {
+        return consumerSequences[consumer].get();
+    }
+
+    /**
+     * Releases every slot up to {@code sequence} on behalf of the consumer.
+     */
+    void setConsumerSequence(int consumer, long sequence) {
+        consumerSequences[consumer].set(sequence);
+    }
+}
@@ -0,0 +1,90 @@
+package com.aspectcapital.questiontwo.price;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Timestamped prices copied out of an entity's history, oldest first, in primitive arrays. A series can be reused
+ * across queries to avoid allocating; prices are only turned into BigDecimals by {@link #getPrice(int)}.
+ */
+public class PriceSeries {
+    static final int APPROXIMATE_SCALE = Integer.MIN_VALUE;
+
+    private long[] timestampNanos;
+    private long[] unscaledPrices;
+    private int[] scales;
+    private int size;
+
+    public PriceSeries() {
+        this(16);
+    }
+
+    public PriceSeries(int capacity) {
+        this.timestampNanos = new long[capacity];
+        this.unscaledPrices = new long[capacity];
+        this.scales = new int[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return when the price was published, in nanoseconds since the epoch
+     */
+    public long getTimestampNanos(int index) {
+        checkIndex(index);
+
+        return timestampNanos[index];
+    }
+
+    public BigDecimal getPrice(int index) {
+        checkIndex(index);
+
+        if (scales[index] == APPROXIMATE_SCALE)
+            return BigDecimal.valueOf(Double.longBitsToDouble(unscaledPrices[index]));
+
+        return BigDecimal.valueOf(unscaledPrices[index], scales[index]);
+    }
+
+    /**
+     * @return the price without allocating, rounded to the nearest double
+     */
+    public double getPriceAsDouble(int index) {
+        checkIndex(index);
+
+        if (scales[index] == APPROXIMATE_SCALE)
+            return Double.longBitsToDouble(unscaledPrices[index]);
+
+        return scales[index] >= 0
+                ? unscaledPrices[index] / Math.pow(10, scales[index])
+                : unscaledPrices[index] * Math.pow(10, -scales[index]);
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    void add(long timestampNanos, long unscaledPrice, int scale) {
+        if (size == this.timestampNanos.length) {
+            int capacity = Math.max(16, size * 2);
+            this.timestampNanos = Arrays.copyOf(this.timestampNanos, capacity);
+            this.unscaledPrices = Arrays.copyOf(this.unscaledPrices, capacity);
+            this.scales = Arrays.copyOf(this.scales, capacity);
+        }
+
+        this.timestampNanos[size] = timestampNanos;
+        this.unscaledPrices[size] = unscaledPrice;
+        this.scales[size] = scale;
+        size++;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException(String.format("Index: %d is not below size: %d", index, size));
+    }
+}
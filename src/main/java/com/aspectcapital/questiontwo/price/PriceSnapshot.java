@@ -0,0 +1,60 @@
+package com.aspectcapital.questiontwo.price;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Prices of all entities as of one moment, indexed by entity id. Entities without a price at that moment have a null
+ * price.
+ */
+public class PriceSnapshot {
+    private final long epoch;
+    private final String[] entityNames;
+    private final BigDecimal[] prices;
+
+    PriceSnapshot(long epoch, String[] entityNames, BigDecimal[] prices) {
+        this.epoch = epoch;
+        this.entityNames = entityNames;
+        this.prices = prices;
+    }
+
+    /**
+     * @return the moment of the snapshot; a snapshot with a greater epoch was taken later
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public int size() {
+        return prices.length;
+    }
+
+    public String getEntityName(int entityId) {
+        checkEntityId(entityId);
+
+        return entityNames[entityId];
+    }
+
+    public BigDecimal getPrice(int entityId) {
+        checkEntityId(entityId);
+
+        return prices[entityId];
+    }
+
+    /**
+     * @return the prices by entity name, in entity id order
+     */
+    public Map<String, BigDecimal> toMap() {
+        Map<String, BigDecimal> map = new LinkedHashMap<>(prices.length * 4 / 3 + 1);
+        for (int i = 0; i < prices.length; i++)
+            map.put(entityNames[i], prices[i]);
+
+        return map;
+    }
+
+    private void checkEntityId(int entityId) {
+        if (entityId < 0 || entityId >= prices.length)
+            throw new IndexOutOfBoundsException(String.format("Entity id: %d is not below size: %d", entityId, prices.length));
+    }
+}
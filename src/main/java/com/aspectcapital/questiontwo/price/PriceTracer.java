@@ -0,0 +1,60 @@
+package com.aspectcapital.questiontwo.price;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Binary ring of the last hot path events, four longs per event: time, event and entity id, a value (a version or a
+ * count) and the thread id. Tracing an event claims a slot and writes primitives, nothing is formatted nor allocated
+ * until {@link #dump()}. Writers do not wait for each other, so an event overwritten while being dumped may show up
+ * torn.
+ */
+class PriceTracer {
+    enum Event {
+        RECEIVED, RECEIVED_BATCH, QUEUED, QUEUED_BATCH, TOOK, TOOK_BATCH, PROCESSED, PROCESSED_BATCH, REQUEUED,
+        GET_PRICE, HAS_PRICE_CHANGED, WAIT_FOR_NEXT_PRICE, WAIT_FOR_ANY_PRICE, DROPPED, SHED
+    }
+
+    static final int NO_ENTITY = -1;
+
+    private static final int FIELDS = 4;
+    private static final Event[] EVENTS = Event.values();
+
+    private final int capacity;
+    private final long[] events;
+    private final AtomicLong next = new AtomicLong();
+
+    PriceTracer(int capacity) {
+        if (Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException(String.format("Trace capacity: %d is not a power of 2", capacity));
+
+        this.capacity = capacity;
+        this.events = new long[capacity * FIELDS];
+    }
+
+    void trace(Event event, int entityId, long value) {
+        int offset = (int) (next.getAndIncrement() & (capacity - 1)) * FIELDS;
+
+        events[offset] = System.nanoTime();
+        events[offset + 1] = ((long) event.ordinal() << 32) | (entityId & 0xFFFFFFFFL);
+        events[offset + 2] = value;
+        events[offset + 3] = Thread.currentThread().threadId();
+    }
+
+    /**
+     * @return the retained events, oldest first, one per line
+     */
+    String dump() {
+        long last = next.get();
+        StringBuilder dump = new StringBuilder();
+
+        for (long sequence = Math.max(0, last - capacity); sequence < last; sequence++) {
+            int offset = (int) (sequence & (capacity - 1)) * FIELDS;
+            long eventAndEntity = events[offset + 1];
+
+            dump.append(String.format("%d %s entityId=%d value=%d thread=%d%n", events[offset],
+                    EVENTS[(int) (eventAndEntity >>> 32)], (int) eventAndEntity, events[offset + 2], events[offset + 3]));
+        }
+
+        return dump.toString();
+    }
+}
@@ -0,0 +1,38 @@
+package com.aspectcapital.questiontwo.price;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One parked reader waiting for any of several entities. It is registered with every entity it watches, so a new
+ * price unparks exactly the readers interested in it without a lock or a condition per entity.
+ */
+class PriceWaiter {
+    private final Thread thread = Thread.currentThread();
+    private volatile boolean signalled;
+
+    void signal() {
+        signalled = true;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Parks until signalled or until {@code deadlineNanos}, clearing the signal on return.
+     *
+     * @return false when the deadline passed without a signal
+     */
+    boolean await(long deadlineNanos) throws InterruptedException {
+        while (!signalled) {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+
+            long remaining = deadlineNanos - System.nanoTime();
+            if (remaining <= 0)
+                return false;
+
+            LockSupport.parkNanos(this, remaining);
+        }
+
+        signalled = false;
+        return true;
+    }
+}
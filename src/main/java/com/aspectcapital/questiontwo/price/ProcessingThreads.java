@@ -0,0 +1,96 @@
+package com.aspectcapital.questiontwo.price;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed pool of daemon threads repeating one processing step while started, the processing lifecycle of the
+ * fixed-point price holders. A step that throws is logged and the thread carries on with the next one.
+ */
+class ProcessingThreads {
+    private static final Logger logger = Logger.getLogger(ProcessingThreads.class);
+    private static final long TERMINATION_TIMEOUT_MILLIS = 100;
+
+    private final String threadNameFormat;
+    private final int numberOfThreads;
+    private final Step step;
+    private final ReentrantLock lifecycleLock = new ReentrantLock();
+    private ExecutorService executorService;
+    private volatile boolean isRunning;
+
+    /**
+     * Takes the next piece of work, blocking until there is one, and processes it.
+     */
+    interface Step {
+        void processNext() throws InterruptedException;
+    }
+
+    ProcessingThreads(String threadNameFormat, int numberOfThreads, Step step) {
+        this.threadNameFormat = threadNameFormat;
+        this.numberOfThreads = numberOfThreads;
+        this.step = step;
+    }
+
+    void start() {
+        lifecycleLock.lock();
+        try {
+            if (!isRunning) {
+                executorService = Executors.newFixedThreadPool(numberOfThreads, new ThreadFactoryBuilder()
+                        .setNameFormat(threadNameFormat).setDaemon(true).build());
+                isRunning = true;
+
+                for (int i = 0; i < numberOfThreads; i++) {
+                    executorService.execute(this::run);
+                }
+            }
+        } finally {
+            lifecycleLock.unlock();
+        }
+    }
+
+    /**
+     * Interrupts the threads and waits briefly for them to finish the step in progress.
+     */
+    void stop() {
+        lifecycleLock.lock();
+        try {
+            if (isRunning) {
+                isRunning = false;
+                executorService.shutdownNow();
+
+                try {
+                    if (!executorService.awaitTermination(TERMINATION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+                        logger.warn(String.format("Processing threads did not stop within %d ms", TERMINATION_TIMEOUT_MILLIS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                logger.debug("[STOPPED] Processing prices stopped");
+            }
+        } finally {
+            lifecycleLock.unlock();
+        }
+    }
+
+    boolean isRunning() {
+        return isRunning;
+    }
+
+    private void run() {
+        while (isRunning) {
+            try {
+                step.processNext();
+            } catch (InterruptedException e) {
+                if (isRunning)
+                    logger.warn(e);
+            } catch (Exception e) {
+                logger.warn(e);
+            }
+        }
+    }
+}
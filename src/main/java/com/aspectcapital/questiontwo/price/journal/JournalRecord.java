@@ -0,0 +1,31 @@
+package com.aspectcapital.questiontwo.price.journal;
+
+import java.math.BigDecimal;
+
+/**
+ * One record read back from a {@link PriceJournal}. {@code timestampNanos} is nanoseconds since the epoch, taken from
+ * a monotonic clock anchored to the wall clock when the journal was opened.
+ *
+ * @param approximate true when the price did not fit the record's 64 bit mantissa and was journaled as a double
+ */
+public record JournalRecord(long timestampNanos, Type type, int entityId, BigDecimal price, boolean approximate) {
+
+    public enum Type {
+        RECEIVED(1), PROCESSED(2);
+
+        final byte code;
+
+        Type(int code) {
+            this.code = (byte) code;
+        }
+
+        static Type of(byte code) {
+            for (Type type : values()) {
+                if (type.code == code)
+                    return type;
+            }
+
+            throw new IllegalArgumentException(String.format("Unknown journal record type: %d", code));
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package com.aspectcapital.questiontwo.price.journal;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Append-only journal of fixed-size binary records in memory-mapped segment files. A writer claims a record with one
+ * atomic increment and fills it in place, so appending is a handful of memory writes with neither a lock, a syscall
+ * nor an allocation; the page cache carries the data to disk. A background thread maps and pre-touches the next
+ * segment before the writers get there and forces every segment it retires, so writers only map a segment themselves
+ * when a burst outruns it. A record's flags and type are published last with a release store, so a record whose type
+ * byte is still 0 was never finished; reading skips it.
+ * <p>
+ * Entity names are appended to a separate file when an entity is registered, which is rare and may take a syscall.
+ */
+public class PriceJournal implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(PriceJournal.class);
+
+    public static final int RECORD_SIZE = 32;
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final int MIN_SEGMENT_SIZE = 4096;
+
+    private static final int TIMESTAMP_OFFSET = 0;
+    private static final int MANTISSA_OFFSET = 8;
+    private static final int ENTITY_ID_OFFSET = 16;
+    private static final int SCALE_OFFSET = 20;
+    private static final int FLAGS_OFFSET = 24;
+    private static final int TYPE_OFFSET = 25;
+    private static final VarHandle HEADER = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final byte APPROXIMATE = 1;
+    private static final byte NO_PRICE = 2;
+
+    private static final int MAPPED_SEGMENTS = 4;
+    private static final int PAGE_SIZE = 4096;
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final String ENTITIES_FILE = "entities";
+    private static final int ENTITIES_BUFFER_SIZE = 64 * 1024;
+    private static final long PREPARER_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int recordsShift;
+    private final long recordsMask;
+    private final AtomicLong sequence;
+    private final AtomicReferenceArray<Segment> segments = new AtomicReferenceArray<>(MAPPED_SEGMENTS);
+    private final FileChannel entities;
+    private final long epochNanosAtStart = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    private final long nanoTimeAtStart = System.nanoTime();
+    private final Thread preparer;
+    private volatile long segmentToPrepare;
+    private volatile boolean closed;
+
+    public PriceJournal(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens the journal in {@code directory}, appending from a new segment after any segments already there.
+     *
+     * @param segmentSize bytes per segment file, a power of 2 of at least a page
+     */
+    public PriceJournal(Path directory, int segmentSize) throws IOException {
+        if (Integer.bitCount(segmentSize) != 1 || segmentSize < MIN_SEGMENT_SIZE)
+            throw new IllegalArgumentException(String.format("Segment size: %d is not a power of 2 of at least %d", segmentSize, MIN_SEGMENT_SIZE));
+
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.recordsShift = Integer.numberOfTrailingZeros(segmentSize / RECORD_SIZE);
+        this.recordsMask = (segmentSize / RECORD_SIZE) - 1;
+        this.entities = FileChannel.open(directory.resolve(ENTITIES_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+        long firstSegment = lastSegmentIndex(directory) + 1;
+        this.sequence = new AtomicLong(firstSegment << recordsShift);
+
+        segmentFor(firstSegment, true);
+        this.segmentToPrepare = firstSegment + 1;
+        this.preparer = new Thread(this::prepareSegments, "price-journal-preparer");
+        this.preparer.setDaemon(true);
+        this.preparer.start();
+    }
+
+    /**
+     * @throws IllegalStateException when the journal was closed
+     */
+    public void append(JournalRecord.Type type, int entityId, BigDecimal price) {
+        if (closed)
+            throw new IllegalStateException("Journal is closed");
+
+        long sequence = this.sequence.getAndIncrement();
+        long index = sequence >>> recordsShift;
+        Segment segment = segments.get((int) (index % MAPPED_SEGMENTS));
+
+        if (segment == null || segment.index != index)
+            segment = segmentFor(index, false);
+
+        long record = sequence & recordsMask;
+        if (record == 0) {
+            segmentToPrepare = index + 1;
+            LockSupport.unpark(preparer);
+        }
+
+        write(segment.buffer, (int) (record * RECORD_SIZE), type, entityId, price);
+    }
+
+    /**
+     * Flags and type share the int at {@code FLAGS_OFFSET}, which is written last with a release store.
+     */
+    private void write(ByteBuffer buffer, int offset, JournalRecord.Type type, int entityId, BigDecimal price) {
+        byte flags = 0;
+
+        if (price == null) {
+            flags = NO_PRICE;
+        } else if (price.unscaledValue().bitLength() < Long.SIZE) {
+            buffer.putLong(offset + MANTISSA_OFFSET, price.unscaledValue().longValue());
+            buffer.putInt(offset + SCALE_OFFSET, price.scale());
+        } else {
+            buffer.putLong(offset + MANTISSA_OFFSET, Double.doubleToRawLongBits(price.doubleValue()));
+            flags = APPROXIMATE;
+        }
+
+        buffer.putLong(offset + TIMESTAMP_OFFSET, epochNanosAtStart + (System.nanoTime() - nanoTimeAtStart));
+        buffer.putInt(offset + ENTITY_ID_OFFSET, entityId);
+        HEADER.setRelease(buffer, offset + FLAGS_OFFSET, (flags & 0xFF) << 24 | (type.code & 0xFF) << 16);
+    }
+
+    /**
+     * Records the name of a newly registered entity.
+     */
+    public void appendEntity(int entityId, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(Integer.BYTES * 2 + bytes.length);
+        record.putInt(entityId).putInt(bytes.length).put(bytes);
+
+        synchronized (entities) {
+            try {
+                writeEntities(record);
+            } catch (IOException e) {
+                logger.warn(String.format("Cannot journal entity: \"%s\"", name), e);
+            }
+        }
+    }
+
+    /**
+     * Records the names of entities registered all at once, such as the ones restored from a snapshot, in a few
+     * large writes.
+     *
+     * @param names the entity names by id
+     */
+    public void appendEntities(String[] names) {
+        ByteBuffer records = ByteBuffer.allocate(ENTITIES_BUFFER_SIZE);
+
+        synchronized (entities) {
+            try {
+                for (int id = 0; id < names.length; id++) {
+                    byte[] bytes = names[id].getBytes(StandardCharsets.UTF_8);
+
+                    if (records.remaining() < Integer.BYTES * 2 + bytes.length) {
+                        writeEntities(records);
+                        if (records.capacity() < Integer.BYTES * 2 + bytes.length)
+                            records = ByteBuffer.allocate(Integer.BYTES * 2 + bytes.length);
+                    }
+                    records.putInt(id).putInt(bytes.length).put(bytes);
+                }
+                writeEntities(records);
+            } catch (IOException e) {
+                logger.warn(String.format("Cannot journal %d entities", names.length), e);
+            }
+        }
+    }
+
+    private void writeEntities(ByteBuffer records) throws IOException {
+        records.flip();
+        while (records.hasRemaining()) {
+            entities.write(records);
+        }
+        records.clear();
+    }
+
+    private synchronized Segment segmentFor(long index, boolean preTouch) {
+        int slot = (int) (index % MAPPED_SEGMENTS);
+        Segment segment = segments.get(slot);
+
+        if (segment != null && segment.index == index)
+            return segment;
+        if (segment != null && segment.index > index)
+            throw new IllegalStateException(String.format("Journal segment: %d was already retired", index));
+
+        try (FileChannel channel = FileChannel.open(segmentPath(index),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+
+            if (preTouch) {
+                for (int i = 0; i < segmentSize; i += PAGE_SIZE) {
+                    buffer.put(i, (byte) 0);
+                }
+            }
+
+            Segment mapped = new Segment(index, buffer);
+            segments.set(slot, mapped);
+            if (segment != null)
+                segment.buffer.force();
+
+            return mapped;
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("Cannot map journal segment: %s", segmentPath(index)), e);
+        }
+    }
+
+    private void prepareSegments() {
+        while (!closed) {
+            long index = segmentToPrepare;
+            Segment segment = segments.get((int) (index % MAPPED_SEGMENTS));
+
+            if (segment == null || segment.index < index) {
+                try {
+                    segmentFor(index, true);
+                } catch (RuntimeException e) {
+                    logger.warn(e);
+                }
+            }
+
+            LockSupport.parkNanos(PREPARER_PARK_NANOS);
+        }
+    }
+
+    /**
+     * Forces every mapped segment to disk.
+     */
+    public void force() {
+        for (int i = 0; i < MAPPED_SEGMENTS; i++) {
+            Segment segment = segments.get(i);
+
+            if (segment != null)
+                segment.buffer.force();
+        }
+    }
+
+    /**
+     * Forces the journal to disk, stops the preparing thread and drops the mapped segments, which are unmapped once
+     * collected. Appending after closing throws; closing again has no effect.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        LockSupport.unpark(preparer);
+        try {
+            preparer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            force();
+            for (int i = 0; i < MAPPED_SEGMENTS; i++) {
+                segments.set(i, null);
+            }
+        }
+        synchronized (entities) {
+            entities.force(true);
+            entities.close();
+        }
+    }
+
+    private Path segmentPath(long index) {
+        return directory.resolve(String.format("%016d%s", index, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Reads every record of the journal in {@code directory} in the order they were claimed. Records a writer had
+     * claimed but not finished when the journal was closed are skipped.
+     */
+    public static void read(Path directory, Consumer<JournalRecord> consumer) throws IOException {
+        for (Path path : findSegments(directory)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+                for (int offset = 0; offset + RECORD_SIZE <= buffer.capacity(); offset += RECORD_SIZE) {
+                    byte type = buffer.get(offset + TYPE_OFFSET);
+
+                    if (type != 0)
+                        consumer.accept(read(buffer, offset, type));
+                }
+            }
+        }
+    }
+
+    private static JournalRecord read(ByteBuffer buffer, int offset, byte type) {
+        long mantissa = buffer.getLong(offset + MANTISSA_OFFSET);
+        byte flags = buffer.get(offset + FLAGS_OFFSET);
+        boolean approximate = flags == APPROXIMATE;
+        BigDecimal price = flags == NO_PRICE ? null
+                : approximate ? BigDecimal.valueOf(Double.longBitsToDouble(mantissa))
+                : BigDecimal.valueOf(mantissa, buffer.getInt(offset + SCALE_OFFSET));
+
+        return new JournalRecord(buffer.getLong(offset + TIMESTAMP_OFFSET), JournalRecord.Type.of(type),
+                buffer.getInt(offset + ENTITY_ID_OFFSET), price, approximate);
+    }
+
+    /**
+     * @return the names of the entities journaled in {@code directory} by id
+     */
+    public static Map<Integer, String> readEntityNames(Path directory) throws IOException {
+        Map<Integer, String> names = new HashMap<>();
+        Path path = directory.resolve(ENTITIES_FILE);
+
+        if (!Files.exists(path))
+            return names;
+
+        try (InputStream file = Files.newInputStream(path);
+             DataInputStream input = new DataInputStream(new BufferedInputStream(file))) {
+            while (true) {
+                int id;
+                try {
+                    id = input.readInt();
+                } catch (EOFException e) {
+                    return names;
+                }
+
+                byte[] bytes = new byte[input.readInt()];
+                input.readFully(bytes);
+                names.put(id, new String(bytes, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private static List<Path> findSegments(Path directory) throws IOException {
+        List<Path> paths = new ArrayList<>();
+
+        if (!Files.isDirectory(directory))
+            return paths;
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(paths::add);
+        }
+        paths.sort(null);
+
+        return paths;
+    }
+
+    private static long lastSegmentIndex(Path directory) throws IOException {
+        List<Path> paths = findSegments(directory);
+        if (paths.isEmpty())
+            return -1;
+
+        String name = paths.get(paths.size() - 1).getFileName().toString();
+
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static final class Segment {
+        final long index;
+        final MappedByteBuffer buffer;
+
+        Segment(long index, MappedByteBuffer buffer) {
+            this.index = index;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.aspectcapital.questiontwo.price.overload;
+
+/**
+ * Called once when the price holder first finds its bound on entities in flight reached and once when the number of
+ * entities in flight has fallen back to half the bound. Runs on the producer or processing thread causing the
+ * transition, so it has to be quick.
+ */
+public interface OverloadListener {
+    void onOverloaded();
+
+    void onRecovered();
+}
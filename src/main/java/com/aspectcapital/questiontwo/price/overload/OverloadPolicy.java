@@ -0,0 +1,26 @@
+package com.aspectcapital.questiontwo.price.overload;
+
+/**
+ * What putPrice does when an idle entity has a new price but the number of entities in flight, i.e. queued or being
+ * processed, has reached the configured bound. Prices of entities already in flight are always accepted, they only
+ * replace the price waiting for processing.
+ */
+public enum OverloadPolicy {
+    /**
+     * Blocks the producer until a processing thread releases an entity.
+     */
+    BLOCK,
+    /**
+     * Drops the price and counts it.
+     */
+    DROP,
+    /**
+     * Removes the queued entity of the lowest priority, dropping its pending price, to make room for an entity of a
+     * higher priority. Drops the price put when no queued entity has a lower priority.
+     */
+    SHED_LOWEST_PRIORITY,
+    /**
+     * Throws a RejectedExecutionException from putPrice.
+     */
+    FAIL_FAST
+}
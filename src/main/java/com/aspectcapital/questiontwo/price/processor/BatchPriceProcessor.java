@@ -0,0 +1,15 @@
+package com.aspectcapital.questiontwo.price.processor;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Processes the prices of many entities in one invocation, so that setup costs (rate lookups, curve building) are paid
+ * once per batch instead of once per price.
+ */
+public interface BatchPriceProcessor {
+    /**
+     * @return the processed prices, in the order of {@code prices}
+     */
+    List<BigDecimal> process(List<BigDecimal> prices);
+}
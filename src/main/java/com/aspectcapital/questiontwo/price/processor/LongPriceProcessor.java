@@ -0,0 +1,8 @@
+package com.aspectcapital.questiontwo.price.processor;
+
+/**
+ * Fixed-point counterpart of {@link PriceProcessor}: prices are mantissas at the scale the holder was created with.
+ */
+public interface LongPriceProcessor {
+    long process(long mantissa);
+}
@@ -0,0 +1,22 @@
+package com.aspectcapital.questiontwo.price.scheduling;
+
+/**
+ * Order in which processing threads take queued entities. Every entity is queued at most once whatever the policy, so
+ * the conflation guarantee of one price in processing per entity is unchanged.
+ */
+public enum SchedulingPolicy {
+    /**
+     * One queue in arrival order, priorities are ignored.
+     */
+    FIFO,
+    /**
+     * Always takes from the highest priority class that has queued entities; lower classes wait as long as higher ones
+     * are busy.
+     */
+    STRICT_PRIORITY,
+    /**
+     * Serves every class with queued entities in rounds, taking up to its weight of entities per round, highest class
+     * first. A burst on one class cannot delay another by more than one round.
+     */
+    WEIGHTED_FAIR
+}
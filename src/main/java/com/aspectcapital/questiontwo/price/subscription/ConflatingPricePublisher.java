@@ -0,0 +1,29 @@
+package com.aspectcapital.questiontwo.price.subscription;
+
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+
+/**
+ * Publishes processed prices to {@link Flow.Subscriber}s. Every subscription keeps at most one pending update per
+ * entity, so a subscriber that requests slower than prices arrive gets the latest price of each entity instead of
+ * a growing backlog.
+ */
+public class ConflatingPricePublisher implements Flow.Publisher<PriceUpdate> {
+    private final Consumer<PriceListener> subscribe;
+    private final Consumer<PriceListener> unsubscribe;
+
+    public ConflatingPricePublisher(Consumer<PriceListener> subscribe, Consumer<PriceListener> unsubscribe) {
+        this.subscribe = subscribe;
+        this.unsubscribe = unsubscribe;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super PriceUpdate> subscriber) {
+        if (subscriber == null)
+            throw new NullPointerException("Subscriber provided is null");
+
+        ConflatingPriceSubscription subscription = new ConflatingPriceSubscription(subscriber, unsubscribe);
+        subscriber.onSubscribe(subscription);
+        subscribe.accept(subscription);
+    }
+}
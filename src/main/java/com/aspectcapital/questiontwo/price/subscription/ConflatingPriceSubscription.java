@@ -0,0 +1,86 @@
+package com.aspectcapital.questiontwo.price.subscription;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Pending updates are kept per entity id and the ids in the order they became dirty. Whichever thread adds an update
+ * or demand drains; the work-in-progress counter makes sure only one thread calls the subscriber at a time.
+ */
+class ConflatingPriceSubscription implements Flow.Subscription, PriceListener {
+    private final Flow.Subscriber<? super PriceUpdate> subscriber;
+    private final Consumer<PriceListener> unsubscribe;
+    private final Map<Integer, PriceUpdate> pendingUpdates = new ConcurrentHashMap<>();
+    private final Queue<Integer> dirtyEntityIds = new ConcurrentLinkedQueue<>();
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger workInProgress = new AtomicInteger();
+    private volatile boolean cancelled;
+
+    ConflatingPriceSubscription(Flow.Subscriber<? super PriceUpdate> subscriber, Consumer<PriceListener> unsubscribe) {
+        this.subscriber = subscriber;
+        this.unsubscribe = unsubscribe;
+    }
+
+    @Override
+    public void onPrice(PriceUpdate update) {
+        if (cancelled)
+            return;
+
+        if (pendingUpdates.put(update.entityId(), update) == null)
+            dirtyEntityIds.offer(update.entityId());
+
+        drain();
+    }
+
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            cancel();
+            subscriber.onError(new IllegalArgumentException(String.format("Requested: %d is not positive", n)));
+            return;
+        }
+
+        demand.accumulateAndGet(n, (current, requested) -> current + requested < 0 ? Long.MAX_VALUE : current + requested);
+        drain();
+    }
+
+    @Override
+    public void cancel() {
+        if (!cancelled) {
+            cancelled = true;
+            unsubscribe.accept(this);
+        }
+    }
+
+    int getNumberOfPendingUpdates() {
+        return pendingUpdates.size();
+    }
+
+    private void drain() {
+        if (workInProgress.getAndIncrement() != 0)
+            return;
+
+        int missed = 1;
+        do {
+            while (!cancelled && demand.get() > 0) {
+                Integer entityId = dirtyEntityIds.poll();
+                if (entityId == null)
+                    break;
+
+                PriceUpdate update = pendingUpdates.remove(entityId);
+                if (update != null) {
+                    if (demand.get() != Long.MAX_VALUE)
+                        demand.decrementAndGet();
+                    subscriber.onNext(update);
+                }
+            }
+            missed = workInProgress.addAndGet(-missed);
+        } while (missed != 0);
+    }
+}
@@ -0,0 +1,12 @@
+package com.aspectcapital.questiontwo.price.subscription;
+
+/**
+ * Called by a processing thread right after a processed price was published, so it has to be quick and must not
+ * block. Slow consumers should subscribe through a conflating publisher instead.
+ * <p>
+ * The prices of an entity are notified in the order they were published: the entity is not processed again before
+ * its listeners returned.
+ */
+public interface PriceListener {
+    void onPrice(PriceUpdate update);
+}
@@ -0,0 +1,6 @@
+package com.aspectcapital.questiontwo.price.subscription;
+
+import java.math.BigDecimal;
+
+public record PriceUpdate(int entityId, String entityName, BigDecimal price) {
+}
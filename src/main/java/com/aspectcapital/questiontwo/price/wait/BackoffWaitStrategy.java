@@ -0,0 +1,75 @@
+package com.aspectcapital.questiontwo.price.wait;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Spins, then yields the core, then parks like {@link BlockingWaitStrategy}. A price arriving within the spin or yield
+ * phase is picked up without an OS wake up, while a thread left without work for longer stops burning its core.
+ * Publishers pay for the signal only while a thread is parked.
+ */
+public class BackoffWaitStrategy implements WaitStrategy {
+    private static final int DEFAULT_SPIN_TRIES = 1000;
+    private static final int DEFAULT_YIELD_TRIES = 100;
+
+    private final int spinTries;
+    private final int yieldTries;
+    private final BlockingWaitStrategy blocking = new BlockingWaitStrategy();
+
+    /**
+     * On a single processor spinning only delays the thread being waited for, so the default skips straight to
+     * yielding there.
+     */
+    public BackoffWaitStrategy() {
+        this(Runtime.getRuntime().availableProcessors() > 1 ? DEFAULT_SPIN_TRIES : 0, DEFAULT_YIELD_TRIES);
+    }
+
+    public BackoffWaitStrategy(int spinTries, int yieldTries) {
+        if (spinTries < 0 || yieldTries < 0)
+            throw new IllegalArgumentException(String.format("Spin tries: %d and yield tries: %d must not be negative", spinTries, yieldTries));
+
+        this.spinTries = spinTries;
+        this.yieldTries = yieldTries;
+    }
+
+    @Override
+    public void waitFor(BooleanSupplier condition) throws InterruptedException {
+        if (!spinThenYield(condition, Long.MAX_VALUE))
+            blocking.waitFor(condition);
+    }
+
+    @Override
+    public boolean waitFor(BooleanSupplier condition, long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+
+        if (spinThenYield(condition, deadline))
+            return true;
+
+        return blocking.waitFor(condition, deadline - System.nanoTime());
+    }
+
+    /**
+     * @return true when the condition held before the spin and yield tries ran out or the deadline passed
+     */
+    private boolean spinThenYield(BooleanSupplier condition, long deadline) throws InterruptedException {
+        for (int i = 0; i < spinTries + yieldTries; i++) {
+            if (condition.getAsBoolean())
+                return true;
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline >= 0)
+                return false;
+
+            if (i < spinTries)
+                Thread.onSpinWait();
+            else
+                Thread.yield();
+        }
+
+        return false;
+    }
+
+    @Override
+    public void signalAll() {
+        blocking.signalAll();
+    }
+}
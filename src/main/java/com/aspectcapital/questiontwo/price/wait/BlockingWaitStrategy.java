@@ -0,0 +1,70 @@
+package com.aspectcapital.questiontwo.price.wait;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Parks waiting threads on a condition; lowest CPU usage, highest wake up latency. Publishers only take the lock when
+ * somebody waits.
+ */
+public class BlockingWaitStrategy implements WaitStrategy {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition signalled = lock.newCondition();
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    @Override
+    public void waitFor(BooleanSupplier condition) throws InterruptedException {
+        if (condition.getAsBoolean())
+            return;
+
+        lock.lockInterruptibly();
+        waiters.incrementAndGet();
+        try {
+            while (!condition.getAsBoolean()) {
+                signalled.await();
+            }
+        } finally {
+            waiters.decrementAndGet();
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean waitFor(BooleanSupplier condition, long timeoutNanos) throws InterruptedException {
+        if (condition.getAsBoolean())
+            return true;
+
+        lock.lockInterruptibly();
+        waiters.incrementAndGet();
+        try {
+            long remaining = timeoutNanos;
+
+            while (!condition.getAsBoolean()) {
+                if (remaining <= 0)
+                    return false;
+
+                remaining = signalled.awaitNanos(remaining);
+            }
+
+            return true;
+        } finally {
+            waiters.decrementAndGet();
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void signalAll() {
+        if (waiters.get() == 0)
+            return;
+
+        lock.lock();
+        try {
+            signalled.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.aspectcapital.questiontwo.price.wait;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Spins on the condition without ever giving up the core; lowest latency, needs a dedicated core per waiting thread.
+ */
+public class BusySpinWaitStrategy implements WaitStrategy {
+    @Override
+    public void waitFor(BooleanSupplier condition) throws InterruptedException {
+        while (!condition.getAsBoolean()) {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+
+            Thread.onSpinWait();
+        }
+    }
+
+    @Override
+    public boolean waitFor(BooleanSupplier condition, long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+
+        while (!condition.getAsBoolean()) {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            if (System.nanoTime() - deadline >= 0)
+                return false;
+
+            Thread.onSpinWait();
+        }
+
+        return true;
+    }
+
+    @Override
+    public void signalAll() {
+    }
+}
@@ -0,0 +1,40 @@
+package com.aspectcapital.questiontwo.price.wait;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * How a thread waits for work published by other threads. Publishers call {@link #signalAll()} after every publication,
+ * which strategies that never park are free to ignore.
+ */
+public interface WaitStrategy {
+    /**
+     * Returns once {@code condition} holds. The condition is evaluated repeatedly and should not allocate.
+     */
+    void waitFor(BooleanSupplier condition) throws InterruptedException;
+
+    /**
+     * Polls {@code condition} every 100 microseconds by default; strategies woken by {@link #signalAll()} should
+     * override it to wait the way {@link #waitFor(BooleanSupplier)} does.
+     *
+     * @return false when {@code condition} still did not hold after {@code timeoutNanos}
+     */
+    default boolean waitFor(BooleanSupplier condition, long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+
+        while (!condition.getAsBoolean()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                return false;
+            if (Thread.interrupted())
+                throw new InterruptedException();
+
+            LockSupport.parkNanos(Math.min(remaining, TimeUnit.MICROSECONDS.toNanos(100)));
+        }
+
+        return true;
+    }
+
+    void signalAll();
+}
@@ -0,0 +1,51 @@
+package com.aspectcapital.questiontwo.price.wait;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Spins for a while and then yields the core between checks; a compromise for when threads outnumber cores.
+ */
+public class YieldingWaitStrategy implements WaitStrategy {
+    private static final int SPIN_TRIES = 100;
+
+    @Override
+    public void waitFor(BooleanSupplier condition) throws InterruptedException {
+        int counter = SPIN_TRIES;
+
+        while (!condition.getAsBoolean()) {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+
+            if (counter > 0) {
+                counter--;
+                Thread.onSpinWait();
+            } else
+                Thread.yield();
+        }
+    }
+
+    @Override
+    public boolean waitFor(BooleanSupplier condition, long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        int counter = SPIN_TRIES;
+
+        while (!condition.getAsBoolean()) {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            if (System.nanoTime() - deadline >= 0)
+                return false;
+
+            if (counter > 0) {
+                counter--;
+                Thread.onSpinWait();
+            } else
+                Thread.yield();
+        }
+
+        return true;
+    }
+
+    @Override
+    public void signalAll() {
+    }
+}
@@ -0,0 +1,86 @@
+package com.aspectcapital.questiontwo.price;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class AdaptivePoolSizerTest {
+    private static final long INTERVAL_NANOS = 1000;
+
+    private int availableProcessors = 8;
+    private double systemLoadAverage = -1;
+    private final AdaptivePoolSizer sizer = new AdaptivePoolSizer(1, 4, () -> availableProcessors, () -> systemLoadAverage);
+
+    @Before
+    public void setUp() throws Exception {
+        sizer.reset();
+        startThreads();
+    }
+
+    @Test
+    public void shouldGrowOnlyAfterConsecutiveBusySamplesWithBacklog() throws Exception {
+        sampleBusy();
+        assertThat(sizer.getTargetThreads(), is(1));
+
+        sampleBusy();
+        assertThat(sizer.getTargetThreads(), is(2));
+        assertThat(startThreads(), is(1));
+    }
+
+    @Test
+    public void shouldNotGrowPastMaxThreadsNorAvailableProcessors() throws Exception {
+        availableProcessors = 3;
+
+        for (int i = 0; i < 20; i++) {
+            sampleBusy();
+            startThreads();
+        }
+
+        assertThat(sizer.getTargetThreads(), is(3));
+    }
+
+    @Test
+    public void shouldShrinkAfterLongerRunOfIdleSamplesAndRetireThread() throws Exception {
+        sampleBusy();
+        sampleBusy();
+        startThreads();
+
+        for (int i = 0; i < AdaptivePoolSizer.SHRINK_SAMPLES - 1; i++) {
+            sizer.resize(0, INTERVAL_NANOS);
+        }
+        assertThat(sizer.getTargetThreads(), is(2));
+
+        sizer.resize(0, INTERVAL_NANOS);
+        assertThat(sizer.getTargetThreads(), is(1));
+        assertThat(sizer.tryRetire(), is(true));
+        assertThat(sizer.tryRetire(), is(false));
+    }
+
+    @Test
+    public void shouldNotGrowWhenSystemLoadExceedsProcessors() throws Exception {
+        systemLoadAverage = 9;
+
+        sampleBusy();
+        sampleBusy();
+
+        assertThat(sizer.getTargetThreads(), is(1));
+    }
+
+    private void sampleBusy() {
+        int threads = sizer.getTargetThreads();
+        sizer.onProcessed(INTERVAL_NANOS * threads);
+        sizer.resize(threads + 1, INTERVAL_NANOS);
+    }
+
+    private int startThreads() {
+        int started = 0;
+
+        while (sizer.tryStart()) {
+            started++;
+        }
+
+        return started;
+    }
+}
@@ -0,0 +1,124 @@
+package com.aspectcapital.questiontwo.price;
+
+import com.aspectcapital.questiontwo.price.scheduling.SchedulingPolicy;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class EntityQueueTest {
+    private final EntityQueue queue = new EntityQueue();
+    private final Entity entityA = new Entity(0, "a");
+    private final Entity entityB = new Entity(1, "b");
+
+    @Test
+    public void shouldTakeEntitiesInOrderTheyWerePut() throws Exception {
+        queue.put(entityA);
+        queue.putAll(Arrays.asList(entityB, entityA));
+
+        assertThat(queue.size(), is(3));
+        assertThat(queue.take(), is(sameInstance(entityA)));
+        assertThat(queue.take(), is(sameInstance(entityB)));
+        assertThat(queue.take(), is(sameInstance(entityA)));
+    }
+
+    @Test
+    public void shouldRemoveLowestPriorityEntityBelowGivenPriority() throws Exception {
+        entityB.setPriority(1);
+        queue.putAll(Arrays.asList(entityA, entityB));
+
+        assertThat(queue.peekLowestPriority(0), is(nullValue()));
+        assertThat(queue.peekLowestPriority(2), is(sameInstance(entityA)));
+        assertThat(queue.remove(entityA), is(true));
+        assertThat(queue.remove(entityA), is(false));
+        assertThat(queue.size(), is(1));
+    }
+
+    @Test
+    public void shouldTakeEntitiesInOrderTheyWerePutAcrossPriorities() throws Exception {
+        Entity entityC = new Entity(2, "c");
+        Entity entityD = new Entity(3, "d");
+        entityB.setPriority(2);
+        entityC.setPriority(1);
+        entityD.setPriority(2);
+        queue.putAll(Arrays.asList(entityB, entityA, entityC));
+        queue.put(entityD);
+
+        assertThat(queue.peekLowestPriority(3), is(sameInstance(entityA)));
+        assertThat(queue.take(), is(sameInstance(entityB)));
+        assertThat(queue.take(), is(sameInstance(entityA)));
+        assertThat(queue.take(), is(sameInstance(entityC)));
+        assertThat(queue.take(), is(sameInstance(entityD)));
+    }
+
+    @Test
+    public void shouldShedLastQueuedEntityOfLowestClassWhenStrictPriority() throws Exception {
+        EntityQueue strictQueue = new EntityQueue(SchedulingPolicy.STRICT_PRIORITY, new int[]{1, 1, 1});
+        Entity entityC = new Entity(2, "c");
+        entityC.setPriority(2);
+        strictQueue.putAll(Arrays.asList(entityA, entityB, entityC));
+
+        assertThat(strictQueue.peekLowestPriority(0), is(nullValue()));
+        assertThat(strictQueue.peekLowestPriority(2), is(sameInstance(entityB)));
+        assertThat(strictQueue.remove(entityB), is(true));
+        assertThat(strictQueue.peekLowestPriority(2), is(sameInstance(entityA)));
+        assertThat(strictQueue.remove(entityA), is(true));
+        assertThat(strictQueue.peekLowestPriority(2), is(nullValue()));
+        assertThat(strictQueue.size(), is(1));
+    }
+
+    @Test
+    public void shouldTakeHighestPriorityClassFirstWhenStrictPriority() throws Exception {
+        EntityQueue strictQueue = new EntityQueue(SchedulingPolicy.STRICT_PRIORITY, new int[]{1, 1});
+        entityB.setPriority(1);
+        strictQueue.putAll(Arrays.asList(entityA, entityB));
+
+        assertThat(strictQueue.take(), is(sameInstance(entityB)));
+        assertThat(strictQueue.take(), is(sameInstance(entityA)));
+    }
+
+    @Test
+    public void shouldServeClassesByWeightWhenWeightedFair() throws Exception {
+        EntityQueue fairQueue = new EntityQueue(SchedulingPolicy.WEIGHTED_FAIR, new int[]{1, 2});
+        Entity entityC = new Entity(2, "c");
+        Entity entityD = new Entity(3, "d");
+        entityC.setPriority(1);
+        entityD.setPriority(1);
+        fairQueue.putAll(Arrays.asList(entityA, entityB, entityC, entityD));
+
+        List<Entity> taken = new ArrayList<>();
+        fairQueue.takeAll(taken, 4);
+
+        assertThat(taken, is(Arrays.asList(entityC, entityD, entityA, entityB)));
+    }
+
+    @Test(timeout = 1000)
+    public void shouldWakeUpTakingThreadsOnBatchPut() throws Exception {
+        Thread takerA = startTaker();
+        Thread takerB = startTaker();
+
+        queue.putAll(Arrays.asList(entityA, entityB));
+
+        takerA.join();
+        takerB.join();
+        assertThat(queue.size(), is(0));
+    }
+
+    private Thread startTaker() {
+        Thread taker = new Thread(() -> {
+            try {
+                queue.take();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        taker.start();
+
+        return taker;
+    }
+}
@@ -0,0 +1,48 @@
+package com.aspectcapital.questiontwo.price;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class EntityRegistryTest {
+    private final EntityRegistry registry = new EntityRegistry();
+
+    @Test
+    public void shouldHandOutDenseIdsInRegistrationOrder() throws Exception {
+        assertThat(registry.getOrCreate("a").getId(), is(0));
+        assertThat(registry.getOrCreate("b").getId(), is(1));
+        assertThat(registry.getOrCreate("a").getId(), is(0));
+        assertThat(registry.size(), is(2));
+    }
+
+    @Test
+    public void shouldFindEntityByIdAndName() throws Exception {
+        Entity entity = registry.getOrCreate("a");
+
+        assertThat(registry.get(entity.getId()), is(sameInstance(entity)));
+        assertThat(registry.get("a"), is(sameInstance(entity)));
+    }
+
+    @Test
+    public void shouldReturnNullForUnknownIds() throws Exception {
+        registry.getOrCreate("a");
+
+        assertThat(registry.get(-1), is(nullValue()));
+        assertThat(registry.get(1), is(nullValue()));
+    }
+
+    @Test
+    public void shouldKeepIdsStableWhenTableGrows() throws Exception {
+        Entity first = registry.getOrCreate("0");
+
+        for (int i = 1; i < 10000; i++) {
+            registry.getOrCreate(String.valueOf(i));
+        }
+
+        assertThat(registry.get(0), is(sameInstance(first)));
+        assertThat(registry.get(9999).getName(), is("9999"));
+    }
+}
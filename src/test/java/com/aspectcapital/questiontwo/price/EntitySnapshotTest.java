@@ -0,0 +1,86 @@
+package com.aspectcapital.questiontwo.price;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Path;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class EntitySnapshotTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldRestoreIdsPrioritiesAndPrices() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("entities.snapshot");
+        EntityRegistry registry = new EntityRegistry();
+        registry.getOrCreate("a").setPrice(new BigDecimal("10.25"));
+        registry.getOrCreate("b").setPriority(3);
+        BigDecimal bigPrice = new BigDecimal(BigInteger.TEN.pow(30), 2);
+        registry.getOrCreate("c").setPrice(bigPrice);
+
+        EntitySnapshot.write(registry, file);
+        EntityRegistry restored = new EntityRegistry(null, null, 3, 0, null);
+        restored.restore(EntitySnapshot.read(file));
+
+        assertThat(restored.size(), is(3));
+        assertThat(restored.get("a").getId(), is(0));
+        assertThat(restored.get(0).getPrice(), is(equalTo(new BigDecimal("10.25"))));
+        assertThat(restored.get(1).getName(), is("b"));
+        assertThat(restored.get(1).getPriority(), is(3));
+        assertThat(restored.get(1).getPrice(), is(nullValue()));
+        assertThat(restored.get(2).getPrice(), is(equalTo(bigPrice)));
+        assertThat(restored.getOrCreate("d").getId(), is(3));
+    }
+
+    @Test
+    public void shouldRestoreEntitiesSpanningSeveralChunks() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("entities.snapshot");
+        EntityRegistry registry = new EntityRegistry();
+        int size = 40000;
+        for (int i = 0; i < size; i++) {
+            registry.getOrCreate(String.valueOf(i)).setPrice(BigDecimal.valueOf(i));
+        }
+
+        EntitySnapshot.write(registry, file);
+        EntityRegistry restored = new EntityRegistry(null, null, size, 0, null);
+        restored.restore(EntitySnapshot.read(file));
+
+        for (int i = 0; i < size; i++) {
+            assertThat(restored.get(String.valueOf(i)).getPrice(), is(equalTo(BigDecimal.valueOf(i))));
+        }
+    }
+
+    @Test
+    public void shouldClampPrioritiesOutsideThePriorityClasses() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("entities.snapshot");
+        EntityRegistry registry = new EntityRegistry();
+        registry.getOrCreate("a").setPriority(1);
+        registry.getOrCreate("b").setPriority(5);
+        EntitySnapshot.write(registry, file);
+        EntityRegistry restored = new EntityRegistry();
+
+        int clamped = restored.restore(EntitySnapshot.read(file), 2);
+
+        assertThat(clamped, is(1));
+        assertThat(restored.get("a").getPriority(), is(1));
+        assertThat(restored.get("b").getPriority(), is(1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotRestoreIntoRegistryWithEntities() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("entities.snapshot");
+        EntityRegistry registry = new EntityRegistry();
+        registry.getOrCreate("a");
+        EntitySnapshot.write(registry, file);
+
+        registry.restore(EntitySnapshot.read(file));
+    }
+}
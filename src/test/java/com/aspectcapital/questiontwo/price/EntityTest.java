@@ -0,0 +1,160 @@
+package com.aspectcapital.questiontwo.price;
+
+import com.aspectcapital.questiontwo.price.wait.BackoffWaitStrategy;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class EntityTest {
+    private final Entity entity = new Entity(0, "a");
+
+    @Test
+    public void shouldRequireQueueingOnlyForFirstPutWhileInProcessing() throws Exception {
+        assertThat(entity.putNextPriceToProcess(new BigDecimal(10)), is(true));
+        assertThat(entity.putNextPriceToProcess(new BigDecimal(11)), is(false));
+        assertThat(entity.isInProcessing(), is(true));
+        assertThat(entity.getNextPriceToProcess(), is(equalTo(new BigDecimal(11))));
+    }
+
+    @Test
+    public void shouldReleaseEntityWhenNoPricePutDuringProcessing() throws Exception {
+        BigDecimal price = new BigDecimal(10);
+        entity.putNextPriceToProcess(price);
+
+        boolean hasPriceToProcess = entity.setProcessedPrice(entity.getReceivedVersion(), price);
+
+        assertThat(hasPriceToProcess, is(false));
+        assertThat(entity.isInProcessing(), is(false));
+        assertThat(entity.hasPriceToProcess(), is(false));
+        assertThat(entity.getPrice(), is(equalTo(price)));
+    }
+
+    @Test
+    public void shouldKeepEntityInProcessingWhenPricePutDuringProcessing() throws Exception {
+        BigDecimal price = new BigDecimal(10);
+        entity.putNextPriceToProcess(price);
+        long receivedVersion = entity.getReceivedVersion();
+        entity.putNextPriceToProcess(new BigDecimal(11));
+
+        boolean hasPriceToProcess = entity.setProcessedPrice(receivedVersion, price);
+
+        assertThat(hasPriceToProcess, is(true));
+        assertThat(entity.isInProcessing(), is(true));
+        assertThat(entity.getPrice(), is(equalTo(price)));
+    }
+
+    @Test
+    public void shouldNotReprocessWhenProcessorChangesPrice() throws Exception {
+        BigDecimal price = new BigDecimal(10);
+        entity.putNextPriceToProcess(price);
+
+        boolean hasPriceToProcess = entity.setProcessedPrice(entity.getReceivedVersion(), new BigDecimal(20));
+
+        assertThat(hasPriceToProcess, is(false));
+        assertThat(entity.getPrice(), is(equalTo(new BigDecimal(20))));
+    }
+
+    @Test
+    public void shouldNotHavePriceBeforeFirstProcessing() throws Exception {
+        entity.putNextPriceToProcess(new BigDecimal(10));
+
+        assertThat(entity.getPrice(), is(nullValue()));
+        assertThat(entity.hasPriceChanged(new PriceCursor()), is(false));
+    }
+
+    @Test
+    public void shouldTrackPriceReadPerCursor() throws Exception {
+        PriceCursor cursor1 = new PriceCursor();
+        PriceCursor cursor2 = new PriceCursor();
+        entity.setPrice(new BigDecimal(10));
+
+        entity.getPrice(cursor1);
+
+        assertThat(entity.hasPriceChanged(cursor1), is(false));
+        assertThat(entity.hasPriceChanged(cursor2), is(true));
+    }
+
+    @Test
+    public void shouldReportChangeWhenSamePriceIsPublishedAgain() throws Exception {
+        PriceCursor cursor = new PriceCursor();
+        entity.setPrice(new BigDecimal(10));
+        entity.getPrice(cursor);
+
+        entity.setPrice(new BigDecimal(10));
+
+        assertThat(entity.hasPriceChanged(cursor), is(true));
+        assertThat(entity.getNewPrice(cursor), is(equalTo(new BigDecimal(10))));
+        assertThat(entity.hasPriceChanged(cursor), is(false));
+    }
+
+    @Test
+    public void shouldKeepEntityInProcessingWhenSamePricePutDuringProcessing() throws Exception {
+        BigDecimal price = new BigDecimal(10);
+        entity.putNextPriceToProcess(price);
+        long receivedVersion = entity.getReceivedVersion();
+        entity.putNextPriceToProcess(new BigDecimal(10));
+
+        assertThat(entity.setProcessedPrice(receivedVersion, price), is(true));
+        assertThat(entity.hasPriceToProcess(), is(true));
+    }
+
+    @Test
+    public void shouldCountPricesPublishedSinceLastRead() throws Exception {
+        PriceCursor cursor = new PriceCursor();
+        entity.setPrice(new BigDecimal(10));
+        entity.getPrice(cursor);
+
+        entity.setPrice(new BigDecimal(11));
+        entity.setPrice(new BigDecimal(12));
+
+        assertThat(entity.getPricesSinceLastRead(cursor), is(2L));
+        assertThat(entity.getVersion(), is(3L));
+    }
+
+    @Test
+    public void shouldStopWaitingForNewPriceWhenFutureIsCancelledOrTimesOut() throws Exception {
+        CompletableFuture<BigDecimal> cancelled = entity.getNewPriceAsync(0);
+        CompletableFuture<BigDecimal> timedOut = entity.getNewPriceAsync(0).orTimeout(100, TimeUnit.MILLISECONDS);
+        assertThat(entity.getPendingPriceCount(), is(2));
+
+        cancelled.cancel(false);
+        while (!timedOut.isDone()) {
+            Thread.sleep(1);
+        }
+
+        assertThat(entity.getPendingPriceCount(), is(0));
+    }
+
+    @Test
+    public void shouldCompleteFutureWaitingForNewPriceWhenPriceIsPublished() throws Exception {
+        CompletableFuture<BigDecimal> newPrice = entity.getNewPriceAsync(0);
+
+        entity.setPrice(new BigDecimal(10));
+
+        assertThat(newPrice.getNow(null), is(equalTo(new BigDecimal(10))));
+        assertThat(entity.getPendingPriceCount(), is(0));
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void shouldTimeOutWaitingThroughReaderWaitStrategy() throws Exception {
+        Entity waitingEntity = new Entity(1, "b", new BackoffWaitStrategy());
+
+        waitingEntity.getNewPrice(new PriceCursor(), 1000);
+    }
+
+    @Test
+    public void shouldReturnNewPriceWaitingThroughReaderWaitStrategy() throws Exception {
+        Entity waitingEntity = new Entity(1, "b", new BackoffWaitStrategy());
+        waitingEntity.setPrice(new BigDecimal(10));
+
+        assertThat(waitingEntity.getNewPrice(new PriceCursor(), 1000), is(equalTo(new BigDecimal(10))));
+    }
+}
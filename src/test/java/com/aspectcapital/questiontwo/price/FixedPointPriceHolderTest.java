@@ -0,0 +1,167 @@
+package com.aspectcapital.questiontwo.price;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class FixedPointPriceHolderTest {
+    private static final int ALL_TEST_TIMEOUT_SECONDS = 10;
+    private static final String ENTITY_NAME_A = "a";
+    private static final int SCALE = 2;
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(ALL_TEST_TIMEOUT_SECONDS);
+    private FixedPointPriceHolder priceHolder;
+
+    @After
+    public void tearDown() throws Exception {
+        if (priceHolder != null)
+            priceHolder.stopProcessing();
+    }
+
+    @Test
+    public void shouldProcessMantissaWithLongPriceProcessor() throws Exception {
+        priceHolder = new FixedPointPriceHolder(mantissa -> mantissa * 2, SCALE);
+
+        priceHolder.putPrice(ENTITY_NAME_A, 1050L);
+
+        assertThat(priceHolder.waitForNextMantissa(ENTITY_NAME_A), is(2100L));
+    }
+
+    @Test
+    public void shouldConvertBigDecimalAtConfiguredScale() throws Exception {
+        priceHolder = new FixedPointPriceHolder(mantissa -> mantissa, SCALE);
+
+        priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal("10.5"));
+
+        assertThat(priceHolder.waitForNextMantissa(ENTITY_NAME_A), is(1050L));
+        assertThat(priceHolder.getPrice(ENTITY_NAME_A), is(equalTo(new BigDecimal("10.50"))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectPriceThatDoesNotFitScale() throws Exception {
+        priceHolder = new FixedPointPriceHolder(mantissa -> mantissa, SCALE);
+
+        priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal("10.505"));
+    }
+
+    @Test
+    public void shouldReturnNoPriceBeforeFirstProcessing() throws Exception {
+        priceHolder = new FixedPointPriceHolder(mantissa -> mantissa, SCALE);
+        priceHolder.stopProcessing();
+
+        priceHolder.putPrice(ENTITY_NAME_A, 1L);
+
+        assertThat(priceHolder.getMantissa(ENTITY_NAME_A), is(FixedPointPriceHolder.NO_PRICE));
+        assertThat(priceHolder.getPrice(ENTITY_NAME_A), is(nullValue()));
+    }
+
+    @Test
+    public void shouldReturnFalseWhenPriceHasNotChangedSinceLastRetrieval() throws Exception {
+        priceHolder = new FixedPointPriceHolder(mantissa -> mantissa, SCALE);
+
+        priceHolder.putPrice(ENTITY_NAME_A, 1L);
+        priceHolder.waitForNextMantissa(ENTITY_NAME_A);
+
+        assertThat(priceHolder.hasPriceChanged(ENTITY_NAME_A), is(false));
+    }
+
+    @Test
+    public void shouldReturnSamePriceWhenProcessedAgain() throws Exception {
+        priceHolder = new FixedPointPriceHolder(mantissa -> mantissa, SCALE);
+
+        priceHolder.putPrice(ENTITY_NAME_A, 1L);
+        priceHolder.waitForNextMantissa(ENTITY_NAME_A);
+        priceHolder.putPrice(ENTITY_NAME_A, 1L);
+
+        assertThat(priceHolder.waitForNextMantissa(ENTITY_NAME_A), is(1L));
+        assertThat(priceHolder.hasPriceChanged(ENTITY_NAME_A), is(false));
+    }
+
+    @Test
+    public void shouldKeepPriceReadWhenCursorMovesToAnotherThread() throws Exception {
+        priceHolder = new FixedPointPriceHolder(mantissa -> mantissa, SCALE);
+        PriceCursor cursor = priceHolder.newCursor();
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+
+        priceHolder.putPrice(ENTITY_NAME_A, 1L);
+        assertThat(priceHolder.waitForNextMantissa(cursor, ENTITY_NAME_A), is(1L));
+
+        assertThat(executorService.submit(() -> priceHolder.hasPriceChanged(cursor, ENTITY_NAME_A)).get(), is(false));
+        assertThat(priceHolder.hasPriceChanged(ENTITY_NAME_A), is(true));
+        executorService.shutdown();
+    }
+
+    @Test
+    public void shouldProcessPricePutAfterProcessorFailed() throws Exception {
+        CountDownLatch failed = new CountDownLatch(1);
+        priceHolder = new FixedPointPriceHolder(mantissa -> {
+            if (mantissa == 1L) {
+                failed.countDown();
+                throw new IllegalStateException("Processing failed");
+            }
+            return mantissa;
+        }, SCALE);
+
+        priceHolder.putPrice(ENTITY_NAME_A, 1L);
+        failed.await();
+        priceHolder.putPrice(ENTITY_NAME_A, 2L);
+
+        assertThat(priceHolder.waitForNextMantissa(ENTITY_NAME_A), is(2L));
+    }
+
+    @Test
+    public void shouldProcessPricePutWhileProcessorFailedWithoutAnotherPut() throws Exception {
+        CountDownLatch processingStarted = new CountDownLatch(1);
+        CountDownLatch secondPricePut = new CountDownLatch(1);
+        priceHolder = new FixedPointPriceHolder(mantissa -> {
+            if (mantissa == 1L) {
+                processingStarted.countDown();
+                try {
+                    secondPricePut.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IllegalStateException("Processing failed");
+            }
+            return mantissa;
+        }, SCALE);
+
+        priceHolder.putPrice(ENTITY_NAME_A, 1L);
+        processingStarted.await();
+        priceHolder.putPrice(ENTITY_NAME_A, 2L);
+        secondPricePut.countDown();
+
+        assertThat(priceHolder.waitForNextMantissa(ENTITY_NAME_A), is(2L));
+    }
+
+    @Test
+    public void shouldProcessLastPricePutForEntity() throws Exception {
+        priceHolder = new FixedPointPriceHolder(mantissa -> mantissa, SCALE);
+
+        for (long mantissa = 1; mantissa <= 1000; mantissa++) {
+            priceHolder.putPrice(ENTITY_NAME_A, mantissa);
+        }
+
+        while (priceHolder.waitForNextMantissa(ENTITY_NAME_A) != 1000L) {
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRejectEntitiesOverConfiguredLimit() throws Exception {
+        priceHolder = new FixedPointPriceHolder(mantissa -> mantissa, SCALE, 1, 1);
+
+        priceHolder.putPrice(ENTITY_NAME_A, 1L);
+        priceHolder.putPrice("b", 1L);
+    }
+}
@@ -0,0 +1,196 @@
+package com.aspectcapital.questiontwo.price;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CountDownLatch;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class OffHeapPriceHolderTest {
+    private static final int ALL_TEST_TIMEOUT_SECONDS = 10;
+    private static final String ENTITY_NAME_A = "a";
+    private static final int SCALE = 2;
+    private static final int MAX_NUMBER_OF_ENTITIES = 1024;
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(ALL_TEST_TIMEOUT_SECONDS);
+    private OffHeapPriceHolder priceHolder;
+
+    @After
+    public void tearDown() throws Exception {
+        if (priceHolder != null)
+            priceHolder.stopProcessing();
+    }
+
+    @Test
+    public void shouldProcessMantissaWithLongPriceProcessor() throws Exception {
+        priceHolder = new OffHeapPriceHolder(mantissa -> mantissa * 2, SCALE, MAX_NUMBER_OF_ENTITIES);
+
+        priceHolder.putPrice(ENTITY_NAME_A, 1050L);
+
+        assertThat(priceHolder.waitForNextMantissa(ENTITY_NAME_A), is(2100L));
+    }
+
+    @Test
+    public void shouldConvertBigDecimalAtConfiguredScale() throws Exception {
+        priceHolder = new OffHeapPriceHolder(mantissa -> mantissa, SCALE, MAX_NUMBER_OF_ENTITIES);
+
+        priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal("10.5"));
+
+        assertThat(priceHolder.waitForNextPrice(ENTITY_NAME_A), is(equalTo(new BigDecimal("10.50"))));
+    }
+
+    @Test
+    public void shouldReturnNoPriceBeforeFirstProcessing() throws Exception {
+        priceHolder = new OffHeapPriceHolder(mantissa -> mantissa, SCALE, MAX_NUMBER_OF_ENTITIES);
+        priceHolder.stopProcessing();
+
+        priceHolder.putPrice(ENTITY_NAME_A, 1L);
+
+        assertThat(priceHolder.getMantissa(ENTITY_NAME_A), is(OffHeapPriceHolder.NO_PRICE));
+        assertThat(priceHolder.getPrice(ENTITY_NAME_A), is(nullValue()));
+    }
+
+    @Test
+    public void shouldTrackPriceReadPerCursor() throws Exception {
+        priceHolder = new OffHeapPriceHolder(mantissa -> mantissa, SCALE, MAX_NUMBER_OF_ENTITIES);
+        PriceCursor cursor = new PriceCursor();
+
+        priceHolder.putPrice(7, 1L);
+        priceHolder.waitForNextMantissa(7);
+
+        assertThat(priceHolder.hasPriceChanged(cursor, 7), is(true));
+        assertThat(priceHolder.waitForNextMantissa(cursor, 7), is(1L));
+        assertThat(priceHolder.hasPriceChanged(cursor, 7), is(false));
+    }
+
+    @Test
+    public void shouldProcessLastPricePutForEntity() throws Exception {
+        priceHolder = new OffHeapPriceHolder(mantissa -> mantissa, SCALE, MAX_NUMBER_OF_ENTITIES);
+
+        for (long mantissa = 1; mantissa <= 1000; mantissa++) {
+            priceHolder.putPrice(ENTITY_NAME_A, mantissa);
+        }
+
+        while (priceHolder.waitForNextMantissa(ENTITY_NAME_A) != 1000L) {
+        }
+    }
+
+    @Test
+    public void shouldWakeUpReaderWaitingForNextPrice() throws Exception {
+        priceHolder = new OffHeapPriceHolder(mantissa -> mantissa, SCALE, MAX_NUMBER_OF_ENTITIES);
+        long[] read = new long[1];
+        Thread reader = new Thread(() -> {
+            try {
+                read[0] = priceHolder.waitForNextMantissa(3);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        reader.start();
+
+        priceHolder.putPrice(3, 42L);
+        reader.join();
+
+        assertThat(read[0], is(42L));
+    }
+
+    @Test
+    public void shouldRemoveWaitLockWhenLastWaitingReaderLeaves() throws Exception {
+        priceHolder = new OffHeapPriceHolder(mantissa -> mantissa, SCALE, MAX_NUMBER_OF_ENTITIES);
+        Thread readerA = startReader(3);
+        Thread readerB = startReader(3);
+        while (priceHolder.getNumberOfWaitLocks() == 0) {
+            Thread.sleep(1);
+        }
+
+        priceHolder.putPrice(3, 42L);
+        readerA.join();
+        readerB.join();
+
+        assertThat(priceHolder.getNumberOfWaitLocks(), is(0));
+    }
+
+    @Test
+    public void shouldTrackPriceReadOfHighestEntityId() throws Exception {
+        priceHolder = new OffHeapPriceHolder(mantissa -> mantissa, SCALE, MAX_NUMBER_OF_ENTITIES);
+        PriceCursor cursor = new PriceCursor();
+        int entityId = MAX_NUMBER_OF_ENTITIES - 1;
+
+        priceHolder.putPrice(entityId, 1L);
+
+        assertThat(priceHolder.waitForNextMantissa(cursor, entityId), is(1L));
+        assertThat(priceHolder.hasPriceChanged(cursor, entityId), is(false));
+        assertThat(priceHolder.hasPriceChanged(cursor, 0), is(false));
+    }
+
+    private Thread startReader(int entityId) {
+        Thread reader = new Thread(() -> {
+            try {
+                priceHolder.waitForNextMantissa(entityId);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        reader.start();
+
+        return reader;
+    }
+
+    @Test
+    public void shouldProcessPricePutWhileProcessorFailedWithoutAnotherPut() throws Exception {
+        CountDownLatch processingStarted = new CountDownLatch(1);
+        CountDownLatch secondPricePut = new CountDownLatch(1);
+        priceHolder = new OffHeapPriceHolder(mantissa -> {
+            if (mantissa == 1L) {
+                processingStarted.countDown();
+                try {
+                    secondPricePut.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IllegalStateException("Processing failed");
+            }
+            return mantissa;
+        }, SCALE, MAX_NUMBER_OF_ENTITIES);
+
+        priceHolder.putPrice(ENTITY_NAME_A, 1L);
+        processingStarted.await();
+        priceHolder.putPrice(ENTITY_NAME_A, 2L);
+        secondPricePut.countDown();
+
+        assertThat(priceHolder.waitForNextMantissa(ENTITY_NAME_A), is(2L));
+    }
+
+    @Test
+    public void shouldAllocateDirectMemoryOnlyForChunksInUse() throws Exception {
+        priceHolder = new OffHeapPriceHolder(mantissa -> mantissa, SCALE, 3 * OffHeapEntityTable.ENTITIES_PER_CHUNK);
+
+        priceHolder.putPrice(0, 1L);
+        priceHolder.waitForNextMantissa(0);
+
+        assertThat(priceHolder.getOffHeapBytes(),
+                is((long) OffHeapEntityTable.ENTITIES_PER_CHUNK * OffHeapEntityTable.SLOT_SIZE));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRejectEntitiesOverConfiguredLimit() throws Exception {
+        priceHolder = new OffHeapPriceHolder(mantissa -> mantissa, SCALE, 1, 1);
+
+        priceHolder.putPrice(ENTITY_NAME_A, 1L);
+        priceHolder.putPrice("b", 1L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectIdOverConfiguredLimit() throws Exception {
+        priceHolder = new OffHeapPriceHolder(mantissa -> mantissa, SCALE, MAX_NUMBER_OF_ENTITIES);
+
+        priceHolder.putPrice(MAX_NUMBER_OF_ENTITIES, 1L);
+    }
+}
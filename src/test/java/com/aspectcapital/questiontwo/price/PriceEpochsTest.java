@@ -0,0 +1,105 @@
+package com.aspectcapital.questiontwo.price;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PriceEpochsTest {
+    private final PriceEpochs epochs = new PriceEpochs();
+    private final Entity entityA = new Entity(0, "a", null, 0, epochs);
+    private final Entity entityB = new Entity(1, "b", null, 0, epochs);
+
+    @Test
+    public void shouldReturnPricePublishedAtOrBeforeEpoch() throws Exception {
+        assertThat(entityA.getPriceAt(epochs.getEpoch()), is(nullValue()));
+
+        entityA.setPrice(BigDecimal.ONE);
+        long epoch = epochs.getEpoch();
+        entityA.setPrice(BigDecimal.TEN);
+
+        assertThat(entityA.getPriceAt(epoch), is(equalTo(BigDecimal.ONE)));
+        assertThat(entityA.getPriceAt(epochs.getEpoch()), is(equalTo(BigDecimal.TEN)));
+    }
+
+    @Test
+    public void shouldKeepVersionsWhileReaderIsActiveAndPruneThemAfterwards() throws Exception {
+        entityA.setPrice(BigDecimal.ONE);
+        int slot = epochs.enter();
+        long epoch = epochs.getEpoch();
+
+        for (int i = 2; i <= 100; i++) {
+            entityA.setPrice(BigDecimal.valueOf(i));
+        }
+        assertThat(entityA.getPriceAt(epoch), is(equalTo(BigDecimal.ONE)));
+
+        epochs.exit(slot);
+        entityA.setPrice(BigDecimal.valueOf(101));
+
+        assertThat(entityA.getPriceAt(epoch), is(nullValue()));
+        assertThat(entityA.getPriceAt(epochs.getEpoch()), is(equalTo(BigDecimal.valueOf(101))));
+    }
+
+    @Test(timeout = 5000)
+    public void shouldBlockReaderBeyondSlotsUntilAnotherExits() throws Exception {
+        PriceEpochs singleSlotEpochs = new PriceEpochs(1);
+        int slot = singleSlotEpochs.enter();
+        AtomicBoolean entered = new AtomicBoolean();
+        Thread reader = new Thread(() -> {
+            singleSlotEpochs.exit(singleSlotEpochs.enter());
+            entered.set(true);
+        });
+        reader.start();
+
+        while (reader.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        assertThat(entered.get(), is(false));
+
+        singleSlotEpochs.exit(slot);
+        reader.join();
+
+        assertThat(entered.get(), is(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNoReaderSlots() throws Exception {
+        new PriceEpochs(0);
+    }
+
+    @Test
+    public void shouldNeverReturnTornViewWhileWriterUpdatesEntities() throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            for (long i = 0; running.get(); i++) {
+                entityA.setPrice(BigDecimal.valueOf(i));
+                entityB.setPrice(BigDecimal.valueOf(i));
+            }
+        });
+        writer.start();
+
+        try {
+            for (int i = 0; i < 100000; i++) {
+                int slot = epochs.enter();
+                try {
+                    long epoch = epochs.getEpoch();
+                    BigDecimal b = entityB.getPriceAt(epoch);
+                    BigDecimal a = entityA.getPriceAt(epoch);
+
+                    if (b != null)
+                        assertThat(a.subtract(b).signum() == 0 || a.subtract(b).equals(BigDecimal.ONE), is(true));
+                } finally {
+                    epochs.exit(slot);
+                }
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+    }
+}
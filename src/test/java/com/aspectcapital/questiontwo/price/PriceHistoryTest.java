@@ -0,0 +1,96 @@
+package com.aspectcapital.questiontwo.price;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PriceHistoryTest {
+    private final PriceHistory history = new PriceHistory(8);
+    private final PriceSeries series = new PriceSeries();
+
+    @Test
+    public void shouldReturnLastPricesOldestFirst() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            history.add(BigDecimal.valueOf(i, 1));
+        }
+
+        history.getLast(3, series);
+
+        assertThat(series.size(), is(3));
+        assertThat(series.getPrice(0), is(equalTo(new BigDecimal("0.2"))));
+        assertThat(series.getPrice(2), is(equalTo(new BigDecimal("0.4"))));
+        assertThat(series.getTimestampNanos(0) <= series.getTimestampNanos(2), is(true));
+    }
+
+    @Test
+    public void shouldKeepOnlyCapacityPricesAfterWrapping() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            history.add(BigDecimal.valueOf(i));
+        }
+
+        history.getLast(100, series);
+
+        assertThat(series.size(), is(8));
+        assertThat(series.getPrice(0), is(equalTo(BigDecimal.valueOf(12))));
+        assertThat(series.getPrice(7), is(equalTo(BigDecimal.valueOf(19))));
+    }
+
+    @Test
+    public void shouldReturnPricesPublishedWithinRange() throws Exception {
+        for (int i = 0; i < 6; i++) {
+            history.add(BigDecimal.valueOf(i));
+        }
+        history.getLast(6, series);
+        long from = series.getTimestampNanos(2);
+        long to = series.getTimestampNanos(4);
+
+        history.getRange(from, to, series);
+
+        assertThat(series.getPrice(0).compareTo(BigDecimal.valueOf(2)) <= 0, is(true));
+        assertThat(series.getPrice(series.size() - 1).compareTo(BigDecimal.valueOf(4)) >= 0, is(true));
+        for (int i = 0; i < series.size(); i++) {
+            assertThat(series.getTimestampNanos(i) >= from && series.getTimestampNanos(i) <= to, is(true));
+        }
+    }
+
+    @Test
+    public void shouldKeepPriceBeyondLongRangeApproximately() throws Exception {
+        BigDecimal price = new BigDecimal(BigInteger.TEN.pow(25));
+        history.add(price);
+
+        history.getLast(1, series);
+
+        assertThat(series.getPrice(0).compareTo(price), is(0));
+        assertThat(series.getPriceAsDouble(0), is(1e25));
+    }
+
+    @Test
+    public void shouldOnlyReturnConsecutivePricesWhileWriterLapsReader() throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            for (long i = 0; running.get(); i++) {
+                history.add(BigDecimal.valueOf(i));
+            }
+        });
+        writer.start();
+
+        try {
+            for (int i = 0; i < 10000; i++) {
+                history.getLast(8, series);
+
+                for (int j = 1; j < series.size(); j++) {
+                    assertThat(series.getPriceAsDouble(j), is(series.getPriceAsDouble(j - 1) + 1));
+                }
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+    }
+}
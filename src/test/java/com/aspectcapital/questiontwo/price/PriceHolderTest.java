@@ -1,19 +1,47 @@
 package com.aspectcapital.questiontwo.price;
 
+import com.aspectcapital.questiontwo.price.journal.JournalRecord;
+import com.aspectcapital.questiontwo.price.journal.PriceJournal;
+import com.aspectcapital.questiontwo.price.overload.OverloadListener;
+import com.aspectcapital.questiontwo.price.overload.OverloadPolicy;
 import com.aspectcapital.questiontwo.price.processor.*;
+import com.aspectcapital.questiontwo.price.scheduling.SchedulingPolicy;
+import com.aspectcapital.questiontwo.price.subscription.PriceUpdate;
+import com.aspectcapital.questiontwo.price.wait.BackoffWaitStrategy;
+import com.aspectcapital.questiontwo.price.wait.BlockingWaitStrategy;
+import com.aspectcapital.questiontwo.price.wait.BusySpinWaitStrategy;
+import com.aspectcapital.questiontwo.price.wait.WaitStrategy;
+import com.aspectcapital.questiontwo.price.wait.YieldingWaitStrategy;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.junit.After;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.rules.Timeout;
 import org.mockito.Matchers;
 import org.mockito.Mockito;
 
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.lessThan;
@@ -28,6 +56,8 @@ public class PriceHolderTest {
     private final Random random = new Random();
     @Rule
     public Timeout globalTimeout = Timeout.seconds(ALL_TEST_TIMEOUT_SECONDS);
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
     private DelayingPriceProcessor priceProcessor;
     private PriceHolder priceHolder;
     private ExecutorService putPriceExecutorService;
@@ -35,6 +65,8 @@ public class PriceHolderTest {
 
     @After
     public void tearDown() throws Exception {
+        if (priceHolder != null)
+            priceHolder.close();
         if (putPriceExecutorService != null)
             putPriceExecutorService.shutdown();
         if (getPriceExecutorService != null)
@@ -42,16 +74,28 @@ public class PriceHolderTest {
     }
 
     @Test
-    public void shouldSetLastPriceRedOnGetPriceInvoked() throws Exception {
-        CountDownLatch latch = new CountDownLatch(1);
-        priceHolder = new PriceHolder(new CountingAllInvocationsPriceProcessor(0, latch));
-        Entity entity = priceHolder.getOrCreateEntity(ENTITY_NAME_A);
+    public void shouldMarkPriceAsReadOnGetPriceInvoked() throws Exception {
+        priceHolder = new PriceHolder(new DelayingPriceProcessor(0));
 
         priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(10));
-        latch.await();
+        waitForPriceChange(ENTITY_NAME_A);
         priceHolder.getPrice(ENTITY_NAME_A);
 
-        assertThat(entity.getLastPriceRead(), is(equalTo(entity.getPrice())));
+        assertThat(priceHolder.hasPriceChanged(ENTITY_NAME_A), is(false));
+    }
+
+    @Test
+    public void shouldKeepPriceReadWhenCursorMovesToAnotherThread() throws Exception {
+        priceHolder = new PriceHolder(new DelayingPriceProcessor(0));
+        PriceCursor cursor = priceHolder.newCursor();
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+
+        priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(10));
+        assertThat(priceHolder.waitForNextPrice(cursor, ENTITY_NAME_A), is(equalTo(new BigDecimal(10))));
+
+        assertThat(executorService.submit(() -> priceHolder.hasPriceChanged(cursor, ENTITY_NAME_A)).get(), is(false));
+        assertThat(priceHolder.hasPriceChanged(ENTITY_NAME_A), is(true));
+        executorService.shutdown();
     }
 
     @Test
@@ -65,13 +109,12 @@ public class PriceHolderTest {
 
     @Test
     public void shouldReturnLastPriceAvailableForOneEntity() throws Exception {
-        CountDownLatch latch = new CountDownLatch(1);
         BigDecimal lastPrice = new BigDecimal(12);
-        priceHolder = new PriceHolder(new CountingOnePriceValuePriceProcessor(0, latch, lastPrice));
+        priceHolder = new PriceHolder(new DelayingPriceProcessor(0));
 
         priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(11));
         priceHolder.putPrice(ENTITY_NAME_A, lastPrice);
-        latch.await();
+        waitForPrice(ENTITY_NAME_A, lastPrice);
 
         BigDecimal price = priceHolder.getPrice(ENTITY_NAME_A);
         assertThat(price, is(equalTo(lastPrice)));
@@ -79,12 +122,11 @@ public class PriceHolderTest {
 
     @Test
     public void shouldReturnFalseWhenPriceHasNotChangedSinceLastRetrieval() throws Exception {
-        CountDownLatch latch = new CountDownLatch(1);
         BigDecimal lastPrice = new BigDecimal(10);
-        priceHolder = new PriceHolder(new CountingOnePriceValuePriceProcessor(0, latch, lastPrice));
+        priceHolder = new PriceHolder(new DelayingPriceProcessor(0));
 
         priceHolder.putPrice(ENTITY_NAME_A, lastPrice);
-        latch.await();
+        waitForPrice(ENTITY_NAME_A, lastPrice);
         priceHolder.getPrice(ENTITY_NAME_A);
 
         assertThat(priceHolder.hasPriceChanged(ENTITY_NAME_A), is(false));
@@ -92,28 +134,855 @@ public class PriceHolderTest {
 
     @Test
     public void shouldReturnTrueWhenPriceHasChangedSinceLastRetrieval() throws Exception {
-        CountDownLatch latch = new CountDownLatch(1);
         BigDecimal lastPrice = new BigDecimal(11);
-        priceHolder = new PriceHolder(new CountingOnePriceValuePriceProcessor(0, latch, lastPrice));
+        priceHolder = new PriceHolder(new DelayingPriceProcessor(0));
 
         priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(10));
         waitForPriceChange(ENTITY_NAME_A);
         priceHolder.getPrice(ENTITY_NAME_A);
         priceHolder.putPrice(ENTITY_NAME_A, lastPrice);
-        latch.await();
+        waitForPrice(ENTITY_NAME_A, lastPrice);
 
         assertThat(priceHolder.hasPriceChanged(ENTITY_NAME_A), is(true));
     }
 
+    @Test
+    public void shouldPutAndGetPriceByEntityId() throws Exception {
+        priceHolder = new PriceHolder(new DelayingPriceProcessor(0));
+        int entityId = priceHolder.getOrCreateEntityId(ENTITY_NAME_A);
+        BigDecimal price = new BigDecimal(10);
+
+        priceHolder.putPrice(entityId, price);
+
+        assertThat(priceHolder.waitForNextPrice(entityId), is(equalTo(price)));
+        assertThat(priceHolder.getPrice(ENTITY_NAME_A), is(equalTo(price)));
+        assertThat(priceHolder.hasPriceChanged(entityId), is(false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldThrowWhenEntityIdDoesNotExist() throws Exception {
+        priceHolder = new PriceHolder(new DelayingPriceProcessor(0));
+
+        priceHolder.getPrice(priceHolder.getOrCreateEntityId(ENTITY_NAME_A) + 1);
+    }
+
+    @Test
+    public void shouldProcessEveryEntityOfSnapshot() throws Exception {
+        priceHolder = new PriceHolder(new DelayingPriceProcessor(0));
+        Map<String, BigDecimal> snapshot = new HashMap<>();
+        snapshot.put(ENTITY_NAME_A, new BigDecimal(10));
+        snapshot.put(ENTITY_NAME_B, new BigDecimal(11));
+
+        priceHolder.putPrices(snapshot);
+
+        assertThat(priceHolder.waitForNextPrice(ENTITY_NAME_A), is(equalTo(new BigDecimal(10))));
+        assertThat(priceHolder.waitForNextPrice(ENTITY_NAME_B), is(equalTo(new BigDecimal(11))));
+    }
+
+    @Test
+    public void shouldProcessEveryEntityOfSnapshotById() throws Exception {
+        priceHolder = new PriceHolder(new DelayingPriceProcessor(0));
+        int[] entityIds = {priceHolder.getOrCreateEntityId(ENTITY_NAME_A), priceHolder.getOrCreateEntityId(ENTITY_NAME_B)};
+
+        priceHolder.putPrices(entityIds, new BigDecimal[]{new BigDecimal(10), new BigDecimal(11)});
+
+        assertThat(priceHolder.waitForNextPrice(entityIds[0]), is(equalTo(new BigDecimal(10))));
+        assertThat(priceHolder.waitForNextPrice(entityIds[1]), is(equalTo(new BigDecimal(11))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldThrowWhenSnapshotArraysDiffer() throws Exception {
+        priceHolder = new PriceHolder(new DelayingPriceProcessor(0));
+
+        priceHolder.putPrices(new int[]{priceHolder.getOrCreateEntityId(ENTITY_NAME_A)}, new BigDecimal[0]);
+    }
+
+    @Test
+    public void shouldProcessQueuedEntitiesInOneBatch() throws Exception {
+        CountDownLatch firstBatchStarted = new CountDownLatch(1);
+        CountDownLatch firstBatchReleased = new CountDownLatch(1);
+        List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        priceHolder = new PriceHolder(prices -> {
+            batchSizes.add(prices.size());
+            firstBatchStarted.countDown();
+            try {
+                firstBatchReleased.await();
+            } catch (InterruptedException ignored) {
+            }
+            return prices;
+        }, 1, 10);
+
+        priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(10));
+        firstBatchStarted.await();
+        Map<String, BigDecimal> snapshot = new HashMap<>();
+        for (int i = 0; i < 5; i++) {
+            snapshot.put(String.valueOf(i), new BigDecimal(i));
+        }
+        priceHolder.putPrices(snapshot);
+        firstBatchReleased.countDown();
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(priceHolder.waitForNextPrice(String.valueOf(i)), is(equalTo(new BigDecimal(i))));
+        }
+        assertThat(batchSizes, is(equalTo(Arrays.asList(1, 5))));
+    }
+
+    @Test
+    public void shouldProcessPricePutWhileBatchFailedWithoutAnotherPut() throws Exception {
+        CountDownLatch firstBatchStarted = new CountDownLatch(1);
+        CountDownLatch firstBatchReleased = new CountDownLatch(1);
+        priceHolder = new PriceHolder(prices -> {
+            if (firstBatchStarted.getCount() > 0) {
+                firstBatchStarted.countDown();
+                try {
+                    firstBatchReleased.await();
+                } catch (InterruptedException ignored) {
+                }
+                throw new IllegalStateException("Failing first batch");
+            }
+            return prices;
+        }, 1, 10);
+
+        priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(10));
+        firstBatchStarted.await();
+        priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(20));
+        firstBatchReleased.countDown();
+
+        assertThat(priceHolder.waitForNextPrice(ENTITY_NAME_A), is(equalTo(new BigDecimal(20))));
+    }
+
+    @Test
+    public void shouldProcessPricePutWhilePriceFailedWithoutAnotherPut() throws Exception {
+        CountDownLatch firstPriceStarted = new CountDownLatch(1);
+        CountDownLatch firstPriceReleased = new CountDownLatch(1);
+        priceHolder = new PriceHolder((BigDecimal price) -> {
+            if (firstPriceStarted.getCount() > 0) {
+                firstPriceStarted.countDown();
+                try {
+                    firstPriceReleased.await();
+                } catch (InterruptedException ignored) {
+                }
+                throw new IllegalStateException("Failing first price");
+            }
+            return price;
+        }, 1);
+
+        priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(10));
+        firstPriceStarted.await();
+        priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(20));
+        firstPriceReleased.countDown();
+
+        assertThat(priceHolder.waitForNextPrice(ENTITY_NAME_A), is(equalTo(new BigDecimal(20))));
+    }
+
+    @Test
+    public void shouldAlwaysProcessEntityOnSameThreadWhenSharded() throws Exception {
+        Map<BigDecimal, String> processingThreads = new ConcurrentHashMap<>();
+        priceHolder = new PriceHolder((BigDecimal price) -> {
+            processingThreads.put(price, Thread.currentThread().getName());
+            return price;
+        }, new PriceHolderConfiguration.Builder().setNumberOfThreads(2).setSharded(true).build());
+        BigDecimal lastPriceA = new BigDecimal(100);
+        BigDecimal lastPriceB = new BigDecimal(1100);
+
+        for (int i = 1; i <= 100; i++) {
+            priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(i));
+            priceHolder.putPrice(ENTITY_NAME_B, new BigDecimal(1000 + i));
+        }
+        while (!lastPriceA.equals(priceHolder.waitForNextPrice(ENTITY_NAME_A))) {
+        }
+        while (!lastPriceB.equals(priceHolder.waitForNextPrice(ENTITY_NAME_B))) {
+        }
+
+        Set<String> threadsA = new HashSet<>();
+        Set<String> threadsB = new HashSet<>();
+        processingThreads.forEach((price, thread) -> (price.intValue() > 1000 ? threadsB : threadsA).add(thread));
+        assertThat(threadsA.size(), is(1));
+        assertThat(threadsB.size(), is(1));
+        assertThat(threadsA.equals(threadsB), is(false));
+    }
+
+    @Test
+    public void shouldProcessLastPriceOfEveryEntityWithRingBufferAndBlockingWaitStrategy() throws Exception {
+        shouldProcessLastPriceOfEveryEntityWithRingBuffer(new BlockingWaitStrategy());
+    }
+
+    @Test
+    public void shouldProcessLastPriceOfEveryEntityWithRingBufferAndYieldingWaitStrategy() throws Exception {
+        shouldProcessLastPriceOfEveryEntityWithRingBuffer(new YieldingWaitStrategy());
+    }
+
+    @Test
+    public void shouldProcessLastPriceOfEveryEntityWithRingBufferAndBusySpinWaitStrategy() throws Exception {
+        shouldProcessLastPriceOfEveryEntityWithRingBuffer(new BusySpinWaitStrategy());
+    }
+
+    private void shouldProcessLastPriceOfEveryEntityWithRingBuffer(WaitStrategy waitStrategy) throws Exception {
+        priceHolder = new PriceHolder((BigDecimal price) -> price, new PriceHolderConfiguration.Builder()
+                .setNumberOfThreads(2)
+                .setRingBufferSize(16)
+                .setWaitStrategy(waitStrategy)
+                .build());
+        BigDecimal lastPrice = new BigDecimal(100);
+        Map<String, BigDecimal> snapshot = new HashMap<>();
+
+        for (int i = 1; i <= 100; i++) {
+            priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(i));
+            snapshot.put(String.valueOf(i), new BigDecimal(i));
+        }
+        priceHolder.putPrices(snapshot);
+
+        while (!lastPrice.equals(priceHolder.waitForNextPrice(ENTITY_NAME_A))) {
+        }
+        for (int i = 1; i <= 100; i++) {
+            while (!new BigDecimal(i).equals(priceHolder.waitForNextPrice(String.valueOf(i)))) {
+            }
+        }
+        priceHolder.stopProcessing();
+    }
+
+    @Test
+    public void shouldProcessAndWaitForNextPriceWithBackoffWaitStrategy() throws Exception {
+        shouldProcessAndWaitForNextPriceWithWaitStrategy(new BackoffWaitStrategy(), BackoffWaitStrategy::new);
+    }
+
+    @Test
+    public void shouldProcessAndWaitForNextPriceWithBusySpinWaitStrategy() throws Exception {
+        shouldProcessAndWaitForNextPriceWithWaitStrategy(new BusySpinWaitStrategy(), BusySpinWaitStrategy::new);
+    }
+
+    private void shouldProcessAndWaitForNextPriceWithWaitStrategy(WaitStrategy waitStrategy,
+                                                                  Supplier<WaitStrategy> readerWaitStrategies) throws Exception {
+        priceHolder = new PriceHolder((BigDecimal price) -> price, new PriceHolderConfiguration.Builder()
+                .setNumberOfThreads(2)
+                .setWaitStrategy(waitStrategy)
+                .setReaderWaitStrategy(readerWaitStrategies)
+                .build());
+        priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(10));
+        priceHolder.waitForNextPrice(ENTITY_NAME_A);
+
+        try {
+            for (int i = 11; i < 100; i++) {
+                priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(i));
+                assertThat(priceHolder.waitForNextPrice(ENTITY_NAME_A), is(new BigDecimal(i)));
+            }
+            assertThat(priceHolder.getNumberOfProcessingThreads(), is(2));
+        } finally {
+            priceHolder.stopProcessing();
+        }
+    }
+
+    @Test
+    public void shouldRejectPutToFullRingBufferWhenProcessingStopped() throws Exception {
+        priceHolder = new PriceHolder((BigDecimal price) -> price, new PriceHolderConfiguration.Builder()
+                .setRingBufferSize(16)
+                .build());
+        priceHolder.stopProcessing();
+
+        for (int i = 0; i < 16; i++) {
+            priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(i));
+        }
+        try {
+            priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(16));
+            fail("Put to a full ring buffer accepted");
+        } catch (IllegalStateException expected) {
+        }
+
+        priceHolder.startProcessing();
+        priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(17));
+        waitForPrice(ENTITY_NAME_A, new BigDecimal(17));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldThrowWhenBatchProcessorUsedWithRingBuffer() throws Exception {
+        priceHolder = new PriceHolder((List<BigDecimal> prices) -> prices, new PriceHolderConfiguration.Builder()
+                .setRingBufferSize(16)
+                .build());
+    }
+
+    @Test
+    public void shouldNotOpenJournalWhenConfigurationIsRejected() throws Exception {
+        try {
+            new PriceHolder((List<BigDecimal> prices) -> prices, new PriceHolderConfiguration.Builder()
+                    .setRingBufferSize(16)
+                    .setJournalDirectory(folder.getRoot().toPath())
+                    .build());
+            fail("Batch processor accepted with ring buffer");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        assertThat(folder.getRoot().list().length, is(0));
+    }
+
+    @Test
+    public void shouldProcessOnVirtualThreadsWhenConfigured() throws Exception {
+        Set<Boolean> virtual = ConcurrentHashMap.newKeySet();
+        priceHolder = new PriceHolder((BigDecimal price) -> {
+            virtual.add(Thread.currentThread().isVirtual());
+            return price;
+        }, new PriceHolderConfiguration.Builder().setVirtualThreads(true).build());
+
+        priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(10));
+
+        assertThat(priceHolder.waitForNextPrice(ENTITY_NAME_A), is(equalTo(new BigDecimal(10))));
+        assertThat(virtual, is(equalTo(Collections.singleton(true))));
+        priceHolder.stopProcessing();
+    }
+
+    @Test
+    public void shouldWakeEveryVirtualThreadWaitingForNextPrice() throws Exception {
+        int numberOfWaiters = 10000;
+        CountDownLatch waiting = new CountDownLatch(numberOfWaiters);
+        BigDecimal nextPrice = new BigDecimal(11);
+        priceHolder = new PriceHolder((BigDecimal price) -> price, new PriceHolderConfiguration.Builder().setVirtualThreads(true).build());
+        priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(10));
+        priceHolder.waitForNextPrice(ENTITY_NAME_A);
+
+        try (ExecutorService waiters = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<BigDecimal>> nextPrices = new ArrayList<>(numberOfWaiters);
+            for (int i = 0; i < numberOfWaiters; i++) {
+                nextPrices.add(waiters.submit(() -> {
+                    priceHolder.getPrice(ENTITY_NAME_A);
+                    waiting.countDown();
+                    return priceHolder.waitForNextPrice(ENTITY_NAME_A);
+                }));
+            }
+            waiting.await();
+            priceHolder.putPrice(ENTITY_NAME_A, nextPrice);
+
+            for (Future<BigDecimal> price : nextPrices) {
+                assertThat(price.get(), is(equalTo(nextPrice)));
+            }
+        }
+        priceHolder.stopProcessing();
+    }
+
+    @Test
+    public void shouldNotifyListenersOfProcessedPrice() throws Exception {
+        BlockingQueue<PriceUpdate> entityUpdates = new LinkedBlockingQueue<>();
+        BlockingQueue<PriceUpdate> allUpdates = new LinkedBlockingQueue<>();
+        priceHolder = new PriceHolder((BigDecimal price) -> price.negate());
+        priceHolder.subscribe(ENTITY_NAME_A, entityUpdates::add);
+        priceHolder.subscribe(allUpdates::add);
+
+        priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(10));
+        priceHolder.putPrice(ENTITY_NAME_B, new BigDecimal(20));
+
+        PriceUpdate update = entityUpdates.take();
+        assertThat(update.entityName(), is(ENTITY_NAME_A));
+        assertThat(update.price(), is(equalTo(new BigDecimal(-10))));
+        Set<String> allEntityNames = new HashSet<>(Arrays.asList(allUpdates.take().entityName(), allUpdates.take().entityName()));
+        assertThat(allEntityNames, is(equalTo(new HashSet<>(Arrays.asList(ENTITY_NAME_A, ENTITY_NAME_B)))));
+        assertThat(entityUpdates.isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldNotifyPricesOfOneEntityInPublicationOrderWithManyProcessingThreads() throws Exception {
+        int numberOfPrices = 2000;
+        List<BigDecimal> notified = Collections.synchronizedList(new ArrayList<>());
+        priceHolder = new PriceHolder((BigDecimal price) -> price, 4);
+        priceHolder.subscribe(ENTITY_NAME_A, update -> notified.add(update.price()));
+
+        for (int i = 1; i <= numberOfPrices; i++) {
+            priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(i));
+        }
+        while (!new BigDecimal(numberOfPrices).equals(priceHolder.getPrice(ENTITY_NAME_A))) {
+            Thread.sleep(1);
+        }
+        priceHolder.stopProcessing();
+
+        for (int i = 1; i < notified.size(); i++) {
+            assertThat(notified.get(i).compareTo(notified.get(i - 1)) > 0, is(true));
+        }
+        assertThat(notified.get(notified.size() - 1), is(equalTo(new BigDecimal(numberOfPrices))));
+    }
+
+    @Test
+    public void shouldPublishLatestProcessedPriceToSubscriber() throws Exception {
+        BigDecimal lastPrice = new BigDecimal(100);
+        CountDownLatch lastPriceReceived = new CountDownLatch(1);
+        priceHolder = new PriceHolder((BigDecimal price) -> price);
+
+        priceHolder.getPublisher(ENTITY_NAME_A).subscribe(new Flow.Subscriber<PriceUpdate>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(PriceUpdate item) {
+                if (lastPrice.equals(item.price()))
+                    lastPriceReceived.countDown();
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        for (int i = 1; i <= 100; i++) {
+            priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(i));
+        }
+
+        lastPriceReceived.await();
+    }
+
+    @Test
+    public void shouldReturnEntitiesWithChangedPriceWhenWaitingForAnyPrice() throws Exception {
+        priceHolder = new PriceHolder(new DelayingPriceProcessor(0));
+        ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+        priceHolder.getOrCreateEntityId(ENTITY_NAME_A);
+        priceHolder.getOrCreateEntityId(ENTITY_NAME_B);
+
+        executorService.schedule(() -> priceHolder.putPrice(ENTITY_NAME_B, new BigDecimal(10)), 100, TimeUnit.MILLISECONDS);
+        Set<String> changed = priceHolder.waitForAnyPrice(Arrays.asList(ENTITY_NAME_A, ENTITY_NAME_B), 5, TimeUnit.SECONDS);
+
+        assertThat(changed, is(equalTo(Collections.singleton(ENTITY_NAME_B))));
+        executorService.shutdown();
+    }
+
+    @Test
+    public void shouldReturnNoEntityWhenNoPriceChangedBeforeTimeout() throws Exception {
+        priceHolder = new PriceHolder(new DelayingPriceProcessor(0));
+        priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(10));
+        priceHolder.waitForNextPrice(ENTITY_NAME_A);
+
+        long start = System.nanoTime();
+        Set<String> changed = priceHolder.waitForAnyPrice(Collections.singleton(ENTITY_NAME_A), 200, TimeUnit.MILLISECONDS);
+
+        assertThat(changed.isEmpty(), is(true));
+        assertThat(System.nanoTime() - start, greaterThan(TimeUnit.MILLISECONDS.toNanos(200)));
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void shouldThrowWhenNoNextPriceWithinTimeout() throws Exception {
+        priceHolder = new PriceHolder(new DelayingPriceProcessor(0));
+        priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(10));
+        priceHolder.waitForNextPrice(ENTITY_NAME_A);
+
+        priceHolder.waitForNextPrice(ENTITY_NAME_A, 100, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void shouldCompleteNextPriceAsyncWhenPriceIsProcessed() throws Exception {
+        priceHolder = new PriceHolder(new DelayingPriceProcessor(0));
+        priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(10));
+        priceHolder.waitForNextPrice(ENTITY_NAME_A);
+
+        CompletableFuture<BigDecimal> nextPrice = priceHolder.nextPriceAsync(ENTITY_NAME_A);
+        assertThat(nextPrice.isDone(), is(false));
+        priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(11));
+
+        assertThat(nextPrice.get(5, TimeUnit.SECONDS), is(equalTo(new BigDecimal(11))));
+    }
+
+    @Test
+    public void shouldTraceProcessingWhenTracingEnabled() throws Exception {
+        priceHolder = new PriceHolder((BigDecimal price) -> price, new PriceHolderConfiguration.Builder()
+                .setTraceCapacity(64)
+                .build());
+        int entityId = priceHolder.getOrCreateEntityId(ENTITY_NAME_A);
+
+        priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(10));
+        priceHolder.waitForNextPrice(ENTITY_NAME_A);
+
+        String trace;
+        while (!(trace = priceHolder.dumpTrace()).contains("PROCESSED")) {
+            Thread.sleep(1);
+        }
+        assertThat(trace, containsString("RECEIVED entityId=" + entityId));
+        assertThat(trace, containsString("PROCESSED entityId=" + entityId + " value=1"));
+    }
+
+    @Test
+    public void shouldJournalReceivedAndProcessedPricesWhenJournalingEnabled() throws Exception {
+        priceHolder = new PriceHolder((BigDecimal price) -> price.add(BigDecimal.ONE), new PriceHolderConfiguration.Builder()
+                .setJournalDirectory(folder.getRoot().toPath())
+                .setJournalSegmentSize(PriceJournal.MIN_SEGMENT_SIZE)
+                .build());
+        int entityId = priceHolder.getOrCreateEntityId(ENTITY_NAME_A);
+
+        priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(10));
+        priceHolder.waitForNextPrice(ENTITY_NAME_A);
+
+        List<JournalRecord> records = new ArrayList<>();
+        while (records.size() < 2) {
+            records.clear();
+            PriceJournal.read(folder.getRoot().toPath(), records::add);
+            Thread.sleep(1);
+        }
+        assertThat(records.get(0).type(), is(JournalRecord.Type.RECEIVED));
+        assertThat(records.get(0).entityId(), is(entityId));
+        assertThat(records.get(0).price(), is(equalTo(new BigDecimal(10))));
+        assertThat(records.get(1).type(), is(JournalRecord.Type.PROCESSED));
+        assertThat(records.get(1).price(), is(equalTo(new BigDecimal(11))));
+        assertThat(PriceJournal.readEntityNames(folder.getRoot().toPath()).get(entityId), is(ENTITY_NAME_A));
+    }
+
+    @Test
+    public void shouldCloseJournalWhenClosed() throws Exception {
+        priceHolder = new PriceHolder((BigDecimal price) -> price, new PriceHolderConfiguration.Builder()
+                .setJournalDirectory(folder.getRoot().toPath())
+                .setJournalSegmentSize(PriceJournal.MIN_SEGMENT_SIZE)
+                .build());
+        priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(10));
+        priceHolder.waitForNextPrice(ENTITY_NAME_A);
+
+        priceHolder.close();
+
+        List<JournalRecord> records = new ArrayList<>();
+        PriceJournal.read(folder.getRoot().toPath(), records::add);
+        assertThat(records.size(), is(2));
+        try {
+            priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(20));
+            fail("Put to a closed journal");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void shouldRestoreLatestPricesFromSnapshotWrittenWhenProcessingStopped() throws Exception {
+        PriceHolderConfiguration configuration = new PriceHolderConfiguration.Builder()
+                .setSnapshotFile(folder.getRoot().toPath().resolve("entities.snapshot"))
+                .build();
+        priceHolder = new PriceHolder((BigDecimal price) -> price, configuration);
+        priceHolder.getOrCreateEntityId(ENTITY_NAME_A);
+        int entityId = priceHolder.getOrCreateEntityId(ENTITY_NAME_B);
+        priceHolder.putPrice(ENTITY_NAME_B, new BigDecimal(10));
+        priceHolder.waitForNextPrice(ENTITY_NAME_B);
+        priceHolder.stopProcessing();
+
+        priceHolder = new PriceHolder((BigDecimal price) -> price, configuration);
+
+        assertThat(priceHolder.getOrCreateEntityId(ENTITY_NAME_B), is(entityId));
+        assertThat(priceHolder.getPrice(ENTITY_NAME_B), is(equalTo(new BigDecimal(10))));
+        assertThat(priceHolder.getPrice(ENTITY_NAME_A), is(nullValue()));
+    }
+
+    @Test
+    public void shouldJournalNamesOfRestoredEntities() throws Exception {
+        Path snapshotFile = folder.getRoot().toPath().resolve("entities.snapshot");
+        priceHolder = new PriceHolder((BigDecimal price) -> price, new PriceHolderConfiguration.Builder()
+                .setSnapshotFile(snapshotFile)
+                .build());
+        int entityId = priceHolder.getOrCreateEntityId(ENTITY_NAME_B);
+        priceHolder.stopProcessing();
+        Path journalDirectory = folder.newFolder("journal").toPath();
+
+        priceHolder = new PriceHolder((BigDecimal price) -> price, new PriceHolderConfiguration.Builder()
+                .setSnapshotFile(snapshotFile)
+                .setJournalDirectory(journalDirectory)
+                .setJournalSegmentSize(PriceJournal.MIN_SEGMENT_SIZE)
+                .build());
+        priceHolder.close();
+
+        assertThat(PriceJournal.readEntityNames(journalDirectory).get(entityId), is(ENTITY_NAME_B));
+    }
+
+    @Test
+    public void shouldReturnHistoryOfProcessedPricesWhenHistoryEnabled() throws Exception {
+        priceHolder = new PriceHolder((BigDecimal price) -> price, new PriceHolderConfiguration.Builder()
+                .setNumberOfThreads(1)
+                .setHistoryCapacity(4)
+                .build());
+        long from = PriceHolder.currentTimeNanos();
+
+        for (int i = 1; i <= 6; i++) {
+            priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(i));
+            while (!new BigDecimal(i).equals(priceHolder.getPrice(ENTITY_NAME_A))) {
+                Thread.sleep(1);
+            }
+        }
+
+        PriceSeries lastPrices = priceHolder.getLastPrices(ENTITY_NAME_A, 2);
+        assertThat(lastPrices.size(), is(2));
+        assertThat(lastPrices.getPrice(0), is(equalTo(new BigDecimal(5))));
+        assertThat(lastPrices.getPrice(1), is(equalTo(new BigDecimal(6))));
+
+        PriceSeries history = priceHolder.getHistory(ENTITY_NAME_A, from, PriceHolder.currentTimeNanos());
+        assertThat(history.size(), is(4));
+        assertThat(history.getPrice(0), is(equalTo(new BigDecimal(3))));
+    }
+
+    @Test
+    public void shouldRecordEveryProcessedPriceInOrderWithManyProcessingThreads() throws Exception {
+        int numberOfPrices = 2000;
+        AtomicInteger processed = new AtomicInteger();
+        priceHolder = new PriceHolder((BigDecimal price) -> price, new PriceHolderConfiguration.Builder()
+                .setNumberOfThreads(4)
+                .setHistoryCapacity(4096)
+                .build());
+        priceHolder.subscribe(ENTITY_NAME_A, update -> processed.incrementAndGet());
+
+        for (int i = 1; i <= numberOfPrices; i++) {
+            priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(i));
+        }
+        while (!new BigDecimal(numberOfPrices).equals(priceHolder.getPrice(ENTITY_NAME_A))) {
+            Thread.sleep(1);
+        }
+        priceHolder.stopProcessing();
+
+        PriceSeries history = priceHolder.getLastPrices(ENTITY_NAME_A, numberOfPrices);
+        assertThat(history.size(), is(processed.get()));
+        for (int i = 1; i < history.size(); i++) {
+            assertThat(history.getPrice(i).compareTo(history.getPrice(i - 1)) > 0, is(true));
+            assertThat(history.getTimestampNanos(i) >= history.getTimestampNanos(i - 1), is(true));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotReturnHistoryWhenHistoryDisabled() throws Exception {
+        priceHolder = new PriceHolder((BigDecimal price) -> price);
+        priceHolder.getOrCreateEntityId(ENTITY_NAME_A);
+
+        priceHolder.getLastPrices(ENTITY_NAME_A, 1);
+    }
+
+    @Test
+    public void shouldReturnPricesOfManyEntitiesWhenConsistentReadsEnabled() throws Exception {
+        priceHolder = new PriceHolder((BigDecimal price) -> price, new PriceHolderConfiguration.Builder()
+                .setNumberOfThreads(1)
+                .setConsistentReads(true)
+                .build());
+        priceHolder.getOrCreateEntityId(ENTITY_NAME_B);
+
+        priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(10));
+        while (priceHolder.getPrice(ENTITY_NAME_A) == null) {
+            Thread.sleep(1);
+        }
+
+        Map<String, BigDecimal> prices = priceHolder.getPrices(Arrays.asList(ENTITY_NAME_A, ENTITY_NAME_B));
+        assertThat(prices.size(), is(2));
+        assertThat(prices.get(ENTITY_NAME_A), is(equalTo(new BigDecimal(10))));
+        assertThat(prices.get(ENTITY_NAME_B), is(nullValue()));
+
+        PriceSnapshot snapshot = priceHolder.snapshotAll();
+        assertThat(snapshot.size(), is(2));
+        assertThat(snapshot.toMap(), is(equalTo(prices)));
+        assertThat(snapshot.getPrice(priceHolder.getOrCreateEntityId(ENTITY_NAME_A)), is(equalTo(new BigDecimal(10))));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotReturnPricesOfManyEntitiesWhenConsistentReadsDisabled() throws Exception {
+        priceHolder = new PriceHolder((BigDecimal price) -> price);
+
+        priceHolder.snapshotAll();
+    }
+
+    @Test
+    public void shouldRecordMetricsWhenMetricsEnabled() throws Exception {
+        priceHolder = new PriceHolder((BigDecimal price) -> price, new PriceHolderConfiguration.Builder()
+                .setMetricsEnabled(true)
+                .build());
+
+        priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(10));
+        priceHolder.waitForNextPrice(ENTITY_NAME_A);
+
+        PriceHolderMetricsSnapshot snapshot = priceHolder.getMetricsSnapshot();
+        assertThat(snapshot.pricesPut(), is(1L));
+        assertThat(snapshot.pricesProcessed(), is(1L));
+        assertThat(snapshot.processingTime().count(), is(1L));
+        assertThat(snapshot.putToVisibleLatency().count(), is(1L));
+        assertThat(snapshot.waiters(), is(0L));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldThrowWhenMetricsReadButNotEnabled() throws Exception {
+        priceHolder = new PriceHolder((BigDecimal price) -> price);
+
+        priceHolder.getMetricsSnapshot();
+    }
+
+    @Test
+    public void shouldExposeMetricsOverJmx() throws Exception {
+        priceHolder = new PriceHolder((BigDecimal price) -> price, new PriceHolderConfiguration.Builder()
+                .setMetricsEnabled(true)
+                .build());
+        priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(10));
+        priceHolder.waitForNextPrice(ENTITY_NAME_A);
+
+        ObjectName name = priceHolder.registerMetricsMBean("test");
+        try {
+            assertThat(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "PricesPut"), is((Object) 1L));
+        } finally {
+            priceHolder.unregisterMetricsMBean();
+        }
+
+        assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(name), is(false));
+    }
+
+    @Test
+    public void shouldDropPriceAndNotifyListenerWhenOverloaded() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        OverloadListener listener = mock(OverloadListener.class);
+        fillBoundedPriceHolder(OverloadPolicy.DROP, listener, release);
+
+        try {
+            priceHolder.putPrice("c", new BigDecimal(12));
+
+            assertThat(priceHolder.getNumberOfDroppedPrices(), is(1L));
+            assertThat(priceHolder.isOverloaded(), is(true));
+            verify(listener).onOverloaded();
+        } finally {
+            release.countDown();
+        }
+
+        priceHolder.waitForNextPrice(ENTITY_NAME_B);
+        while (priceHolder.isOverloaded()) {
+            Thread.sleep(1);
+        }
+        verify(listener).onRecovered();
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void shouldRejectPriceWhenOverloadedAndFailingFast() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        fillBoundedPriceHolder(OverloadPolicy.FAIL_FAST, null, release);
+
+        try {
+            priceHolder.putPrice("c", new BigDecimal(12));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void shouldShedLowerPriorityEntityWhenOverloaded() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        fillBoundedPriceHolder(OverloadPolicy.SHED_LOWEST_PRIORITY, null, release);
+        priceHolder.setPriority("c", 1);
+
+        try {
+            priceHolder.putPrice("c", new BigDecimal(12));
+
+            assertThat(priceHolder.getNumberOfShedEntities(), is(1L));
+        } finally {
+            release.countDown();
+        }
+
+        assertThat(priceHolder.waitForNextPrice("c"), is(new BigDecimal(12)));
+        assertThat(priceHolder.getPrice(ENTITY_NAME_B), is(nullValue()));
+    }
+
+    @Test
+    public void shouldBlockProducerUntilEntityReleasedWhenOverloaded() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        fillBoundedPriceHolder(OverloadPolicy.BLOCK, null, release);
+        putPriceExecutorService = Executors.newSingleThreadExecutor();
+
+        Future<?> put = putPriceExecutorService.submit(() -> priceHolder.putPrice("c", new BigDecimal(12)));
+
+        try {
+            put.get(100, TimeUnit.MILLISECONDS);
+            fail("Put should block while the bound is reached");
+        } catch (TimeoutException expected) {
+        } finally {
+            release.countDown();
+        }
+
+        put.get();
+        assertThat(priceHolder.waitForNextPrice("c"), is(new BigDecimal(12)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldThrowWhenMaxEntitiesInFlightUsedWithRingBuffer() throws Exception {
+        new PriceHolderConfiguration.Builder()
+                .setRingBufferSize(16)
+                .setMaxEntitiesInFlight(2)
+                .build();
+    }
+
+    @Test
+    public void shouldProcessHigherPriorityClassFirstWhenStrictPriority() throws Exception {
+        CountDownLatch processing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<BigDecimal> processed = Collections.synchronizedList(new ArrayList<>());
+        priceHolder = new PriceHolder((BigDecimal price) -> {
+            processing.countDown();
+            Uninterruptibles.awaitUninterruptibly(release);
+            processed.add(price);
+            return price;
+        }, new PriceHolderConfiguration.Builder()
+                .setNumberOfThreads(1)
+                .setSchedulingPolicy(SchedulingPolicy.STRICT_PRIORITY)
+                .setPriorityWeights(1, 1)
+                .build());
+
+        priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(1), 0);
+        processing.await();
+        priceHolder.putPrice(ENTITY_NAME_B, new BigDecimal(2), 0);
+        priceHolder.putPrice("c", new BigDecimal(3), 1);
+        release.countDown();
+        priceHolder.waitForNextPrice(ENTITY_NAME_B);
+
+        assertThat(processed, is(Arrays.asList(new BigDecimal(1), new BigDecimal(3), new BigDecimal(2))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldThrowWhenPriorityIsNotAPriorityClass() throws Exception {
+        priceHolder = new PriceHolder((BigDecimal price) -> price, new PriceHolderConfiguration.Builder()
+                .setSchedulingPolicy(SchedulingPolicy.WEIGHTED_FAIR)
+                .setPriorityWeights(1, 4)
+                .build());
+
+        priceHolder.setPriority(ENTITY_NAME_A, 2);
+    }
+
+    @Test
+    public void shouldStartWithMinThreadsAndProcessPricesWhenAdaptive() throws Exception {
+        priceHolder = new PriceHolder((BigDecimal price) -> price, new PriceHolderConfiguration.Builder()
+                .setAdaptiveThreads(1, 4)
+                .setPoolSizingIntervalMillis(10)
+                .build());
+
+        priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(10));
+
+        assertThat(priceHolder.waitForNextPrice(ENTITY_NAME_A), is(new BigDecimal(10)));
+        assertThat(priceHolder.getNumberOfProcessingThreads(), is(1));
+        priceHolder.stopProcessing();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldThrowWhenBatchProcessorUsedWithAdaptiveThreads() throws Exception {
+        priceHolder = new PriceHolder((List<BigDecimal> prices) -> prices, new PriceHolderConfiguration.Builder()
+                .setAdaptiveThreads(1, 4)
+                .build());
+    }
+
+    /**
+     * Leaves entity a in processing on the only thread and entity b queued, with the bound of 2 entities in flight
+     * reached until {@code release} is counted down.
+     */
+    private void fillBoundedPriceHolder(OverloadPolicy policy, OverloadListener listener, CountDownLatch release) throws Exception {
+        CountDownLatch processing = new CountDownLatch(1);
+        priceHolder = new PriceHolder((BigDecimal price) -> {
+            processing.countDown();
+            Uninterruptibles.awaitUninterruptibly(release);
+            return price;
+        }, new PriceHolderConfiguration.Builder()
+                .setNumberOfThreads(1)
+                .setMaxEntitiesInFlight(2)
+                .setOverloadPolicy(policy)
+                .setOverloadListener(listener)
+                .build());
+
+        priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(10));
+        processing.await();
+        priceHolder.putPrice(ENTITY_NAME_B, new BigDecimal(11));
+    }
+
     @Test
     public void shouldReturnPriceWhenOnlyOnePriceWasPutForEachEntityByOneThread() throws Exception {
-        CountDownLatch latch = new CountDownLatch(2);
         BigDecimal lastPrice = new BigDecimal(11);
-        priceHolder = new PriceHolder(new CountingOnePriceValuePriceProcessor(0, latch, lastPrice));
+        priceHolder = new PriceHolder(new DelayingPriceProcessor(0));
 
         priceHolder.putPrice(ENTITY_NAME_A, lastPrice);
         priceHolder.putPrice(ENTITY_NAME_B, lastPrice);
-        latch.await();
+        waitForPrice(ENTITY_NAME_A, lastPrice);
+        waitForPrice(ENTITY_NAME_B, lastPrice);
 
         assertThat(priceHolder.getPrice(ENTITY_NAME_A), is(lastPrice));
         assertThat(priceHolder.getPrice(ENTITY_NAME_B), is(lastPrice));
@@ -121,15 +990,17 @@ public class PriceHolderTest {
 
     @Test
     public void shouldReturnPriceWhenOnlyOnePriceWasPutForEachEntityByMultipleThreads() throws Exception {
-        CountDownLatch latch = new CountDownLatch(2);
         BigDecimal lastPrice = new BigDecimal(12);
-        priceHolder = new PriceHolder(new CountingOnePriceValuePriceProcessor(0, latch, lastPrice));
+        priceHolder = new PriceHolder(new DelayingPriceProcessor(0));
         putPriceExecutorService = Executors.newFixedThreadPool(2);
         BigDecimal priceA1 = new BigDecimal(12);
 
-        putPriceInSeparateThread(ENTITY_NAME_A, priceA1);
-        putPriceInSeparateThread(ENTITY_NAME_B, lastPrice);
-        latch.await();
+        Future<?> putA = putPriceInSeparateThread(ENTITY_NAME_A, priceA1);
+        Future<?> putB = putPriceInSeparateThread(ENTITY_NAME_B, lastPrice);
+        putA.get();
+        putB.get();
+        waitForPrice(ENTITY_NAME_A, priceA1);
+        waitForPrice(ENTITY_NAME_B, lastPrice);
 
         assertThat(priceHolder.getPrice(ENTITY_NAME_A), is(equalTo(priceA1)));
         assertThat(priceHolder.getPrice(ENTITY_NAME_B), is(equalTo(lastPrice)));
@@ -137,8 +1008,7 @@ public class PriceHolderTest {
 
     @Test
     public void shouldReturnNextPriceWhenAvailableAfterLastWaitCalled() throws Exception {
-        CountDownLatch latch = new CountDownLatch(3);
-        priceHolder = new PriceHolder(new CountingAllInvocationsPriceProcessor(0, latch));
+        priceHolder = new PriceHolder(new DelayingPriceProcessor(0));
         BigDecimal price2 = new BigDecimal(11);
         BigDecimal price3 = new BigDecimal(12);
 
@@ -146,7 +1016,7 @@ public class PriceHolderTest {
         priceHolder.waitForNextPrice(ENTITY_NAME_A);
         priceHolder.putPrice(ENTITY_NAME_A, price2);
         priceHolder.putPrice(ENTITY_NAME_A, price3);
-        latch.await();
+        waitForPrice(ENTITY_NAME_A, price3);
 
         assertThat(priceHolder.waitForNextPrice(ENTITY_NAME_A), is(equalTo(price3)));
     }
@@ -166,7 +1036,17 @@ public class PriceHolderTest {
     }
 
     private void waitForPriceChange(String entityName) {
-        while (!priceHolder.getOrCreateEntity(entityName).hasPriceChanged()) {
+        while (!priceHolder.hasPriceChanged(entityName)) {
+        }
+    }
+
+    /**
+     * Reads through a cursor of its own, so the calling thread's cursor is left as it was. A latch counted down by the
+     * processor is not enough: the price is published only after the processor returns.
+     */
+    private void waitForPrice(String entityName, BigDecimal expected) throws InterruptedException {
+        PriceCursor cursor = priceHolder.newCursor();
+        while (priceHolder.waitForNextPrice(cursor, entityName).compareTo(expected) != 0) {
         }
     }
 
@@ -206,12 +1086,13 @@ public class PriceHolderTest {
         BigDecimal price2 = new BigDecimal(11);
 
         priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(10));
+        waitForPriceChange(ENTITY_NAME_A);
         executorService.submit(() -> priceHolder.getPrice(ENTITY_NAME_A));
 
         Future<BigDecimal> nextPrice = executorService.submit(() -> priceHolder.waitForNextPrice(ENTITY_NAME_A));
+        long start = System.nanoTime();
         scheduledExecutorService.schedule(() -> priceHolder.putPrice(ENTITY_NAME_A, price2), 3, TimeUnit.SECONDS);
 
-        long start = System.nanoTime();
         BigDecimal price = nextPrice.get();
         long duration = System.nanoTime() - start;
 
@@ -235,9 +1116,9 @@ public class PriceHolderTest {
 
         Future<BigDecimal> nextPriceThread1 = executorService1.submit(() -> priceHolder.waitForNextPrice(ENTITY_NAME_A));
         Future<BigDecimal> nextPriceThread2 = executorService2.submit(() -> priceHolder.waitForNextPrice(ENTITY_NAME_A));
+        long start = System.nanoTime();
         scheduledExecutorService.schedule(() -> priceHolder.putPrice(ENTITY_NAME_A, price2), 3, TimeUnit.SECONDS);
 
-        long start = System.nanoTime();
         BigDecimal priceThread1 = nextPriceThread1.get();
         BigDecimal priceThread2 = nextPriceThread2.get();
         long duration = System.nanoTime() - start;
@@ -259,8 +1140,9 @@ public class PriceHolderTest {
         priceHolder.getPrice(ENTITY_NAME_A);
 
         executorService.schedule(() -> priceHolder.putPrice(ENTITY_NAME_A, nextPrice), 1000, TimeUnit.MILLISECONDS);
-        executorService.schedule(() -> priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(11)), 1000, TimeUnit.MILLISECONDS);
+        executorService.schedule(() -> priceHolder.putPrice(ENTITY_NAME_A, new BigDecimal(11)), 1500, TimeUnit.MILLISECONDS);
         BigDecimal retrievedNextPrice = priceHolder.waitForNextPrice(ENTITY_NAME_A);
+        executorService.shutdown();
 
         assertThat(retrievedNextPrice, is(equalTo(nextPrice)));
     }
@@ -303,6 +1185,9 @@ public class PriceHolderTest {
                 .build();
 
         runLoadTest(tc);
+        PriceCursor cursor = priceHolder.newCursor();
+        priceHolder.waitForNextPrice(cursor, "1");
+        priceHolder.waitForNextPrice(cursor, "1");
         verify(priceProcessor, times(2)).process(Mockito.any());
     }
 
@@ -358,7 +1243,7 @@ public class PriceHolderTest {
         processLatch.await();
 
         verifyAllPricesWerePut(tc);
-        if (canValidateLastPrices(tc.getNumberOfPrices(), tc.getNumberOfPutThreads())) {
+        if (canValidateLastPrices(tc)) {
             validateLastEntitiesPrices(tc.getNumberOfEntities(), tc.getNumberOfPrices());
         }
     }
@@ -373,24 +1258,33 @@ public class PriceHolderTest {
         verify(priceHolder, times(tc.getNumberOfEntities() * tc.getNumberOfPrices())).putPrice(anyString(), Mockito.any());
     }
 
+    /**
+     * Registers the entities up front, so the first put of an entity is not slower than the ones put after it.
+     */
     private void initialize(TestConfiguration tc, CountDownLatch processLatch) {
         BigDecimal lastPrice = BigDecimal.valueOf(tc.getNumberOfPrices());
 
         priceProcessor = spy(TestPriceProcessorFactory.getPriceProcessor(tc.getNumberOfPutThreads(), tc.getProcessSleepMilliseconds(), processLatch, lastPrice));
         priceHolder = spy(new PriceHolder(priceProcessor));
+        for (int entityName = 1; entityName <= tc.getNumberOfEntities(); entityName++) {
+            priceHolder.getOrCreateEntityId(String.valueOf(entityName));
+        }
 
         putPriceExecutorService = Executors.newFixedThreadPool(tc.getNumberOfPutThreads());
         getPriceExecutorService = Executors.newFixedThreadPool(tc.getNumberOfGetThreads());
     }
 
-    private boolean canValidateLastPrices(int numberOfPrices, int numberOfPutThreads) {
-        return numberOfPutThreads == 1 || numberOfPrices == 1;
+    /**
+     * Prices put by one thread, or far enough apart, are put in order, so the last one put is the highest.
+     */
+    private boolean canValidateLastPrices(TestConfiguration tc) {
+        return tc.getNumberOfPutThreads() == 1 || tc.getNumberOfPrices() == 1 || tc.getPutSleepMilliseconds() > 0;
     }
 
-    private void validateLastEntitiesPrices(int numberOfEntities, int numberOfPrices) throws InterruptedException, ExecutionException {
+    private void validateLastEntitiesPrices(int numberOfEntities, int numberOfPrices) throws InterruptedException {
         for (int entityName = 1; entityName <= numberOfEntities; entityName++) {
-            Future<BigDecimal> price = getPriceInSeparateThread(String.valueOf(entityName));
-            assertThat("Entity name: " + String.valueOf(entityName), price.get().intValue(), is(numberOfPrices));
+            waitForPrice(String.valueOf(entityName), BigDecimal.valueOf(numberOfPrices));
+            assertThat("Entity name: " + String.valueOf(entityName), priceHolder.getPrice(String.valueOf(entityName)).intValue(), is(numberOfPrices));
         }
     }
 
@@ -0,0 +1,54 @@
+package com.aspectcapital.questiontwo.price;
+
+import com.aspectcapital.questiontwo.price.wait.BlockingWaitStrategy;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PriceRingBufferTest {
+    private final PriceRingBuffer ringBuffer = new PriceRingBuffer(4, 1, new BlockingWaitStrategy());
+    private final Entity entity = new Entity(0, "a");
+
+    @Test
+    public void shouldMakePublishedSlotsAvailableInOrder() throws Exception {
+        ringBuffer.publish(new Entity[]{entity, entity}, new BigDecimal[]{new BigDecimal(10), new BigDecimal(11)});
+
+        assertThat(ringBuffer.isAvailable(2), is(false));
+        assertThat(ringBuffer.getHighestAvailableSequence(0), is(1L));
+        assertThat(ringBuffer.getEntity(1), is(sameInstance(entity)));
+        assertThat(ringBuffer.getPrice(1), is(equalTo(new BigDecimal(11))));
+    }
+
+    @Test
+    public void shouldNotTreatSlotOfPreviousRoundAsAvailable() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            ringBuffer.publish(entity, new BigDecimal(i));
+        }
+        ringBuffer.setConsumerSequence(0, 3);
+
+        assertThat(ringBuffer.isAvailable(4), is(false));
+        ringBuffer.publish(entity, new BigDecimal(4));
+        assertThat(ringBuffer.isAvailable(4), is(true));
+        assertThat(ringBuffer.getPrice(4), is(equalTo(new BigDecimal(4))));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRejectPublishToFullRingWhenStopped() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            ringBuffer.publish(entity, new BigDecimal(i));
+        }
+        ringBuffer.setStopped(true);
+
+        ringBuffer.publish(entity, new BigDecimal(4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldThrowWhenSizeIsNotPowerOfTwo() throws Exception {
+        new PriceRingBuffer(3, 1, new BlockingWaitStrategy());
+    }
+}
@@ -0,0 +1,37 @@
+package com.aspectcapital.questiontwo.price;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PriceTracerTest {
+    private final PriceTracer tracer = new PriceTracer(2);
+
+    @Test
+    public void shouldDumpTracedEventsOldestFirst() throws Exception {
+        tracer.trace(PriceTracer.Event.RECEIVED, 7, 1);
+        tracer.trace(PriceTracer.Event.PROCESSED, 7, 3);
+
+        String[] lines = tracer.dump().split(System.lineSeparator());
+
+        assertThat(lines.length, is(2));
+        assertThat(lines[0], containsString("RECEIVED entityId=7 value=1"));
+        assertThat(lines[1], containsString("PROCESSED entityId=7 value=3"));
+    }
+
+    @Test
+    public void shouldKeepOnlyLastEventsWhenFull() throws Exception {
+        tracer.trace(PriceTracer.Event.RECEIVED, 1, 1);
+        tracer.trace(PriceTracer.Event.QUEUED, 2, 1);
+        tracer.trace(PriceTracer.Event.TOOK, 3, 1);
+
+        String dump = tracer.dump();
+
+        assertThat(dump, not(containsString("RECEIVED")));
+        assertThat(dump, containsString("QUEUED entityId=2"));
+        assertThat(dump, containsString("TOOK entityId=3"));
+    }
+}
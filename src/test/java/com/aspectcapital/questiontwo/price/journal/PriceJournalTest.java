@@ -0,0 +1,162 @@
+package com.aspectcapital.questiontwo.price.journal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PriceJournalTest {
+    private static final int SEGMENT_SIZE = PriceJournal.MIN_SEGMENT_SIZE;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldReadBackRecordsInOrder() throws Exception {
+        Path directory = folder.getRoot().toPath();
+
+        try (PriceJournal journal = new PriceJournal(directory, SEGMENT_SIZE)) {
+            journal.append(JournalRecord.Type.RECEIVED, 3, new BigDecimal("10.25"));
+            journal.append(JournalRecord.Type.PROCESSED, 3, new BigDecimal("20.5"));
+            journal.append(JournalRecord.Type.PROCESSED, 4, null);
+        }
+
+        List<JournalRecord> records = read(directory);
+
+        assertThat(records.size(), is(3));
+        assertThat(records.get(0).type(), is(JournalRecord.Type.RECEIVED));
+        assertThat(records.get(0).entityId(), is(3));
+        assertThat(records.get(0).price(), is(equalTo(new BigDecimal("10.25"))));
+        assertThat(records.get(1).type(), is(JournalRecord.Type.PROCESSED));
+        assertThat(records.get(1).price(), is(equalTo(new BigDecimal("20.5"))));
+        assertThat(records.get(2).price(), is(nullValue()));
+        assertThat(records.get(0).timestampNanos() <= records.get(1).timestampNanos(), is(true));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotAppendAfterClosed() throws Exception {
+        PriceJournal journal = new PriceJournal(folder.getRoot().toPath(), SEGMENT_SIZE);
+        journal.close();
+
+        journal.append(JournalRecord.Type.RECEIVED, 3, BigDecimal.ONE);
+    }
+
+    @Test
+    public void shouldIgnoreCloseWhenAlreadyClosed() throws Exception {
+        PriceJournal journal = new PriceJournal(folder.getRoot().toPath(), SEGMENT_SIZE);
+        journal.close();
+
+        journal.close();
+    }
+
+    @Test
+    public void shouldRollOverToNewSegmentsWhenSegmentIsFull() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        int numberOfRecords = 3 * SEGMENT_SIZE / PriceJournal.RECORD_SIZE + 1;
+
+        try (PriceJournal journal = new PriceJournal(directory, SEGMENT_SIZE)) {
+            for (int i = 0; i < numberOfRecords; i++) {
+                journal.append(JournalRecord.Type.RECEIVED, i, new BigDecimal(i));
+            }
+        }
+
+        List<JournalRecord> records = read(directory);
+
+        assertThat(records.size(), is(numberOfRecords));
+        for (int i = 0; i < numberOfRecords; i++) {
+            assertThat(records.get(i).entityId(), is(i));
+            assertThat(records.get(i).price(), is(equalTo(new BigDecimal(i))));
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files.filter(path -> path.toString().endsWith(".journal")).count() >= 4, is(true));
+        }
+    }
+
+    @Test
+    public void shouldAppendAfterExistingSegmentsWhenReopened() throws Exception {
+        Path directory = folder.getRoot().toPath();
+
+        try (PriceJournal journal = new PriceJournal(directory, SEGMENT_SIZE)) {
+            journal.append(JournalRecord.Type.RECEIVED, 0, new BigDecimal(1));
+        }
+        try (PriceJournal journal = new PriceJournal(directory, SEGMENT_SIZE)) {
+            journal.append(JournalRecord.Type.RECEIVED, 0, new BigDecimal(2));
+        }
+
+        List<JournalRecord> records = read(directory);
+
+        assertThat(records.size(), is(2));
+        assertThat(records.get(0).price(), is(equalTo(new BigDecimal(1))));
+        assertThat(records.get(1).price(), is(equalTo(new BigDecimal(2))));
+    }
+
+    @Test
+    public void shouldJournalPriceBeyondLongRangeApproximately() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        BigDecimal price = new BigDecimal(BigInteger.TEN.pow(30));
+
+        try (PriceJournal journal = new PriceJournal(directory, SEGMENT_SIZE)) {
+            journal.append(JournalRecord.Type.RECEIVED, 0, price);
+        }
+
+        JournalRecord record = read(directory).get(0);
+
+        assertThat(record.approximate(), is(true));
+        assertThat(record.price().compareTo(price), is(0));
+    }
+
+    @Test
+    public void shouldReadBackEntityNames() throws Exception {
+        Path directory = folder.getRoot().toPath();
+
+        try (PriceJournal journal = new PriceJournal(directory, SEGMENT_SIZE)) {
+            journal.appendEntity(0, "a");
+            journal.appendEntity(1, "b");
+        }
+
+        assertThat(PriceJournal.readEntityNames(directory).get(1), is("b"));
+        assertThat(PriceJournal.readEntityNames(directory).size(), is(2));
+    }
+
+    @Test
+    public void shouldReadBackEntityNamesAppendedAllAtOnce() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        String[] names = new String[20000];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "entity-" + i;
+        }
+
+        try (PriceJournal journal = new PriceJournal(directory, SEGMENT_SIZE)) {
+            journal.appendEntities(names);
+        }
+
+        Map<Integer, String> read = PriceJournal.readEntityNames(directory);
+        assertThat(read.size(), is(names.length));
+        assertThat(read.get(19999), is("entity-19999"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotAcceptSegmentSizeNotPowerOf2() throws Exception {
+        new PriceJournal(folder.getRoot().toPath(), SEGMENT_SIZE + 1);
+    }
+
+    private static List<JournalRecord> read(Path directory) throws Exception {
+        List<JournalRecord> records = new ArrayList<>();
+        PriceJournal.read(directory, records::add);
+
+        return records;
+    }
+}
@@ -3,6 +3,9 @@ package com.aspectcapital.questiontwo.price.processor;
 import java.math.BigDecimal;
 import java.util.concurrent.CountDownLatch;
 
+/**
+ * Counts the latch down once {@code lastPrice} is processed, which is before the holder publishes it.
+ */
 public class CountingOnePriceValuePriceProcessor extends DelayingPriceProcessor {
     public CountingOnePriceValuePriceProcessor(int processSleep, CountDownLatch latch, BigDecimal lastPrice) {
         super(processSleep);
@@ -0,0 +1,92 @@
+package com.aspectcapital.questiontwo.price.subscription;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ConflatingPriceSubscriptionTest {
+    private final List<PriceListener> unsubscribed = new ArrayList<>();
+    private final RecordingSubscriber subscriber = new RecordingSubscriber();
+    private final ConflatingPriceSubscription subscription = new ConflatingPriceSubscription(subscriber, unsubscribed::add);
+
+    @Test
+    public void shouldKeepOnlyLatestUpdateOfEntityWithoutDemand() throws Exception {
+        subscription.onPrice(update(0, 10));
+        subscription.onPrice(update(0, 11));
+        subscription.onPrice(update(1, 20));
+
+        assertThat(subscriber.updates.isEmpty(), is(true));
+        assertThat(subscription.getNumberOfPendingUpdates(), is(2));
+
+        subscription.request(Long.MAX_VALUE);
+
+        assertThat(subscriber.updates, is(equalTo(Arrays.asList(update(0, 11), update(1, 20)))));
+    }
+
+    @Test
+    public void shouldDeliverNoMoreUpdatesThanRequested() throws Exception {
+        subscription.request(1);
+        subscription.onPrice(update(0, 10));
+        subscription.onPrice(update(1, 20));
+
+        assertThat(subscriber.updates, is(equalTo(Arrays.asList(update(0, 10)))));
+
+        subscription.request(1);
+
+        assertThat(subscriber.updates, is(equalTo(Arrays.asList(update(0, 10), update(1, 20)))));
+    }
+
+    @Test
+    public void shouldUnsubscribeAndStopDeliveringWhenCancelled() throws Exception {
+        subscription.request(Long.MAX_VALUE);
+        subscription.cancel();
+        subscription.onPrice(update(0, 10));
+
+        assertThat(subscriber.updates.isEmpty(), is(true));
+        assertThat(unsubscribed, is(equalTo(Arrays.<PriceListener>asList(subscription))));
+    }
+
+    @Test
+    public void shouldSignalErrorWhenRequestIsNotPositive() throws Exception {
+        subscription.request(0);
+
+        assertThat(subscriber.error, is(instanceOf(IllegalArgumentException.class)));
+        assertThat(unsubscribed.size(), is(1));
+    }
+
+    private static PriceUpdate update(int entityId, int price) {
+        return new PriceUpdate(entityId, String.valueOf(entityId), new BigDecimal(price));
+    }
+
+    private static class RecordingSubscriber implements Flow.Subscriber<PriceUpdate> {
+        private final List<PriceUpdate> updates = new ArrayList<>();
+        private Throwable error;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+        }
+
+        @Override
+        public void onNext(PriceUpdate item) {
+            updates.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
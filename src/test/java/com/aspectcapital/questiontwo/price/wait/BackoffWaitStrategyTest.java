@@ -0,0 +1,44 @@
+package com.aspectcapital.questiontwo.price.wait;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class BackoffWaitStrategyTest {
+    private final BackoffWaitStrategy waitStrategy = new BackoffWaitStrategy(10, 10);
+    private final AtomicBoolean condition = new AtomicBoolean();
+
+    @Test(timeout = 1000)
+    public void shouldWakeParkedThreadWhenSignalled() throws Exception {
+        Thread waiter = new Thread(() -> {
+            try {
+                waitStrategy.waitFor(condition::get);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiter.start();
+        Thread.sleep(50);
+
+        condition.set(true);
+        waitStrategy.signalAll();
+
+        waiter.join();
+    }
+
+    @Test(timeout = 1000)
+    public void shouldReturnFalseWhenConditionDoesNotHoldWithinTimeout() throws Exception {
+        assertThat(waitStrategy.waitFor(condition::get, TimeUnit.MILLISECONDS.toNanos(10)), is(false));
+    }
+
+    @Test(timeout = 1000)
+    public void shouldReturnTrueWhenConditionAlreadyHolds() throws Exception {
+        condition.set(true);
+
+        assertThat(waitStrategy.waitFor(condition::get, 0), is(true));
+    }
+}
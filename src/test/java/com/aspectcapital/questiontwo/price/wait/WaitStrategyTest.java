@@ -0,0 +1,46 @@
+package com.aspectcapital.questiontwo.price.wait;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class WaitStrategyTest {
+    private final WaitStrategy waitStrategy = new WaitStrategy() {
+        @Override
+        public void waitFor(BooleanSupplier condition) {
+            while (!condition.getAsBoolean()) {
+                Thread.onSpinWait();
+            }
+        }
+
+        @Override
+        public void signalAll() {
+        }
+    };
+    private final AtomicBoolean condition = new AtomicBoolean();
+
+    @Test(timeout = 1000)
+    public void shouldReturnFalseFromDefaultTimedWaitWhenConditionDoesNotHold() throws Exception {
+        assertThat(waitStrategy.waitFor(condition::get, TimeUnit.MILLISECONDS.toNanos(10)), is(false));
+    }
+
+    @Test(timeout = 1000)
+    public void shouldReturnTrueFromDefaultTimedWaitOnceConditionHolds() throws Exception {
+        Thread setter = new Thread(() -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException ignored) {
+            }
+            condition.set(true);
+        });
+        setter.start();
+
+        assertThat(waitStrategy.waitFor(condition::get, TimeUnit.SECONDS.toNanos(1)), is(true));
+        setter.join();
+    }
+}